@@ -0,0 +1,165 @@
+package ir.ifoto.client;
+
+import java.time.Duration;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Count-based circuit breaker. Opens when the failure rate over the last {@code windowSize}
+ * calls reaches the threshold, turns calls away while open, then lets a few trial calls
+ * through and closes again once they all succeed.
+ */
+final class CircuitBreaker {
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    enum Permission { DENIED, CALL, TRIAL }
+
+    private final int windowSize;
+    private final int minCalls;
+    private final double failureRateThreshold;
+    private final long openNanos;
+    private final int trialCalls;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final boolean[] window;
+    private int position;
+    private int recorded;
+    private int failures;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int trialsInFlight;
+    private int trialSuccesses;
+    private long opens;
+
+    CircuitBreaker(int windowSize, int minCalls, double failureRateThreshold, Duration openDuration, int trialCalls) {
+        this.windowSize = Math.max(1, windowSize);
+        this.minCalls = Math.max(1, Math.min(minCalls, this.windowSize));
+        this.failureRateThreshold = failureRateThreshold;
+        this.openNanos = openDuration.toNanos();
+        this.trialCalls = Math.max(1, trialCalls);
+        this.window = new boolean[this.windowSize];
+    }
+
+    /**
+     * Every permitted call must be followed by {@link #onResult} or {@link #onAbandoned}
+     */
+    Permission tryAcquirePermission() {
+        lock.lock();
+        try {
+            if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+                state = State.HALF_OPEN;
+                trialsInFlight = 0;
+                trialSuccesses = 0;
+            }
+            if (state == State.OPEN) {
+                return Permission.DENIED;
+            }
+            if (state == State.HALF_OPEN) {
+                if (trialsInFlight + trialSuccesses >= trialCalls) {
+                    return Permission.DENIED;
+                }
+                trialsInFlight++;
+                return Permission.TRIAL;
+            }
+            return Permission.CALL;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void onResult(Permission permission, boolean failed) {
+        lock.lock();
+        try {
+            if (permission == Permission.TRIAL) {
+                if (state != State.HALF_OPEN) {
+                    return;
+                }
+                trialsInFlight = Math.max(0, trialsInFlight - 1);
+                if (failed) {
+                    open();
+                } else if (++trialSuccesses >= trialCalls) {
+                    state = State.CLOSED;
+                    position = 0;
+                    recorded = 0;
+                    failures = 0;
+                }
+                return;
+            }
+            if (state != State.CLOSED) {
+                // Late results from calls made before the breaker opened
+                return;
+            }
+            if (recorded == windowSize && window[position]) {
+                failures--;
+            }
+            window[position] = failed;
+            position = (position + 1) % windowSize;
+            recorded = Math.min(recorded + 1, windowSize);
+            if (failed) {
+                failures++;
+            }
+            if (recorded >= minCalls && failures >= failureRateThreshold * recorded) {
+                open();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A permitted call that never reached the service
+     */
+    void onAbandoned(Permission permission) {
+        lock.lock();
+        try {
+            if (permission == Permission.TRIAL && state == State.HALF_OPEN) {
+                trialsInFlight = Math.max(0, trialsInFlight - 1);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+        opens++;
+    }
+
+    Duration retryAfter() {
+        lock.lock();
+        try {
+            long remaining = state == State.OPEN ? openNanos - (System.nanoTime() - openedAt) : 0;
+            return Duration.ofNanos(Math.max(remaining, 0));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    State getState() {
+        lock.lock();
+        try {
+            return state;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    double getFailureRate() {
+        lock.lock();
+        try {
+            return recorded > 0 ? failures / (double) recorded : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getOpens() {
+        lock.lock();
+        try {
+            return opens;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
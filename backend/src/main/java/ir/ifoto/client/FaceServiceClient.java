@@ -1,16 +1,20 @@
 package ir.ifoto.client;
 
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+import ir.ifoto.exception.FaceServiceUnavailableException;
+import ir.ifoto.exception.NoFaceDetectedException;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
 import org.springframework.http.*;
 import org.springframework.stereotype.Component;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
-import org.springframework.web.multipart.MultipartFile;
 
-import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 
@@ -18,20 +22,35 @@ import java.util.Map;
 @Component
 public class FaceServiceClient {
     
-    private final RestTemplate restTemplate;
+    private final RestTemplate extractionTemplate;
+    private final RestTemplate searchTemplate;
+    private final FaceServiceGuard extractionGuard;
+    private final FaceServiceGuard searchGuard;
     private final String faceServiceUrl;
     
+    /**
+     * Extraction and search calls use separate connection pools and separate guards, see
+     * {@code RestTemplateConfig} and {@code FaceServiceGuardConfig}. Calls a guard turns away
+     * throw {@link FaceServiceUnavailableException} unwrapped, and a query image the face service
+     * rejects throws {@link NoFaceDetectedException}.
+     */
     public FaceServiceClient(
-            RestTemplate restTemplate,
+            @Qualifier("faceExtractionRestTemplate") RestTemplate extractionTemplate,
+            @Qualifier("faceSearchRestTemplate") RestTemplate searchTemplate,
+            @Qualifier("faceExtractionGuard") FaceServiceGuard extractionGuard,
+            @Qualifier("faceSearchGuard") FaceServiceGuard searchGuard,
             @Value("${ifoto.face-service.url}") String faceServiceUrl) {
-        this.restTemplate = restTemplate;
+        this.extractionTemplate = extractionTemplate;
+        this.searchTemplate = searchTemplate;
+        this.extractionGuard = extractionGuard;
+        this.searchGuard = searchGuard;
         this.faceServiceUrl = faceServiceUrl;
     }
     
     /**
      * Extract face embeddings from an image
      */
-    public FaceExtractionResponse extractEmbeddings(MultipartFile file, Long photoId, Long eventId) {
+    public FaceExtractionResponse extractEmbeddings(Resource image, Long photoId, Long eventId) {
         try {
             String url = faceServiceUrl + "/api/face/extract";
             
@@ -39,20 +58,22 @@ public class FaceServiceClient {
             headers.setContentType(MediaType.MULTIPART_FORM_DATA);
             
             MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
-            body.add("file", new MultipartFileResource(file));
+            body.add("file", image);
             body.add("photo_id", photoId.toString());
             body.add("event_id", eventId.toString());
             
             HttpEntity<MultiValueMap<String, Object>> requestEntity = new HttpEntity<>(body, headers);
             
-            ResponseEntity<FaceExtractionResponse> response = restTemplate.postForEntity(
+            ResponseEntity<FaceExtractionResponse> response = extractionGuard.call(() -> extractionTemplate.postForEntity(
                     url, 
                     requestEntity, 
                     FaceExtractionResponse.class
-            );
+            ));
             
             return response.getBody();
             
+        } catch (FaceServiceUnavailableException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Error extracting face embeddings: {}", e.getMessage(), e);
             throw new RuntimeException("Failed to extract face embeddings", e);
@@ -60,31 +81,78 @@ public class FaceServiceClient {
     }
     
     /**
-     * Search for similar faces
+     * Compute the embedding of the first face in a query image
+     */
+    public QueryEmbedding embedQuery(Resource image) {
+        return embedQuery(image, false);
+    }
+    
+    /**
+     * Compute query embeddings in one inference pass; with {@code allFaces} every
+     * detected face is returned in {@link QueryEmbedding#faces()}
      */
-    public FaceSearchResult searchSimilarFaces(MultipartFile file, Long eventId, Integer limit, Float threshold) {
+    public QueryEmbedding embedQuery(Resource image, boolean allFaces) {
         try {
-            String url = faceServiceUrl + "/api/face/search";
+            String url = faceServiceUrl + "/api/face/embed";
             
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.MULTIPART_FORM_DATA);
             
             MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
-            body.add("file", new MultipartFileResource(file));
-            body.add("event_id", eventId.toString());
-            body.add("limit", limit != null ? limit.toString() : "50");
-            body.add("threshold", threshold != null ? threshold.toString() : "0.6");
+            body.add("file", image);
+            if (allFaces) {
+                body.add("all_faces", "true");
+            }
             
             HttpEntity<MultiValueMap<String, Object>> requestEntity = new HttpEntity<>(body, headers);
             
-            ResponseEntity<FaceSearchResult> response = restTemplate.postForEntity(
+            ResponseEntity<QueryEmbedding> response = searchGuard.call(() -> searchTemplate.postForEntity(
                     url,
                     requestEntity,
-                    FaceSearchResult.class
+                    QueryEmbedding.class
+            ));
+            
+            return response.getBody();
+            
+        } catch (FaceServiceUnavailableException e) {
+            throw e;
+        } catch (HttpClientErrorException.BadRequest | HttpClientErrorException.UnprocessableEntity e) {
+            throw new NoFaceDetectedException("No face detected in the query image");
+        } catch (Exception e) {
+            log.error("Error embedding query image: {}", e.getMessage(), e);
+            throw new RuntimeException("Failed to embed query image", e);
+        }
+    }
+    
+    /**
+     * Search for similar faces with a precomputed query embedding
+     */
+    public FaceSearchResult searchByVector(float[] embedding, Long eventId, Integer limit, Float threshold) {
+        try {
+            String url = faceServiceUrl + "/api/face/search-vector";
+            
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_JSON);
+            
+            Map<String, Object> body = Map.of(
+                    "event_id", eventId,
+                    "embedding", embedding,
+                    "limit", limit != null ? limit : 50,
+                    "threshold", threshold != null ? threshold : 0.6f
             );
             
+            HttpEntity<Map<String, Object>> requestEntity = new HttpEntity<>(body, headers);
+            
+            ResponseEntity<FaceSearchResult> response = searchGuard.call(() -> searchTemplate.postForEntity(
+                    url,
+                    requestEntity,
+                    FaceSearchResult.class
+            ));
+            
             return response.getBody();
             
+        } catch (FaceServiceUnavailableException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Error searching faces: {}", e.getMessage(), e);
             throw new RuntimeException("Failed to search faces", e);
@@ -104,47 +172,55 @@ public class FaceServiceClient {
             Map<String, Object> body = Map.of("event_id", eventId);
             HttpEntity<Map<String, Object>> requestEntity = new HttpEntity<>(body, headers);
             
-            restTemplate.exchange(url, HttpMethod.DELETE, requestEntity, Void.class);
+            searchGuard.call(() -> searchTemplate.exchange(url, HttpMethod.DELETE, requestEntity, Void.class));
             
+        } catch (FaceServiceUnavailableException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Error deleting event embeddings: {}", e.getMessage(), e);
             throw new RuntimeException("Failed to delete event embeddings", e);
         }
     }
     
-    // Helper class to convert MultipartFile to Resource
-    private static class MultipartFileResource extends ByteArrayResource {
-        private final String filename;
-        
-        public MultipartFileResource(MultipartFile multipartFile) throws IOException {
-            super(multipartFile.getBytes());
-            this.filename = multipartFile.getOriginalFilename();
-        }
-        
-        @Override
-        public String getFilename() {
-            return this.filename;
-        }
-    }
-    
-    // Response DTOs for Face Service
+    // Response DTOs for Face Service (the face service answers in snake_case)
+    @JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
     public record FaceExtractionResponse(
             Integer faceCount,
             List<EmbeddingData> embeddings
     ) {}
     
+    @JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
     public record EmbeddingData(
             String vectorId,
             Integer faceIndex,
             List<Integer> bbox,
+            Float confidence,
+            float[] embedding
+    ) {}
+    
+    @JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+    public record QueryEmbedding(
+            Integer faceCount,
+            float[] embedding,
+            List<Integer> bbox,
+            Float confidence,
+            List<QueryFace> faces
+    ) {}
+    
+    @JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+    public record QueryFace(
+            float[] embedding,
+            List<Integer> bbox,
             Float confidence
     ) {}
     
+    @JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
     public record FaceSearchResult(
             List<FaceMatch> matches,
             Integer totalMatches
     ) {}
     
+    @JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
     public record FaceMatch(
             String vectorId,
             Float similarity,
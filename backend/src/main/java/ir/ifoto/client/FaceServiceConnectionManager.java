@@ -0,0 +1,100 @@
+package ir.ifoto.client;
+
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.io.ConnectionEndpoint;
+import org.apache.hc.client5.http.io.LeaseRequest;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keep-alive connection pool for one kind of face service traffic. Records how long callers
+ * wait for a connection and how often a new one has to be opened, so queueing in the client
+ * can be told apart from slowness in the service.
+ */
+public class FaceServiceConnectionManager extends PoolingHttpClientConnectionManager {
+
+    private final String name;
+
+    private final LongAdder leases = new LongAdder();
+    private final LongAdder connects = new LongAdder();
+    private final LongAdder leaseTimeouts = new LongAdder();
+    private final LongAdder totalLeaseNanos = new LongAdder();
+    private final LongAccumulator maxLeaseNanos = new LongAccumulator(Math::max, 0);
+
+    public FaceServiceConnectionManager(String name, int maxConnections) {
+        this.name = name;
+        // A single route, so the per-route limit is the pool size
+        setMaxTotal(maxConnections);
+        setDefaultMaxPerRoute(maxConnections);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public LeaseRequest lease(String id, HttpRoute route, Timeout requestTimeout, Object state) {
+        long start = System.nanoTime();
+        LeaseRequest request = super.lease(id, route, requestTimeout, state);
+        return new LeaseRequest() {
+
+            @Override
+            public ConnectionEndpoint get(Timeout timeout)
+                    throws InterruptedException, ExecutionException, TimeoutException {
+                try {
+                    ConnectionEndpoint endpoint = request.get(timeout);
+                    long nanos = System.nanoTime() - start;
+                    leases.increment();
+                    totalLeaseNanos.add(nanos);
+                    maxLeaseNanos.accumulate(nanos);
+                    return endpoint;
+                } catch (TimeoutException e) {
+                    leaseTimeouts.increment();
+                    throw e;
+                }
+            }
+
+            @Override
+            public boolean cancel() {
+                return request.cancel();
+            }
+        };
+    }
+
+    /**
+     * Only called for endpoints without an open connection, so this counts the reuse misses
+     */
+    @Override
+    public void connect(ConnectionEndpoint endpoint, TimeValue timeout, HttpContext context) throws IOException {
+        connects.increment();
+        super.connect(endpoint, timeout, context);
+    }
+
+    public Map<String, Object> getStats() {
+        PoolStats pool = getTotalStats();
+        long count = leases.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("maxConnections", pool.getMax());
+        stats.put("leased", pool.getLeased());
+        stats.put("idle", pool.getAvailable());
+        stats.put("pending", pool.getPending());
+        stats.put("leases", count);
+        stats.put("connects", connects.sum());
+        stats.put("reuseRate", count > 0 ? Math.round((1 - connects.sum() / (double) count) * 1000) / 1000.0 : 0);
+        stats.put("avgAcquireMs", count > 0 ? totalLeaseNanos.sum() / count / 1e6 : 0);
+        stats.put("maxAcquireMs", maxLeaseNanos.get() / 1e6);
+        stats.put("acquireTimeouts", leaseTimeouts.sum());
+        return stats;
+    }
+}
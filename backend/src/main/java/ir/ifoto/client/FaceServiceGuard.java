@@ -0,0 +1,122 @@
+package ir.ifoto.client;
+
+import ir.ifoto.exception.FaceServiceUnavailableException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Bulkhead around one kind of face service traffic: an adaptive concurrency limit and a
+ * circuit breaker. Calls that are turned away throw {@link FaceServiceUnavailableException}
+ * without touching the network. Calls slower than {@code slowCall} count as failures, so a
+ * service that stalls trips the breaker well before the read timeout.
+ */
+@Slf4j
+public class FaceServiceGuard {
+
+    private static final Duration BUSY_RETRY_AFTER = Duration.ofSeconds(1);
+
+    private final String name;
+    private final AdaptiveLimiter limiter;
+    private final CircuitBreaker breaker;
+    private final long maxWaitNanos;
+    private final long slowCallNanos;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder slowCalls = new LongAdder();
+    private final LongAdder rejectedBusy = new LongAdder();
+    private final LongAdder rejectedOpen = new LongAdder();
+
+    public FaceServiceGuard(String name, int minLimit, int maxLimit, Duration latencyTarget, Duration maxWait,
+                            Duration slowCall, CircuitBreakerSettings breakerSettings) {
+        this.name = name;
+        this.limiter = new AdaptiveLimiter(minLimit, maxLimit, latencyTarget.toNanos());
+        this.breaker = new CircuitBreaker(breakerSettings.windowSize(), breakerSettings.minCalls(),
+                breakerSettings.failureRateThreshold(), breakerSettings.openDuration(), breakerSettings.trialCalls());
+        this.maxWaitNanos = maxWait.toNanos();
+        this.slowCallNanos = slowCall.toNanos();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public <T> T call(Supplier<T> call) {
+        CircuitBreaker.Permission permission = breaker.tryAcquirePermission();
+        if (permission == CircuitBreaker.Permission.DENIED) {
+            rejectedOpen.increment();
+            Duration retryAfter = breaker.retryAfter();
+            throw new FaceServiceUnavailableException("Face service is unavailable, retry in "
+                    + Math.max(1, retryAfter.toSeconds()) + "s", retryAfter);
+        }
+
+        boolean acquired;
+        try {
+            acquired = limiter.tryAcquire(maxWaitNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            breaker.onAbandoned(permission);
+            rejectedBusy.increment();
+            throw new FaceServiceUnavailableException("Face service is busy", BUSY_RETRY_AFTER);
+        }
+
+        calls.increment();
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = call.get();
+            failed = false;
+            return result;
+        } catch (RuntimeException e) {
+            // Rejected requests, e.g. images without a face, say nothing about the service's health
+            failed = !(NestedExceptionUtils.getMostSpecificCause(e) instanceof HttpClientErrorException);
+            throw e;
+        } finally {
+            long nanos = System.nanoTime() - start;
+            boolean slow = nanos > slowCallNanos;
+            if (failed) {
+                failures.increment();
+            } else if (slow) {
+                slowCalls.increment();
+            }
+            limiter.release(nanos, failed);
+            CircuitBreaker.State before = breaker.getState();
+            breaker.onResult(permission, failed || slow);
+            CircuitBreaker.State after = breaker.getState();
+            if (before != after) {
+                log.warn("Face service {} circuit {} -> {}", name, before, after);
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("circuit", breaker.getState().name());
+        stats.put("failureRate", Math.round(breaker.getFailureRate() * 1000) / 1000.0);
+        stats.put("opens", breaker.getOpens());
+        stats.put("concurrencyLimit", limiter.getLimit());
+        stats.put("inFlight", limiter.getInFlight());
+        stats.put("calls", calls.sum());
+        stats.put("failures", failures.sum());
+        stats.put("slowCalls", slowCalls.sum());
+        stats.put("rejectedBusy", rejectedBusy.sum());
+        stats.put("rejectedOpen", rejectedOpen.sum());
+        return stats;
+    }
+
+    /**
+     * Breaker settings shared by the search and extraction guards
+     */
+    public record CircuitBreakerSettings(int windowSize, int minCalls, double failureRateThreshold,
+                                         Duration openDuration, int trialCalls) {}
+}
@@ -0,0 +1,122 @@
+package ir.ifoto.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Configuration
+@EnableScheduling
+public class AsyncConfig {
+    
+    /**
+     * With spring.threads.virtual.enabled the pools that wait on I/O (face service, object
+     * storage) run their workers on virtual threads; pool sizes still bound the concurrency.
+     * CPU-bound pools keep platform threads.
+     */
+    private final boolean virtualThreads;
+    
+    public AsyncConfig(@Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+    
+    /**
+     * Bounded worker pool that drains photos waiting for face extraction
+     */
+    @Bean
+    public ThreadPoolTaskExecutor faceExtractionExecutor(
+            @Value("${ifoto.face-extraction.workers:4}") int workers,
+            @Value("${ifoto.face-extraction.queue-capacity:100}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("face-extract-");
+        executor.setVirtualThreads(virtualThreads);
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        return executor;
+    }
+    
+    /**
+     * Pool for parallel object storage writes during batch uploads.
+     * When saturated the request thread writes the file itself instead of failing.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor storageExecutor(
+            @Value("${ifoto.upload.storage-workers:8}") int workers) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        executor.setQueueCapacity(workers * 4);
+        executor.setThreadNamePrefix("storage-");
+        executor.setVirtualThreads(virtualThreads);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        return executor;
+    }
+    
+    /**
+     * CPU-bound pool for thumbnail and preview generation, one thread per core by default
+     */
+    @Bean
+    public ThreadPoolTaskExecutor renditionExecutor(
+            @Value("${ifoto.renditions.workers:0}") int workers,
+            @Value("${ifoto.renditions.queue-capacity:1000}") int queueCapacity) {
+        int threads = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("rendition-");
+        return executor;
+    }
+    
+    /**
+     * Runs the per-image inference calls and per-face lookups of batch face searches.
+     * When saturated the request thread does the work itself instead of failing.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor faceSearchExecutor(
+            @Value("${ifoto.face-search.batch.workers:8}") int workers) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        executor.setQueueCapacity(workers * 4);
+        executor.setThreadNamePrefix("face-search-");
+        executor.setVirtualThreads(virtualThreads);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        return executor;
+    }
+    
+    /**
+     * Signs result URLs for face searches under a deadline. Unlike the pools above it rejects
+     * when full, since work run on the request thread could not be cut off at the deadline.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor urlSigningExecutor(
+            @Value("${ifoto.face-search.enrichment.workers:16}") int workers) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        executor.setQueueCapacity(workers * 4);
+        executor.setThreadNamePrefix("url-sign-");
+        executor.setVirtualThreads(virtualThreads);
+        return executor;
+    }
+    
+    /**
+     * Builds approximate search graphs for large events, one at a time since a build keeps a core busy
+     */
+    @Bean
+    public ThreadPoolTaskExecutor faceIndexBuildExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(100);
+        executor.setThreadNamePrefix("face-index-build-");
+        return executor;
+    }
+}
@@ -0,0 +1,69 @@
+package ir.ifoto.config;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records how long borrowers wait for a Hikari connection and how often the wait runs out.
+ * Hikari is the bound: it hands out at most maximum-pool-size connections and every other
+ * caller, platform or virtual thread, waits at most connection-timeout.
+ */
+public class ConnectionPoolStats implements MetricsTrackerFactory {
+
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder totalUsageMillis = new LongAdder();
+    private final LongAdder released = new LongAdder();
+    private volatile PoolStats pool;
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        this.pool = poolStats;
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionAcquiredNanos(long nanos) {
+                acquired.increment();
+                totalWaitNanos.add(nanos);
+                maxWaitNanos.accumulate(nanos);
+            }
+
+            @Override
+            public void recordConnectionUsageMillis(long millis) {
+                released.increment();
+                totalUsageMillis.add(millis);
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                timeouts.increment();
+            }
+        };
+    }
+
+    public Map<String, Object> getStats() {
+        long count = acquired.sum();
+        long uses = released.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        PoolStats current = pool;
+        if (current != null) {
+            stats.put("maxConnections", current.getMaxConnections());
+            stats.put("active", current.getActiveConnections());
+            stats.put("idle", current.getIdleConnections());
+            stats.put("waiting", current.getPendingThreads());
+        }
+        stats.put("acquired", count);
+        stats.put("timeouts", timeouts.sum());
+        stats.put("avgWaitMs", count > 0 ? totalWaitNanos.sum() / count / 1e6 : 0);
+        stats.put("maxWaitMs", maxWaitNanos.get() / 1e6);
+        stats.put("avgUsageMs", uses > 0 ? totalUsageMillis.sum() / (double) uses : 0);
+        return stats;
+    }
+}
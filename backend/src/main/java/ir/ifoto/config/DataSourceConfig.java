@@ -0,0 +1,35 @@
+package ir.ifoto.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class DataSourceConfig {
+
+    @Bean
+    public static ConnectionPoolStats connectionPoolStats() {
+        return new ConnectionPoolStats();
+    }
+
+    /**
+     * With virtual threads nothing upstream bounds how many requests reach the connection
+     * pool. Hikari's own wait is the bound, so the data source stays a HikariDataSource and
+     * only gets a tracker for the wait times. Static so the post-processor is registered
+     * before the data source is created, and before the pool starts.
+     */
+    @Bean
+    public static BeanPostProcessor connectionPoolStatsPostProcessor(ObjectProvider<ConnectionPoolStats> stats) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof HikariDataSource hikari && hikari.getMetricsTrackerFactory() == null) {
+                    hikari.setMetricsTrackerFactory(stats.getObject());
+                }
+                return bean;
+            }
+        };
+    }
+}
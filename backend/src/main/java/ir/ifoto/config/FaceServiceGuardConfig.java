@@ -0,0 +1,48 @@
+package ir.ifoto.config;
+
+import ir.ifoto.client.FaceServiceGuard;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * Separate bulkheads for guest searches and background extraction, so a slow face service
+ * fails searches fast instead of tying up servlet threads for the whole read timeout
+ */
+@Configuration
+public class FaceServiceGuardConfig {
+    
+    private final FaceServiceGuard.CircuitBreakerSettings breakerSettings;
+    
+    public FaceServiceGuardConfig(
+            @Value("${ifoto.face-service.guard.circuit.window-size:20}") int windowSize,
+            @Value("${ifoto.face-service.guard.circuit.min-calls:10}") int minCalls,
+            @Value("${ifoto.face-service.guard.circuit.failure-rate:0.5}") double failureRate,
+            @Value("${ifoto.face-service.guard.circuit.open-duration:30s}") Duration openDuration,
+            @Value("${ifoto.face-service.guard.circuit.trial-calls:2}") int trialCalls) {
+        this.breakerSettings = new FaceServiceGuard.CircuitBreakerSettings(
+                windowSize, minCalls, failureRate, openDuration, trialCalls);
+    }
+    
+    @Bean
+    public FaceServiceGuard faceSearchGuard(
+            @Value("${ifoto.face-service.guard.search.min-limit:2}") int minLimit,
+            @Value("${ifoto.face-service.guard.search.max-limit:32}") int maxLimit,
+            @Value("${ifoto.face-service.guard.search.latency-target:2s}") Duration latencyTarget,
+            @Value("${ifoto.face-service.guard.search.max-wait:200ms}") Duration maxWait,
+            @Value("${ifoto.face-service.guard.search.slow-call:5s}") Duration slowCall) {
+        return new FaceServiceGuard("search", minLimit, maxLimit, latencyTarget, maxWait, slowCall, breakerSettings);
+    }
+    
+    @Bean
+    public FaceServiceGuard faceExtractionGuard(
+            @Value("${ifoto.face-service.guard.extraction.min-limit:1}") int minLimit,
+            @Value("${ifoto.face-service.guard.extraction.max-limit:8}") int maxLimit,
+            @Value("${ifoto.face-service.guard.extraction.latency-target:10s}") Duration latencyTarget,
+            @Value("${ifoto.face-service.guard.extraction.max-wait:30s}") Duration maxWait,
+            @Value("${ifoto.face-service.guard.extraction.slow-call:30s}") Duration slowCall) {
+        return new FaceServiceGuard("extraction", minLimit, maxLimit, latencyTarget, maxWait, slowCall, breakerSettings);
+    }
+}
@@ -1,8 +1,19 @@
 package ir.ifoto.config;
 
+import ir.ifoto.client.FaceServiceConnectionManager;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 
 import java.time.Duration;
@@ -10,11 +21,90 @@ import java.time.Duration;
 @Configuration
 public class RestTemplateConfig {
     
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    
+    private final Duration responseTimeout;
+    private final Duration searchResponseTimeout;
+    private final Duration acquireTimeout;
+    private final Duration idleTimeout;
+    
+    public RestTemplateConfig(
+            @Value("${ifoto.face-service.timeout:60000}") long responseTimeoutMillis,
+            @Value("${ifoto.face-service.search-timeout:15s}") Duration searchResponseTimeout,
+            @Value("${ifoto.face-service.pool.acquire-timeout:10s}") Duration acquireTimeout,
+            @Value("${ifoto.face-service.pool.idle-timeout:30s}") Duration idleTimeout) {
+        this.responseTimeout = Duration.ofMillis(responseTimeoutMillis);
+        this.searchResponseTimeout = searchResponseTimeout;
+        this.acquireTimeout = acquireTimeout;
+        this.idleTimeout = idleTimeout;
+    }
+    
     @Bean
+    @Primary
     public RestTemplate restTemplate(RestTemplateBuilder builder) {
         return builder
-                .setConnectTimeout(Duration.ofSeconds(10))
-                .setReadTimeout(Duration.ofSeconds(60))
+                .connectTimeout(CONNECT_TIMEOUT)
+                .readTimeout(responseTimeout)
+                .build();
+    }
+    
+    /**
+     * Connections for photo uploads to /api/face/extract, sized to the extraction workers
+     */
+    @Bean
+    public FaceServiceConnectionManager faceExtractionConnections(
+            @Value("${ifoto.face-service.pool.extraction.max-connections:8}") int maxConnections) {
+        return connections("extraction", maxConnections, responseTimeout);
+    }
+    
+    /**
+     * Connections for guest searches, kept apart so a backlog of extractions never delays them
+     */
+    @Bean
+    public FaceServiceConnectionManager faceSearchConnections(
+            @Value("${ifoto.face-service.pool.search.max-connections:32}") int maxConnections) {
+        return connections("search", maxConnections, searchResponseTimeout);
+    }
+    
+    @Bean
+    public RestTemplate faceExtractionRestTemplate(RestTemplateBuilder builder,
+            @Qualifier("faceExtractionConnections") FaceServiceConnectionManager connections) {
+        return pooled(builder, connections, responseTimeout);
+    }
+    
+    @Bean
+    public RestTemplate faceSearchRestTemplate(RestTemplateBuilder builder,
+            @Qualifier("faceSearchConnections") FaceServiceConnectionManager connections) {
+        return pooled(builder, connections, searchResponseTimeout);
+    }
+    
+    private FaceServiceConnectionManager connections(String name, int maxConnections, Duration timeout) {
+        FaceServiceConnectionManager connections = new FaceServiceConnectionManager(name, maxConnections);
+        connections.setDefaultConnectionConfig(ConnectionConfig.custom()
+                .setConnectTimeout(Timeout.of(CONNECT_TIMEOUT))
+                .setSocketTimeout(Timeout.of(timeout))
+                .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                .build());
+        return connections;
+    }
+    
+    /**
+     * Request bodies are streamed to the connection, so multipart image uploads to the face
+     * service are never buffered in full. Do not register ClientHttpRequestInterceptors on
+     * these templates: the intercepting request factory buffers the whole body.
+     */
+    private RestTemplate pooled(RestTemplateBuilder builder, FaceServiceConnectionManager connections,
+                                Duration timeout) {
+        CloseableHttpClient client = HttpClients.custom()
+                .setConnectionManager(connections)
+                .evictIdleConnections(TimeValue.of(idleTimeout))
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.of(acquireTimeout))
+                        .setResponseTimeout(Timeout.of(timeout))
+                        .build())
+                .build();
+        return builder
+                .requestFactory(() -> new HttpComponentsClientHttpRequestFactory(client))
                 .build();
     }
 }
@@ -0,0 +1,136 @@
+package ir.ifoto.config;
+
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Reports virtual threads that block while pinned to their carrier, typically blocking I/O
+ * inside a {@code synchronized} block of a client library. Pinned waits come from JFR's
+ * {@code jdk.VirtualThreadPinned} event and are grouped by the first frame outside the JDK.
+ */
+@Slf4j
+@Component
+public class VirtualThreadDiagnostics {
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final int MAX_SITES = 100;
+    private static final int LOGGED_FRAMES = 12;
+
+    private final boolean enabled;
+    private final Duration threshold;
+    private final Map<String, Site> sites = new ConcurrentHashMap<>();
+    private final LongAdder events = new LongAdder();
+    private final LongAdder totalPinnedNanos = new LongAdder();
+    private RecordingStream stream;
+
+    public VirtualThreadDiagnostics(
+            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+            @Value("${ifoto.threads.pinning-diagnostics.enabled:true}") boolean diagnostics,
+            @Value("${ifoto.threads.pinning-diagnostics.threshold:20ms}") Duration threshold) {
+        this.enabled = virtualThreads && diagnostics;
+        this.threshold = threshold;
+    }
+
+    private static final class Site {
+        final LongAdder count = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+    }
+
+    @EventListener(ContextRefreshedEvent.class)
+    public synchronized void start() {
+        if (!enabled || stream != null) {
+            return;
+        }
+        try {
+            stream = new RecordingStream();
+            stream.enable(PINNED_EVENT).withThreshold(threshold).withStackTrace();
+            stream.onEvent(PINNED_EVENT, this::record);
+            stream.startAsync();
+            log.info("Recording virtual thread pinning longer than {}", threshold);
+        } catch (Exception e) {
+            stream = null;
+            log.warn("Virtual thread pinning diagnostics unavailable: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (stream != null) {
+            stream.close();
+            stream = null;
+        }
+    }
+
+    private void record(RecordedEvent event) {
+        long nanos = event.getDuration().toNanos();
+        events.increment();
+        totalPinnedNanos.add(nanos);
+
+        List<RecordedFrame> frames = event.getStackTrace() != null ? event.getStackTrace().getFrames() : List.of();
+        String key = frames.stream()
+                .filter(frame -> frame.isJavaFrame() && !isJdk(frame))
+                .findFirst()
+                .or(() -> frames.stream().findFirst())
+                .map(VirtualThreadDiagnostics::describe)
+                .orElse("unknown");
+
+        Site site = sites.get(key);
+        if (site == null) {
+            if (sites.size() >= MAX_SITES) {
+                key = "other";
+            } else {
+                log.warn("Virtual thread pinned for {} ms at {}:\n    {}", nanos / 1_000_000, key,
+                        frames.stream().limit(LOGGED_FRAMES)
+                                .map(VirtualThreadDiagnostics::describe)
+                                .collect(Collectors.joining("\n    ")));
+            }
+            site = sites.computeIfAbsent(key, k -> new Site());
+        }
+        site.count.increment();
+        site.nanos.add(nanos);
+    }
+
+    private static boolean isJdk(RecordedFrame frame) {
+        String type = frame.getMethod().getType().getName();
+        return type.startsWith("java.") || type.startsWith("jdk.") || type.startsWith("sun.");
+    }
+
+    private static String describe(RecordedFrame frame) {
+        return frame.getMethod().getType().getName() + "." + frame.getMethod().getName()
+                + (frame.getLineNumber() > 0 ? ":" + frame.getLineNumber() : "");
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("recording", stream != null);
+        stats.put("thresholdMs", threshold.toMillis());
+        stats.put("pinnedEvents", events.sum());
+        stats.put("totalPinnedMs", totalPinnedNanos.sum() / 1_000_000);
+        stats.put("topSites", sites.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<String, Site> e) -> e.getValue().nanos.sum()).reversed())
+                .limit(10)
+                .map(e -> Map.of(
+                        "site", e.getKey(),
+                        "count", e.getValue().count.sum(),
+                        "totalMs", e.getValue().nanos.sum() / 1_000_000))
+                .toList());
+        return stats;
+    }
+}
@@ -1,15 +1,23 @@
 package ir.ifoto.controller;
 
+import ir.ifoto.dto.EventPageResponse;
 import ir.ifoto.dto.EventRequest;
 import ir.ifoto.dto.EventResponse;
 import ir.ifoto.service.EventService;
+import ir.ifoto.service.GalleryVersionService;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.CacheControl;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 
+import java.time.Instant;
+import java.time.ZoneId;
 import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
 
 @RestController
 @RequestMapping("/api/events")
@@ -17,6 +25,7 @@ import java.util.List;
 public class EventController {
     
     private final EventService eventService;
+    private final GalleryVersionService galleryVersionService;
     
     @PostMapping
     public ResponseEntity<EventResponse> createEvent(
@@ -27,14 +36,31 @@ public class EventController {
     }
     
     @GetMapping("/public")
-    public ResponseEntity<List<EventResponse>> getPublishedEvents() {
-        List<EventResponse> events = eventService.getPublishedEvents();
+    public ResponseEntity<EventPageResponse> getPublishedEvents(
+            @RequestParam(value = "page", defaultValue = "0") int page,
+            @RequestParam(value = "size", defaultValue = "20") int size) {
+        EventPageResponse events = eventService.getPublishedEvents(page, size);
         return ResponseEntity.ok(events);
     }
     
     @GetMapping("/public/{slug}")
-    public ResponseEntity<EventResponse> getEventBySlug(@PathVariable String slug) {
+    public ResponseEntity<EventResponse> getEventBySlug(@PathVariable String slug, ServletWebRequest request) {
         EventResponse event = eventService.getEventBySlug(slug);
+        
+        Instant updatedAt = event.getUpdatedAt().atZone(ZoneId.systemDefault()).toInstant();
+        Instant photographerUpdatedAt = event.getPhotographerUpdatedAt() != null
+                ? event.getPhotographerUpdatedAt().atZone(ZoneId.systemDefault()).toInstant() : null;
+        Instant lastModified = Stream.of(updatedAt, photographerUpdatedAt, galleryVersionService.get(event.getId()).changedAt())
+                .filter(Objects::nonNull)
+                .max(Instant::compareTo)
+                .orElseThrow();
+        if (HttpCaching.notModified(request,
+                galleryVersionService.eventEtag(event.getId(), updatedAt, photographerUpdatedAt),
+                lastModified,
+                CacheControl.noCache().cachePublic())) {
+            return null;
+        }
+        
         return ResponseEntity.ok(event);
     }
     
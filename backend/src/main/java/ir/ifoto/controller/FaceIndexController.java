@@ -0,0 +1,37 @@
+package ir.ifoto.controller;
+
+import ir.ifoto.exception.BadRequestException;
+import ir.ifoto.search.FaceIndexService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/admin/face-index")
+@RequiredArgsConstructor
+public class FaceIndexController {
+    
+    private final FaceIndexService faceIndexService;
+    
+    /**
+     * Recall and latency of the event's HNSW graph against exact search, e.g. {@code ?efSearch=50,100,200}
+     */
+    @GetMapping("/events/{eventId}/recall")
+    public ResponseEntity<Map<String, Object>> recall(
+            @PathVariable Long eventId,
+            @RequestParam(value = "samples", defaultValue = "100") int samples,
+            @RequestParam(value = "k", defaultValue = "50") int k,
+            @RequestParam(value = "efSearch", required = false) List<Integer> efSearch) {
+        if (samples < 1 || samples > 10000 || k < 1 || k > 1000) {
+            throw new BadRequestException("samples must be 1-10000 and k 1-1000");
+        }
+        return ResponseEntity.ok(faceIndexService.measureRecall(eventId, samples, k, efSearch));
+    }
+}
@@ -0,0 +1,28 @@
+package ir.ifoto.controller;
+
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.time.Instant;
+
+/**
+ * Conditional GET support for controllers that can compute validators without building the body
+ */
+final class HttpCaching {
+    
+    private HttpCaching() {
+    }
+    
+    /**
+     * Set the validators and Cache-Control on the response and check the request's conditional
+     * headers. When this returns true the response is already a 304 and the handler should return null.
+     * Cache-Control is set first so 304s carry it too instead of the security defaults.
+     */
+    static boolean notModified(ServletWebRequest request, String etag, Instant lastModified, CacheControl cacheControl) {
+        if (request.getResponse() != null) {
+            request.getResponse().setHeader(HttpHeaders.CACHE_CONTROL, cacheControl.getHeaderValue());
+        }
+        return request.checkNotModified(etag, lastModified.toEpochMilli());
+    }
+}
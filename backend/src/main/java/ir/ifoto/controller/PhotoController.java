@@ -1,17 +1,27 @@
 package ir.ifoto.controller;
 
+import ir.ifoto.dto.BatchFaceSearchResponse;
+import ir.ifoto.dto.BatchUploadResponse;
+import ir.ifoto.dto.ExtractionProgressResponse;
 import ir.ifoto.dto.FaceSearchResponse;
-import ir.ifoto.dto.GalleryPhotoResponse;
+import ir.ifoto.dto.GalleryPageResponse;
 import ir.ifoto.dto.PhotoUploadResponse;
+import ir.ifoto.service.FaceExtractionService;
 import ir.ifoto.service.FaceSearchService;
+import ir.ifoto.service.GalleryVersionService;
 import ir.ifoto.service.PhotoService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/photos")
@@ -20,6 +30,8 @@ public class PhotoController {
     
     private final PhotoService photoService;
     private final FaceSearchService faceSearchService;
+    private final FaceExtractionService faceExtractionService;
+    private final GalleryVersionService galleryVersionService;
     
     @PostMapping("/upload")
     public ResponseEntity<PhotoUploadResponse> uploadPhoto(
@@ -34,11 +46,60 @@ public class PhotoController {
         return ResponseEntity.status(HttpStatus.CREATED).body(response);
     }
     
+    @PostMapping("/upload/batch")
+    public ResponseEntity<BatchUploadResponse> uploadPhotos(
+            @RequestParam("eventId") Long eventId,
+            @RequestParam("files") List<MultipartFile> files) {
+        
+        if (files.isEmpty()) {
+            return ResponseEntity.badRequest().build();
+        }
+        
+        BatchUploadResponse response = photoService.uploadPhotos(eventId, files);
+        HttpStatus status = response.getFailed() == 0 ? HttpStatus.CREATED : HttpStatus.MULTI_STATUS;
+        return ResponseEntity.status(status).body(response);
+    }
+    
     @GetMapping("/events/{eventId}")
-    public ResponseEntity<List<GalleryPhotoResponse>> getEventPhotos(@PathVariable Long eventId) {
-        List<GalleryPhotoResponse> photos = photoService.getPhotosByEvent(eventId);
-        return ResponseEntity.ok(photos);
-    } 
+    public ResponseEntity<GalleryPageResponse> getEventPhotos(
+            @PathVariable Long eventId,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "size", required = false) Integer size,
+            ServletWebRequest request) {
+        
+        // Answered from memory for events already seen, without touching the database
+        photoService.requireEvent(eventId);
+        if (HttpCaching.notModified(request,
+                galleryVersionService.galleryEtag(eventId, photoService.galleryPageKey(cursor, size)),
+                galleryVersionService.get(eventId).changedAt(),
+                CacheControl.noCache().cachePrivate())) {
+            return null;
+        }
+        
+        return ResponseEntity.ok(photoService.getPhotosByEvent(eventId, cursor, size));
+    }
+    
+    @GetMapping("/events/{eventId}/manifest")
+    public ResponseEntity<StreamingResponseBody> exportManifest(
+            @PathVariable Long eventId,
+            @RequestParam(value = "includeUrls", defaultValue = "false") boolean includeUrls) {
+        StreamingResponseBody body = photoService.exportManifest(eventId, includeUrls);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
+    }
+    
+    @GetMapping("/events/{eventId}/processing")
+    public ResponseEntity<ExtractionProgressResponse> getProcessingProgress(@PathVariable Long eventId) {
+        return ResponseEntity.ok(faceExtractionService.getProgress(eventId));
+    }
+    
+    @PostMapping("/events/{eventId}/processing/retry")
+    public ResponseEntity<Map<String, Object>> retryFailedExtractions(@PathVariable Long eventId) {
+        int requeued = faceExtractionService.retryFailed(eventId);
+        return ResponseEntity.accepted().body(Map.of("eventId", eventId, "requeued", requeued));
+    }
+    
     @PostMapping("/search-by-face")
     public ResponseEntity<FaceSearchResponse> searchByFace(
             @RequestParam("eventId") Long eventId,
@@ -51,7 +112,27 @@ public class PhotoController {
         }
         
         FaceSearchResponse response = faceSearchService.searchByFace(eventId, file, limit, threshold);
-        return ResponseEntity.ok(response);
+        return ResponseEntity.ok()
+                .header(ServerTiming.HEADER, ServerTiming.header(response.getTimings()))
+                .body(response);
+    }
+    
+    @PostMapping("/search-by-faces")
+    public ResponseEntity<BatchFaceSearchResponse> searchByFaces(
+            @RequestParam("eventId") Long eventId,
+            @RequestParam("files") List<MultipartFile> files,
+            @RequestParam(value = "allFaces", defaultValue = "false") boolean allFaces,
+            @RequestParam(value = "limit", required = false) Integer limit,
+            @RequestParam(value = "threshold", required = false) Float threshold) {
+        
+        if (files.isEmpty()) {
+            return ResponseEntity.badRequest().build();
+        }
+        
+        BatchFaceSearchResponse response = faceSearchService.searchByFaces(eventId, files, allFaces, limit, threshold);
+        return ResponseEntity.ok()
+                .header(ServerTiming.HEADER, ServerTiming.header(response.getTimings()))
+                .body(response);
     }
 }
 
@@ -0,0 +1,22 @@
+package ir.ifoto.controller;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Server-Timing header values, so browser dev tools show where a request spent its time
+ */
+final class ServerTiming {
+    
+    static final String HEADER = "Server-Timing";
+    
+    private ServerTiming() {
+    }
+    
+    static String header(Map<String, Double> timings) {
+        return timings == null ? "" : timings.entrySet().stream()
+                .map(phase -> String.format(Locale.ROOT, "%s;dur=%.1f", phase.getKey(), phase.getValue()))
+                .collect(Collectors.joining(", "));
+    }
+}
@@ -0,0 +1,68 @@
+package ir.ifoto.controller;
+
+import ir.ifoto.client.FaceServiceConnectionManager;
+import ir.ifoto.client.FaceServiceGuard;
+import ir.ifoto.config.ConnectionPoolStats;
+import ir.ifoto.config.VirtualThreadDiagnostics;
+import ir.ifoto.search.FaceIndexService;
+import ir.ifoto.security.PrincipalCache;
+import ir.ifoto.service.EventCounterService;
+import ir.ifoto.service.EventService;
+import ir.ifoto.service.FaceSearchService;
+import ir.ifoto.service.PhotoService;
+import ir.ifoto.service.RenditionService;
+import ir.ifoto.service.StorageService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/admin/stats")
+@RequiredArgsConstructor
+public class StatsController {
+    
+    private final PhotoService photoService;
+    private final RenditionService renditionService;
+    private final FaceSearchService faceSearchService;
+    private final StorageService storageService;
+    private final PrincipalCache principalCache;
+    private final EventCounterService eventCounterService;
+    private final EventService eventService;
+    private final FaceIndexService faceIndexService;
+    private final List<FaceServiceConnectionManager> faceServiceConnections;
+    private final List<FaceServiceGuard> faceServiceGuards;
+    private final VirtualThreadDiagnostics virtualThreadDiagnostics;
+    private final ConnectionPoolStats connectionPoolStats;
+    
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("timestamp", System.currentTimeMillis());
+        stats.put("uploads", photoService.getUploadStats());
+        stats.put("renditions", renditionService.getStats());
+        stats.put("faceSearch", faceSearchService.getStats());
+        stats.put("faceIndex", faceIndexService.getStats());
+        
+        Map<String, Object> faceServiceHttp = new LinkedHashMap<>();
+        faceServiceConnections.forEach(pool -> faceServiceHttp.put(pool.getName(), pool.getStats()));
+        stats.put("faceServiceHttp", faceServiceHttp);
+        
+        Map<String, Object> guards = new LinkedHashMap<>();
+        faceServiceGuards.forEach(guard -> guards.put(guard.getName(), guard.getStats()));
+        stats.put("faceServiceGuards", guards);
+        stats.put("urlCache", storageService.getUrlCacheStats());
+        stats.put("principalCache", principalCache.getStats());
+        stats.put("eventCounters", eventCounterService.getStats());
+        stats.put("publicEventsCache", eventService.getPublicCacheStats());
+        stats.put("virtualThreads", virtualThreadDiagnostics.getStats());
+        stats.put("dataSource", connectionPoolStats.getStats());
+        
+        return ResponseEntity.ok(stats);
+    }
+}
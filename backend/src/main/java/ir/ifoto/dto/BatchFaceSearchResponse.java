@@ -0,0 +1,62 @@
+package ir.ifoto.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchFaceSearchResponse {
+    private List<QueryFace> queries;
+    private List<SkippedFile> skipped;
+    private List<PhotoMatch> matches;
+    private Integer totalMatches;
+
+    /**
+     * Milliseconds per search phase, sent as a Server-Timing header instead of in the body
+     */
+    @JsonIgnore
+    private Map<String, Double> timings;
+
+    /**
+     * One face searched for; {@code matchedQueries} in photo matches refer to {@code queryIndex}
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class QueryFace {
+        private Integer queryIndex;
+        private String fileName;
+        private Integer faceIndex;
+        private FaceSearchResponse.FaceLocation faceLocation;
+        private Integer matches;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class PhotoMatch {
+        private Long photoId;
+        private String photoUrl;
+        private String thumbnailUrl;
+        private Float similarity;
+        private FaceSearchResponse.FaceLocation faceLocation;
+        private List<Integer> matchedQueries;
+    }
+
+    /**
+     * A query image that yielded no face to search for
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class SkippedFile {
+        private String fileName;
+        private String error;
+    }
+}
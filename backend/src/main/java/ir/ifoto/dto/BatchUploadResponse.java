@@ -0,0 +1,26 @@
+package ir.ifoto.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchUploadResponse {
+    private Integer uploaded;
+    private Integer failed;
+    private List<FileResult> results;
+    
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class FileResult {
+        private String fileName;
+        private Boolean success;
+        private PhotoUploadResponse photo;
+        private String error;
+    }
+}
@@ -1,5 +1,6 @@
 package ir.ifoto.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import ir.ifoto.model.Event;
 import lombok.AllArgsConstructor;
 import lombok.Data;
@@ -24,7 +25,14 @@ public class EventResponse {
     private String sponsorLogoUrl;
     private Boolean published;
     private Integer photoCount;
+    private Integer faceCount;
     private String photographerName;
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
+    
+    /**
+     * Part of the HTTP validators, since a rename changes photographerName; not sent in the body
+     */
+    @JsonIgnore
+    private LocalDateTime photographerUpdatedAt;
 }
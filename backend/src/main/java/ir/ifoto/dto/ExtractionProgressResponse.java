@@ -0,0 +1,17 @@
+package ir.ifoto.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ExtractionProgressResponse {
+    private Long eventId;
+    private Long totalPhotos;
+    private Long processedPhotos;
+    private Long pendingPhotos;
+    private Long failedPhotos;
+    private Double percentComplete;
+}
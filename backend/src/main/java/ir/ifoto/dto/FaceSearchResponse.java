@@ -1,10 +1,12 @@
 package ir.ifoto.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
 import java.util.List;
+import java.util.Map;
 
 @Data
 @NoArgsConstructor
@@ -13,6 +15,12 @@ public class FaceSearchResponse {
     private List<PhotoMatch> matches;
     private Integer totalMatches;
     
+    /**
+     * Milliseconds per search phase, sent as a Server-Timing header instead of in the body
+     */
+    @JsonIgnore
+    private Map<String, Double> timings;
+    
     @Data
     @NoArgsConstructor
     @AllArgsConstructor
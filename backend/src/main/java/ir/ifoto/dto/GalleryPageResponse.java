@@ -0,0 +1,16 @@
+package ir.ifoto.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class GalleryPageResponse {
+    private List<GalleryPhotoResponse> photos;
+    private String nextCursor;
+    private Boolean hasMore;
+}
@@ -14,6 +14,7 @@ public class GalleryPhotoResponse {
     private String fileName;
     private String storagePath;
     private String thumbnailPath;
+    private String previewPath;
     private Integer faceCount;
     private LocalDateTime uploadedAt;
 }
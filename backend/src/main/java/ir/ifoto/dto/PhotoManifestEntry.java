@@ -0,0 +1,46 @@
+package ir.ifoto.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * One line of an event's NDJSON photo manifest. URLs are only present when requested.
+ */
+@Data
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class PhotoManifestEntry {
+    private Long id;
+    private String fileName;
+    private String fileType;
+    private Long fileSize;
+    private Integer width;
+    private Integer height;
+    private Integer faceCount;
+    private String storagePath;
+    private String thumbnailPath;
+    private String previewPath;
+    private LocalDateTime uploadedAt;
+    private String url;
+    private String thumbnailUrl;
+    private String previewUrl;
+
+    public PhotoManifestEntry(Long id, String fileName, String fileType, Long fileSize, Integer width,
+                              Integer height, Integer faceCount, String storagePath, String thumbnailPath,
+                              String previewPath, LocalDateTime uploadedAt) {
+        this.id = id;
+        this.fileName = fileName;
+        this.fileType = fileType;
+        this.fileSize = fileSize;
+        this.width = width;
+        this.height = height;
+        this.faceCount = faceCount;
+        this.storagePath = storagePath;
+        this.thumbnailPath = thumbnailPath;
+        this.previewPath = previewPath;
+        this.uploadedAt = uploadedAt;
+    }
+}
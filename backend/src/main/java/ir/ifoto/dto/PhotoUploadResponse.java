@@ -16,4 +16,9 @@ public class PhotoUploadResponse {
     private Long fileSize;
     private Integer faceCount;
     private LocalDateTime uploadedAt;
+    
+    /**
+     * True when the event already had a photo with the same content; the existing photo is returned
+     */
+    private Boolean duplicate;
 }
@@ -0,0 +1,7 @@
+package ir.ifoto.exception;
+
+public class BadRequestException extends RuntimeException {
+    public BadRequestException(String message) {
+        super(message);
+    }
+}
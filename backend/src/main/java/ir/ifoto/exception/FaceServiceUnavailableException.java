@@ -0,0 +1,20 @@
+package ir.ifoto.exception;
+
+import java.time.Duration;
+
+/**
+ * The face service is failing, too slow or saturated, and the call was not attempted
+ */
+public class FaceServiceUnavailableException extends RuntimeException {
+    
+    private final Duration retryAfter;
+    
+    public FaceServiceUnavailableException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+    
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,10 @@
+package ir.ifoto.exception;
+
+/**
+ * The face service rejected a query image, typically because it shows no face
+ */
+public class NoFaceDetectedException extends RuntimeException {
+    public NoFaceDetectedException(String message) {
+        super(message);
+    }
+}
@@ -4,6 +4,7 @@ import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.ColumnDefault;
 import org.hibernate.annotations.CreationTimestamp;
 import org.hibernate.annotations.UpdateTimestamp;
 
@@ -11,7 +12,9 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "events")
+@Table(name = "events", indexes = {
+    @Index(name = "idx_published_event_date", columnList = "published, eventDate")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -59,9 +62,22 @@ public class Event {
     @Column(nullable = false)
     private Boolean published = false;
     
-    @Column(nullable = false)
+    // Maintained by EventCounterService; never written back from a loaded entity
+    @Column(nullable = false, updatable = false)
     private Integer photoCount = 0;
     
+    @ColumnDefault("0")
+    @Column(nullable = false, updatable = false)
+    private Integer faceCount = 0;
+    
+    // Incremented with every counter flush; the HTTP validators of the event and its gallery
+    @ColumnDefault("0")
+    @Column(nullable = false, updatable = false)
+    private Long galleryVersion = 0L;
+    
+    @Column(updatable = false)
+    private LocalDateTime galleryChangedAt;
+    
     @CreationTimestamp
     @Column(nullable = false, updatable = false)
     private LocalDateTime createdAt;
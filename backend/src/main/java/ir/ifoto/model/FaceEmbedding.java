@@ -18,8 +18,12 @@ import java.time.LocalDateTime;
 @AllArgsConstructor
 public class FaceEmbedding {
     
+    /**
+     * Pooled sequence ids, as on {@link Photo}, so the faces of a photo go out as one batch
+     */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "face_embeddings_seq")
+    @SequenceGenerator(name = "face_embeddings_seq", sequenceName = "face_embeddings_seq", allocationSize = 50)
     private Long id;
     
     @ManyToOne(fetch = FetchType.LAZY)
@@ -47,6 +51,14 @@ public class FaceEmbedding {
     @Column
     private Float confidence;
     
+    // Little-endian float32, see Embeddings
+    @Column
+    private byte[] embedding;
+    
+    // Scale and int8 codes of the normalized embedding, see Embeddings.quantize
+    @Column
+    private byte[] quantizedEmbedding;
+    
     @CreationTimestamp
     @Column(nullable = false, updatable = false)
     private LocalDateTime createdAt;
@@ -4,6 +4,7 @@ import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.ColumnDefault;
 import org.hibernate.annotations.CreationTimestamp;
 
 import java.time.LocalDateTime;
@@ -11,15 +12,22 @@ import java.time.LocalDateTime;
 @Entity
 @Table(name = "photos", indexes = {
     @Index(name = "idx_event_id", columnList = "event_id"),
-    @Index(name = "idx_storage_path", columnList = "storagePath")
+    @Index(name = "idx_event_uploaded_at", columnList = "event_id, uploadedAt, id"),
+    @Index(name = "idx_storage_path", columnList = "storagePath"),
+    @Index(name = "idx_pending_extraction", columnList = "processed, nextExtractionAt"),
+    @Index(name = "uk_event_content_hash", columnList = "event_id, contentHash", unique = true)
 })
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
 public class Photo {
     
+    /**
+     * Allocated from a sequence in blocks of 50 so Hibernate can batch inserts, which IDENTITY prevents
+     */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "photos_seq")
+    @SequenceGenerator(name = "photos_seq", sequenceName = "photos_seq", allocationSize = 50)
     private Long id;
     
     @ManyToOne(fetch = FetchType.LAZY)
@@ -35,24 +43,54 @@ public class Photo {
     @Column(length = 500)
     private String thumbnailPath;
     
+    @Column(length = 500)
+    private String previewPath;
+    
     @Column(nullable = false)
     private Long fileSize;
     
     @Column(length = 10)
     private String fileType;
     
+    /**
+     * Hex SHA-256 of the uploaded bytes, unique per event so a re-upload resolves to this photo.
+     * Null for photos uploaded before hashing was introduced.
+     */
+    @Column(length = 64)
+    private String contentHash;
+    
     @Column
     private Integer width;
     
     @Column
     private Integer height;
     
+    @Column
+    private Float inferenceScale;
+    
     @Column(nullable = false)
     private Integer faceCount = 0;
     
     @Column(nullable = false)
     private Boolean processed = false;
     
+    @ColumnDefault("0")
+    @Column(nullable = false)
+    private Integer extractionAttempts = 0;
+    
+    @Column
+    private LocalDateTime nextExtractionAt;
+    
+    @Column(length = 500)
+    private String lastExtractionError;
+    
+    @ColumnDefault("0")
+    @Column(nullable = false)
+    private Integer renditionAttempts = 0;
+    
+    @Column
+    private LocalDateTime nextRenditionAt;
+    
     @CreationTimestamp
     @Column(nullable = false, updatable = false)
     private LocalDateTime uploadedAt;
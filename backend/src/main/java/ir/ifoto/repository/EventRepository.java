@@ -1,9 +1,18 @@
 package ir.ifoto.repository;
 
+import ir.ifoto.dto.EventResponse;
 import ir.ifoto.model.Event;
+import ir.ifoto.service.GalleryVersionService;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -13,4 +22,59 @@ public interface EventRepository extends JpaRepository<Event, Long> {
     List<Event> findByPublishedTrue();
     List<Event> findByPhotographerId(Long photographerId);
     boolean existsBySlug(String slug);
+    
+    String EVENT_RESPONSE = "SELECT new ir.ifoto.dto.EventResponse(e.id, e.name, e.description, e.eventDate, " +
+            "e.location, e.slug, e.accessType, e.coverImageUrl, e.watermarkUrl, e.sponsorLogoUrl, e.published, " +
+            "e.photoCount, e.faceCount, ph.fullName, e.createdAt, e.updatedAt, ph.updatedAt) " +
+            "FROM Event e LEFT JOIN e.photographer ph ";
+    
+    @Query(value = EVENT_RESPONSE + "WHERE e.published = true ORDER BY e.eventDate DESC, e.id DESC",
+           countQuery = "SELECT COUNT(e) FROM Event e WHERE e.published = true")
+    Page<EventResponse> findPublishedResponses(Pageable pageable);
+    
+    @Query(EVENT_RESPONSE + "WHERE e.slug = :slug")
+    Optional<EventResponse> findResponseBySlug(@Param("slug") String slug);
+    
+    @Query(EVENT_RESPONSE + "WHERE ph.username = :username ORDER BY e.eventDate DESC, e.id DESC")
+    List<EventResponse> findResponsesByPhotographerUsername(@Param("username") String username);
+    
+    /**
+     * Apply counter deltas and move the gallery to a new version
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE Event e SET e.photoCount = e.photoCount + :photos, e.faceCount = e.faceCount + :faces, " +
+           "e.galleryVersion = e.galleryVersion + 1, e.galleryChangedAt = CURRENT_TIMESTAMP " +
+           "WHERE e.id = :id")
+    int incrementCounters(@Param("id") Long id, @Param("photos") int photos, @Param("faces") int faces);
+    
+    @Query("SELECT new ir.ifoto.service.GalleryVersionService$Stamp(e.galleryVersion, " +
+           "COALESCE(e.galleryChangedAt, e.createdAt)) FROM Event e WHERE e.id = :id")
+    Optional<GalleryVersionService.Stamp> findGalleryStamp(@Param("id") Long id);
+    
+    /**
+     * Events whose stored counters differ from the true counts, read without locking anything
+     */
+    @Query(value = "SELECT e.id FROM events e " +
+                   "WHERE e.photo_count <> (SELECT COUNT(*) FROM photos p WHERE p.event_id = e.id) " +
+                   "OR e.face_count <> (SELECT COUNT(*) FROM face_embeddings f JOIN photos p ON p.id = f.photo_id " +
+                   "WHERE p.event_id = e.id)",
+           nativeQuery = true)
+    List<Long> findEventIdsWithDriftedCounters();
+    
+    /**
+     * Overwrite the counters of the given events where the stored counts drifted from the true counts
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE events e SET photo_count = c.photos, face_count = c.faces, " +
+                   "gallery_version = e.gallery_version + 1, gallery_changed_at = now() FROM (" +
+                   "SELECT ev.id, " +
+                   "(SELECT COUNT(*) FROM photos p WHERE p.event_id = ev.id) AS photos, " +
+                   "(SELECT COUNT(*) FROM face_embeddings f JOIN photos p ON p.id = f.photo_id " +
+                   "WHERE p.event_id = ev.id) AS faces " +
+                   "FROM events ev WHERE ev.id IN (:ids)) c " +
+                   "WHERE c.id = e.id AND (e.photo_count <> c.photos OR e.face_count <> c.faces)",
+           nativeQuery = true)
+    int reconcileCounters(@Param("ids") Collection<Long> ids);
 }
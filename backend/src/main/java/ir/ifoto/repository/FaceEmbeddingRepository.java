@@ -1,15 +1,56 @@
 package ir.ifoto.repository;
 
 import ir.ifoto.model.FaceEmbedding;
+import ir.ifoto.search.IndexFingerprint;
+import ir.ifoto.search.IndexedFace;
+import ir.ifoto.search.StoredVector;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface FaceEmbeddingRepository extends JpaRepository<FaceEmbedding, Long> {
     List<FaceEmbedding> findByPhotoId(Long photoId);
     Optional<FaceEmbedding> findByVectorId(String vectorId);
     long countByPhotoEventId(Long eventId);
+    long countByPhotoEventIdAndEmbeddingIsNull(Long eventId);
+    Optional<FaceEmbedding> findFirstByPhotoEventIdAndEmbeddingIsNotNull(Long eventId);
+    
+    /**
+     * Count and highest id of an event's faces with embeddings, to validate a persisted index
+     */
+    @Query("SELECT new ir.ifoto.search.IndexFingerprint(COUNT(f), MAX(f.id)) FROM FaceEmbedding f " +
+           "WHERE f.photo.event.id = :eventId AND f.embedding IS NOT NULL")
+    IndexFingerprint findIndexFingerprint(@Param("eventId") Long eventId);
+    
+    /**
+     * Faces of an event for the in-process index; consume inside a transaction
+     */
+    @QueryHints({
+        @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+        @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT new ir.ifoto.search.IndexedFace(f.id, f.photo.id, f.faceIndex, f.boundingBoxX, f.boundingBoxY, " +
+           "f.boundingBoxWidth, f.boundingBoxHeight, f.embedding, f.quantizedEmbedding) FROM FaceEmbedding f " +
+           "WHERE f.photo.event.id = :eventId AND f.embedding IS NOT NULL")
+    Stream<IndexedFace> streamIndexable(@Param("eventId") Long eventId);
+    
+    @Query("SELECT new ir.ifoto.search.StoredVector(f.id, f.embedding) FROM FaceEmbedding f WHERE f.id IN :ids")
+    List<StoredVector> findStoredVectors(@Param("ids") Collection<Long> ids);
+    
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM FaceEmbedding f WHERE f.photo.id = :photoId")
+    int deleteByPhotoId(@Param("photoId") Long photoId);
 }
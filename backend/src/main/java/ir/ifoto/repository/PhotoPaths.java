@@ -0,0 +1,11 @@
+package ir.ifoto.repository;
+
+/**
+ * Closed projection of the columns needed to render a photo reference
+ */
+public interface PhotoPaths {
+    Long getId();
+    String getStoragePath();
+    String getThumbnailPath();
+    Float getInferenceScale();
+}
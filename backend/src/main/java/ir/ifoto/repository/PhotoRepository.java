@@ -1,16 +1,111 @@
 package ir.ifoto.repository;
 
+import ir.ifoto.dto.GalleryPhotoResponse;
+import ir.ifoto.dto.PhotoManifestEntry;
 import ir.ifoto.model.Photo;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface PhotoRepository extends JpaRepository<Photo, Long> {
     Page<Photo> findByEventId(Long eventId, Pageable pageable);
     List<Photo> findByEventIdAndProcessedFalse(Long eventId);
     long countByEventId(Long eventId);
+    List<PhotoPaths> findByEventIdAndIdIn(Long eventId, Collection<Long> ids);
+    Optional<Photo> findByEventIdAndContentHash(Long eventId, String contentHash);
+    List<Photo> findByEventIdAndContentHashIn(Long eventId, Collection<String> contentHashes);
+    long countByEventIdAndProcessedTrue(Long eventId);
+    long countByEventIdAndProcessedFalseAndExtractionAttemptsGreaterThanEqual(Long eventId, Integer attempts);
+    
+    @Query("SELECT new ir.ifoto.dto.GalleryPhotoResponse(p.id, p.fileName, p.storagePath, p.thumbnailPath, " +
+           "p.previewPath, p.faceCount, p.uploadedAt) FROM Photo p WHERE p.event.id = :eventId " +
+           "ORDER BY p.uploadedAt, p.id")
+    List<GalleryPhotoResponse> findGalleryPage(@Param("eventId") Long eventId, Limit limit);
+    
+    @Query("SELECT new ir.ifoto.dto.GalleryPhotoResponse(p.id, p.fileName, p.storagePath, p.thumbnailPath, " +
+           "p.previewPath, p.faceCount, p.uploadedAt) FROM Photo p WHERE p.event.id = :eventId " +
+           "AND (p.uploadedAt > :uploadedAt OR (p.uploadedAt = :uploadedAt AND p.id > :id)) " +
+           "ORDER BY p.uploadedAt, p.id")
+    List<GalleryPhotoResponse> findGalleryPageAfter(@Param("eventId") Long eventId,
+                                                    @Param("uploadedAt") LocalDateTime uploadedAt,
+                                                    @Param("id") Long id,
+                                                    Limit limit);
+    
+    /**
+     * Forward-only cursor over an event's photos; must be consumed inside a transaction
+     * so the driver fetches rows in batches instead of buffering the whole result.
+     */
+    @QueryHints({
+        @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+        @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT new ir.ifoto.dto.PhotoManifestEntry(p.id, p.fileName, p.fileType, p.fileSize, p.width, " +
+           "p.height, p.faceCount, p.storagePath, p.thumbnailPath, p.previewPath, p.uploadedAt) " +
+           "FROM Photo p WHERE p.event.id = :eventId ORDER BY p.uploadedAt, p.id")
+    Stream<PhotoManifestEntry> streamManifest(@Param("eventId") Long eventId);
+    
+    @Query("SELECT p.id FROM Photo p WHERE p.processed = false AND p.extractionAttempts < :maxAttempts " +
+           "AND (p.nextExtractionAt IS NULL OR p.nextExtractionAt <= :now) ORDER BY p.id")
+    List<Long> findIdsDueForExtraction(@Param("maxAttempts") int maxAttempts,
+                                       @Param("now") LocalDateTime now,
+                                       Pageable pageable);
+    
+    @Query("SELECT p.id FROM Photo p WHERE p.thumbnailPath IS NULL AND p.renditionAttempts < :maxAttempts " +
+           "AND (p.nextRenditionAt IS NULL OR p.nextRenditionAt <= :now) ORDER BY p.id")
+    List<Long> findIdsDueForRenditions(@Param("maxAttempts") int maxAttempts,
+                                       @Param("now") LocalDateTime now,
+                                       Pageable pageable);
+    
+    @Transactional
+    @Modifying
+    @Query("UPDATE Photo p SET p.thumbnailPath = :thumbnailPath, p.previewPath = :previewPath WHERE p.id = :id")
+    int updateRenditions(@Param("id") Long id,
+                         @Param("thumbnailPath") String thumbnailPath,
+                         @Param("previewPath") String previewPath);
+    
+    @Transactional
+    @Modifying
+    @Query("UPDATE Photo p SET p.renditionAttempts = p.renditionAttempts + 1, " +
+           "p.nextRenditionAt = :nextAttemptAt WHERE p.id = :id")
+    int markRenditionFailed(@Param("id") Long id, @Param("nextAttemptAt") LocalDateTime nextAttemptAt);
+    
+    @Transactional
+    @Modifying
+    @Query("UPDATE Photo p SET p.processed = true, p.faceCount = :faceCount, " +
+           "p.width = :width, p.height = :height, p.inferenceScale = :inferenceScale, " +
+           "p.nextExtractionAt = null, p.lastExtractionError = null WHERE p.id = :id")
+    int markExtracted(@Param("id") Long id,
+                      @Param("faceCount") int faceCount,
+                      @Param("width") Integer width,
+                      @Param("height") Integer height,
+                      @Param("inferenceScale") Float inferenceScale);
+    
+    @Transactional
+    @Modifying
+    @Query("UPDATE Photo p SET p.extractionAttempts = p.extractionAttempts + 1, " +
+           "p.nextExtractionAt = :nextAttemptAt, p.lastExtractionError = :error WHERE p.id = :id")
+    int markExtractionFailed(@Param("id") Long id,
+                             @Param("nextAttemptAt") LocalDateTime nextAttemptAt,
+                             @Param("error") String error);
+    
+    @Transactional
+    @Modifying
+    @Query("UPDATE Photo p SET p.nextExtractionAt = :nextAttemptAt WHERE p.id = :id")
+    int deferExtraction(@Param("id") Long id, @Param("nextAttemptAt") LocalDateTime nextAttemptAt);
 }
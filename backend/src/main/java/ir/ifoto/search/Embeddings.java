@@ -0,0 +1,70 @@
+package ir.ifoto.search;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Embeddings are stored as little-endian float32 bytes in {@code face_embeddings.embedding}, and
+ * quantized as a little-endian float32 scale followed by one int8 code per dimension in
+ * {@code face_embeddings.quantized_embedding}
+ */
+public final class Embeddings {
+    
+    private Embeddings() {
+    }
+    
+    public static byte[] toBytes(float[] embedding) {
+        ByteBuffer buffer = ByteBuffer.allocate(embedding.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(embedding);
+        return buffer.array();
+    }
+    
+    public static float[] toFloats(byte[] bytes) {
+        float[] embedding = new float[bytes.length / Float.BYTES];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(embedding);
+        return embedding;
+    }
+    
+    /**
+     * Scale to unit length in place so cosine similarity is a plain dot product
+     */
+    public static float[] normalize(float[] embedding) {
+        double norm = 0;
+        for (float value : embedding) {
+            norm += value * value;
+        }
+        if (norm > 0) {
+            float inverse = (float) (1.0 / Math.sqrt(norm));
+            for (int i = 0; i < embedding.length; i++) {
+                embedding[i] *= inverse;
+            }
+        }
+        return embedding;
+    }
+    
+    /**
+     * Per-vector symmetric int8 quantization of a normalized embedding: code = round(value / scale)
+     * with scale = max |value| / 127
+     */
+    public static byte[] quantize(float[] normalized) {
+        float max = 0f;
+        for (float value : normalized) {
+            max = Math.max(max, Math.abs(value));
+        }
+        float scale = max > 0 ? max / 127f : 1f;
+        ByteBuffer buffer = ByteBuffer.allocate(Float.BYTES + normalized.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putFloat(scale);
+        for (float value : normalized) {
+            buffer.put((byte) Math.round(value / scale));
+        }
+        return buffer.array();
+    }
+    
+    public static float quantizedScale(byte[] quantized) {
+        return ByteBuffer.wrap(quantized).order(ByteOrder.LITTLE_ENDIAN).getFloat(0);
+    }
+    
+    public static int quantizedDim(byte[] quantized) {
+        return quantized.length - Float.BYTES;
+    }
+}
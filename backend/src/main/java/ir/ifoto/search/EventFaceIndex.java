@@ -0,0 +1,643 @@
+package ir.ifoto.search;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.IntStream;
+
+/**
+ * Normalized face vectors of one event, stored row-major in fixed-size blocks of primitive
+ * arrays so a search is a sequential scan with no per-face objects. A quantized index keeps
+ * int8 codes with one scale per face instead of floats, a quarter of the memory; its scores
+ * are approximate and callers rescore the top candidates at full precision.
+ * <p>
+ * Blocks are heap arrays rather than off-heap memory on purpose. On Java 21 the only off-heap
+ * load of the Vector API is {@code fromMemorySegment}, and {@code java.lang.foreign} is still a
+ * preview there, so off-heap blocks would mean either preview-enabled builds or scalar loops.
+ * The arrays cost the collector little: a float block is 8 MB and an int8 one 2 MB, more than
+ * half a G1 region at the heap sizes this service runs with (1 MB regions at -Xmx2g), so they
+ * are humongous objects that young collections never copy, and arrays of primitives hold no
+ * references to trace. What they do take is heap, which {@code ifoto.face-index.max-vectors}
+ * bounds and {@link #memoryBytes} reports.
+ * <p>
+ * Writers are serialized on the index; searches read without locking. A slot is fully written
+ * before {@code size} is published, and removed faces are tombstoned by clearing their photo id.
+ * Updates that arrive while the index is loading win over the rows being loaded for the same photo.
+ * <p>
+ * Large events get an {@link HnswGraph} over the slots once it has been built off to the side
+ * and caught up; from then on appends are linked into it and searches can be approximate.
+ * Indexes with a graph can be written to and restored from a single file; see {@link #writeTo}.
+ */
+final class EventFaceIndex {
+
+    static final int BLOCK_SIZE = 4096;
+    private static final long REMOVED = 0L;
+    private static final int FILE_MAGIC = 0x49464649;
+    private static final int FILE_VERSION = 2;
+
+    private final int dim;
+    private final VectorOps ops;
+    private final boolean quantized;
+    private final ReentrantLock loadLock = new ReentrantLock();
+    private volatile Block[] blocks = new Block[0];
+    private volatile int size;
+    private int removed;
+    private long maxFaceId;
+    private volatile HnswGraph graph;
+    private boolean graphBuilding;
+
+    private final Map<Long, int[]> slotsByPhoto = new HashMap<>();
+    private Set<Long> touchedWhileLoading = new HashSet<>();
+    private volatile boolean loaded;
+    private volatile boolean complete;
+
+    private static final class Block {
+        // Either normalized floats, or int8 codes with a scale per row
+        final float[] vectors;
+        final byte[] codes;
+        final float[] scales;
+        final long[] faceIds = new long[BLOCK_SIZE];
+        final long[] photoIds = new long[BLOCK_SIZE];
+        final int[] faceIndexes = new int[BLOCK_SIZE];
+        final int[] boxes = new int[BLOCK_SIZE * 4];
+        final boolean[] hasBox = new boolean[BLOCK_SIZE];
+
+        Block(int dim, boolean quantized) {
+            this.vectors = quantized ? null : new float[BLOCK_SIZE * dim];
+            this.codes = quantized ? new byte[BLOCK_SIZE * dim] : null;
+            this.scales = quantized ? new float[BLOCK_SIZE] : null;
+        }
+    }
+
+    EventFaceIndex(int dim, VectorOps ops, boolean quantized) {
+        this.dim = dim;
+        this.ops = ops;
+        this.quantized = quantized;
+    }
+
+    /**
+     * Serializes loading; separate from the index monitor so writers are not held up by a load.
+     * A lock rather than a monitor, so a virtual thread waiting on a load does not pin its carrier.
+     */
+    ReentrantLock loadLock() {
+        return loadLock;
+    }
+
+    int dim() {
+        return dim;
+    }
+
+    boolean isQuantized() {
+        return quantized;
+    }
+
+    /**
+     * Approximate heap footprint of the allocated blocks
+     */
+    long memoryBytes() {
+        long vectorBytes = quantized ? dim + Float.BYTES : (long) dim * Float.BYTES;
+        long metadataBytes = 2 * Long.BYTES + Integer.BYTES + 4 * Integer.BYTES + 1;
+        return (long) blocks.length * BLOCK_SIZE * (vectorBytes + metadataBytes);
+    }
+
+    int size() {
+        return size;
+    }
+
+    synchronized int liveSize() {
+        return size - removed;
+    }
+
+    synchronized int removedSize() {
+        return removed;
+    }
+
+    boolean hasGraph() {
+        return graph != null;
+    }
+
+    boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * True once loading finished and every stored face of the event had an embedding
+     */
+    boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Append faces read from the database, skipping photos updated since loading started
+     */
+    synchronized void appendLoaded(Collection<IndexedFace> faces) {
+        Map<Long, List<Integer>> added = new HashMap<>();
+        for (IndexedFace face : faces) {
+            if (touchedWhileLoading.contains(face.photoId()) || face.embedding() == null) {
+                continue;
+            }
+            float[] vector = Embeddings.toFloats(face.embedding());
+            if (vector.length != dim) {
+                continue;
+            }
+            added.computeIfAbsent(face.photoId(), id -> new ArrayList<>()).add(append(face, vector));
+        }
+        added.forEach((photoId, slots) -> {
+            int[] existing = slotsByPhoto.getOrDefault(photoId, new int[0]);
+            int[] merged = Arrays.copyOf(existing, existing.length + slots.size());
+            for (int i = 0; i < slots.size(); i++) {
+                merged[existing.length + i] = slots.get(i);
+            }
+            slotsByPhoto.put(photoId, merged);
+        });
+    }
+
+    synchronized void finishLoading(boolean complete) {
+        touchedWhileLoading = null;
+        this.complete = complete;
+        this.loaded = true;
+    }
+
+    /**
+     * Replace all faces of a photo, e.g. after (re-)extraction. An empty list removes the photo.
+     */
+    synchronized void replacePhoto(Long photoId, List<IndexedFace> faces) {
+        if (touchedWhileLoading != null) {
+            touchedWhileLoading.add(photoId);
+        }
+        int[] old = slotsByPhoto.remove(photoId);
+        if (old != null) {
+            for (int slot : old) {
+                blocks[slot / BLOCK_SIZE].photoIds[slot % BLOCK_SIZE] = REMOVED;
+            }
+            removed += old.length;
+        }
+
+        List<Integer> slots = new ArrayList<>(faces.size());
+        for (IndexedFace face : faces) {
+            if (face.embedding() == null) {
+                continue;
+            }
+            float[] vector = Embeddings.toFloats(face.embedding());
+            if (vector.length == dim) {
+                slots.add(append(face, vector));
+            }
+        }
+        if (!slots.isEmpty()) {
+            slotsByPhoto.put(photoId, slots.stream().mapToInt(Integer::intValue).toArray());
+        }
+    }
+
+    private int append(IndexedFace face, float[] vector) {
+        int slot = size;
+        int blockIndex = slot / BLOCK_SIZE;
+        if (blockIndex == blocks.length) {
+            Block[] grown = Arrays.copyOf(blocks, blocks.length + 1);
+            grown[blockIndex] = new Block(dim, quantized);
+            blocks = grown;
+        }
+        Block block = blocks[blockIndex];
+        int offset = slot % BLOCK_SIZE;
+
+        if (quantized) {
+            byte[] code = face.quantized() != null && Embeddings.quantizedDim(face.quantized()) == dim
+                    ? face.quantized()
+                    : Embeddings.quantize(Embeddings.normalize(vector));
+            System.arraycopy(code, Float.BYTES, block.codes, offset * dim, dim);
+            block.scales[offset] = Embeddings.quantizedScale(code);
+        } else {
+            System.arraycopy(Embeddings.normalize(vector), 0, block.vectors, offset * dim, dim);
+        }
+        block.faceIds[offset] = face.id() != null ? face.id() : 0L;
+        block.faceIndexes[offset] = face.faceIndex() != null ? face.faceIndex() : 0;
+        if (face.x() != null && face.y() != null && face.width() != null && face.height() != null) {
+            block.hasBox[offset] = true;
+            block.boxes[offset * 4] = face.x();
+            block.boxes[offset * 4 + 1] = face.y();
+            block.boxes[offset * 4 + 2] = face.width();
+            block.boxes[offset * 4 + 3] = face.height();
+        }
+        block.photoIds[offset] = face.photoId();
+        if (face.id() != null) {
+            maxFaceId = Math.max(maxFaceId, face.id());
+        }
+
+        // Publish the slot to readers
+        size = slot + 1;
+        if (graph != null) {
+            graph.insert(slot);
+        }
+        return slot;
+    }
+
+    /**
+     * Top-k by cosine similarity: approximate through the graph when there is one and
+     * {@code efSearch} is positive, otherwise an exact scan
+     */
+    List<IndexMatch> search(float[] query, int limit, float threshold, int efSearch, ForkJoinPool pool) {
+        SlotScores result = efSearch > 0 && graph != null
+                ? approximate(query, limit, threshold, efSearch)
+                : exact(query, limit, threshold, pool);
+
+        // Blocks only grow, so this snapshot covers every slot in the result
+        Block[] snapshot = blocks;
+        List<IndexMatch> matches = new ArrayList<>(result.size());
+        for (int i = 0; i < result.size(); i++) {
+            int slot = result.slots()[i];
+            Block block = snapshot[slot / BLOCK_SIZE];
+            int offset = slot % BLOCK_SIZE;
+            long photoId = block.photoIds[offset];
+            if (photoId == REMOVED) {
+                continue;
+            }
+            matches.add(new IndexMatch(
+                    block.faceIds[offset],
+                    photoId,
+                    block.faceIndexes[offset],
+                    result.scores()[i],
+                    block.hasBox[offset],
+                    block.boxes[offset * 4],
+                    block.boxes[offset * 4 + 1],
+                    block.boxes[offset * 4 + 2],
+                    block.boxes[offset * 4 + 3]));
+        }
+        return matches;
+    }
+
+    /**
+     * Exact top-k over all live slots. Blocks are scanned in parallel on {@code pool}
+     * when there is more than one.
+     */
+    SlotScores exact(float[] query, int limit, float threshold, ForkJoinPool pool) {
+        int count = size;
+        Block[] snapshot = blocks;
+        int blockCount = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        if (blockCount == 0 || limit <= 0) {
+            return new SlotScores(new int[0], new float[0]);
+        }
+
+        TopK result;
+        if (blockCount == 1) {
+            result = scanBlock(snapshot[0], 0, count, query, limit, threshold);
+        } else {
+            result = pool.submit(() -> IntStream.range(0, blockCount)
+                    .parallel()
+                    .mapToObj(b -> scanBlock(snapshot[b], b, Math.min(BLOCK_SIZE, count - b * BLOCK_SIZE),
+                            query, limit, threshold))
+                    .reduce(TopK::merge)
+                    .orElseThrow())
+                    .join();
+        }
+
+        int[] order = result.sortedDescending();
+        int[] slots = new int[order.length];
+        float[] scores = new float[order.length];
+        for (int i = 0; i < order.length; i++) {
+            slots[i] = result.slots[order[i]];
+            scores[i] = result.scores[order[i]];
+        }
+        return new SlotScores(slots, scores);
+    }
+
+    /**
+     * Approximate top-k of live slots through the graph
+     */
+    SlotScores approximate(float[] query, int limit, float threshold, int efSearch) {
+        SlotScores candidates = graph.search(query, Math.max(efSearch, limit));
+        Block[] snapshot = blocks;
+        int[] slots = new int[Math.min(limit, candidates.size())];
+        float[] scores = new float[slots.length];
+        int count = 0;
+        for (int i = 0; i < candidates.size() && count < slots.length; i++) {
+            int slot = candidates.slots()[i];
+            if (candidates.scores()[i] < threshold) {
+                break;
+            }
+            if (snapshot[slot / BLOCK_SIZE].photoIds[slot % BLOCK_SIZE] != REMOVED) {
+                slots[count] = slot;
+                scores[count++] = candidates.scores()[i];
+            }
+        }
+        return new SlotScores(Arrays.copyOf(slots, count), Arrays.copyOf(scores, count));
+    }
+
+    /**
+     * A random slot that still holds a face, or -1 if none was found
+     */
+    int randomLiveSlot(SplittableRandom random) {
+        int count = size;
+        Block[] snapshot = blocks;
+        for (int attempt = 0; attempt < 100 && count > 0; attempt++) {
+            int slot = random.nextInt(count);
+            if (snapshot[slot / BLOCK_SIZE].photoIds[slot % BLOCK_SIZE] != REMOVED) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Copy of the normalized vector in a published slot, dequantized for a quantized index
+     */
+    float[] vector(int slot) {
+        Block block = blocks[slot / BLOCK_SIZE];
+        int offset = slot % BLOCK_SIZE;
+        if (!quantized) {
+            return Arrays.copyOfRange(block.vectors, offset * dim, (offset + 1) * dim);
+        }
+        float[] vector = new float[dim];
+        float scale = block.scales[offset];
+        for (int i = 0; i < dim; i++) {
+            vector[i] = block.codes[offset * dim + i] * scale;
+        }
+        return vector;
+    }
+
+    private float score(float[] query, Block block, int offset) {
+        return quantized
+                ? ops.dot(query, block.codes, offset * dim, dim) * block.scales[offset]
+                : ops.dot(query, 0, block.vectors, offset * dim, dim);
+    }
+
+    private float score(Block a, int aOffset, Block b, int bOffset) {
+        return quantized
+                ? ops.dot(a.codes, aOffset * dim, b.codes, bOffset * dim, dim) * a.scales[aOffset] * b.scales[bOffset]
+                : ops.dot(a.vectors, aOffset * dim, b.vectors, bOffset * dim, dim);
+    }
+
+    /**
+     * A graph over this index's slots, to be filled by the caller and handed to {@link #attachGraph}
+     */
+    HnswGraph newGraph(int m, int efConstruction) {
+        return new HnswGraph(scorer(), m, efConstruction);
+    }
+
+    private HnswGraph.Scorer scorer() {
+        return new HnswGraph.Scorer() {
+            @Override
+            public float score(float[] query, int node) {
+                return EventFaceIndex.this.score(query, blocks[node / BLOCK_SIZE], node % BLOCK_SIZE);
+            }
+
+            @Override
+            public float score(int a, int b) {
+                Block[] snapshot = blocks;
+                return EventFaceIndex.this.score(snapshot[a / BLOCK_SIZE], a % BLOCK_SIZE,
+                        snapshot[b / BLOCK_SIZE], b % BLOCK_SIZE);
+            }
+
+            @Override
+            public float[] vector(int node) {
+                return EventFaceIndex.this.vector(node);
+            }
+        };
+    }
+
+    /**
+     * Claim the right to build this index's graph; false if one exists or is being built
+     */
+    synchronized boolean claimGraphBuild() {
+        if (graph != null || graphBuilding) {
+            return false;
+        }
+        graphBuilding = true;
+        return true;
+    }
+
+    synchronized void releaseGraphBuild() {
+        graphBuilding = false;
+    }
+
+    /**
+     * Start using a graph built off to the side, once it covers every slot. Returns false if
+     * slots were appended meanwhile and must be inserted first.
+     */
+    synchronized boolean attachGraph(HnswGraph built) {
+        if (built.size() != size) {
+            return false;
+        }
+        graph = built;
+        graphBuilding = false;
+        return true;
+    }
+
+    /**
+     * Write the index and its graph. The header carries the live face count and highest face
+     * id, which {@link #restore} compares with the database to detect a stale file.
+     */
+    synchronized void writeTo(DataOutputStream out) throws IOException {
+        if (graph == null) {
+            throw new IllegalStateException("Only indexes with a graph are persisted");
+        }
+        out.writeInt(FILE_MAGIC);
+        out.writeInt(FILE_VERSION);
+        out.writeInt(dim);
+        out.writeBoolean(quantized);
+        out.writeInt(size);
+        out.writeInt(removed);
+        out.writeLong(maxFaceId);
+        for (int b = 0; b * BLOCK_SIZE < size; b++) {
+            Block block = blocks[b];
+            int count = Math.min(BLOCK_SIZE, size - b * BLOCK_SIZE);
+            if (quantized) {
+                out.write(block.codes, 0, count * dim);
+                writeFloats(out, block.scales, count);
+            } else {
+                writeFloats(out, block.vectors, count * dim);
+            }
+            for (int i = 0; i < count; i++) {
+                out.writeLong(block.faceIds[i]);
+                out.writeLong(block.photoIds[i]);
+                out.writeInt(block.faceIndexes[i]);
+                out.writeBoolean(block.hasBox[i]);
+            }
+            for (int i = 0; i < count * 4; i++) {
+                out.writeInt(block.boxes[i]);
+            }
+        }
+        graph.writeTo(out);
+    }
+
+    private static void writeFloats(DataOutputStream out, float[] values, int count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        for (int offset = 0; offset < count; ) {
+            int n = Math.min(count - offset, buffer.capacity() / Float.BYTES);
+            buffer.clear();
+            buffer.asFloatBuffer().put(values, offset, n);
+            out.write(buffer.array(), 0, n * Float.BYTES);
+            offset += n;
+        }
+    }
+
+    /**
+     * Fill an empty, loading index from a file written by {@link #writeTo}. Returns false, leaving
+     * the index untouched, if the index is no longer empty or the file does not match its format,
+     * dimension and quantization or the live face count and highest face id given.
+     */
+    synchronized boolean restore(MappedInput in, long faces, long highestFaceId, int efConstruction) throws IOException {
+        if (size > 0 || touchedWhileLoading == null || !touchedWhileLoading.isEmpty()) {
+            return false;
+        }
+        if (in.readInt() != FILE_MAGIC) {
+            throw new IOException("Not a face index file");
+        }
+        if (in.readInt() != FILE_VERSION) {
+            return false;
+        }
+        int fileDim = in.readInt();
+        boolean fileQuantized = in.readByte() != 0;
+        int fileSize = in.readInt();
+        int fileRemoved = in.readInt();
+        long fileMaxFaceId = in.readLong();
+        if (fileDim != dim || fileQuantized != quantized
+                || fileSize - fileRemoved != faces || fileMaxFaceId != highestFaceId) {
+            return false;
+        }
+
+        Block[] restored = new Block[(fileSize + BLOCK_SIZE - 1) / BLOCK_SIZE];
+        Map<Long, List<Integer>> slots = new HashMap<>();
+        for (int b = 0; b < restored.length; b++) {
+            Block block = new Block(dim, quantized);
+            int count = Math.min(BLOCK_SIZE, fileSize - b * BLOCK_SIZE);
+            if (quantized) {
+                in.readBytes(block.codes, 0, count * dim);
+                in.readFloats(block.scales, 0, count);
+            } else {
+                in.readFloats(block.vectors, 0, count * dim);
+            }
+            for (int i = 0; i < count; i++) {
+                block.faceIds[i] = in.readLong();
+                block.photoIds[i] = in.readLong();
+                block.faceIndexes[i] = in.readInt();
+                block.hasBox[i] = in.readByte() != 0;
+                if (block.photoIds[i] != REMOVED) {
+                    slots.computeIfAbsent(block.photoIds[i], id -> new ArrayList<>()).add(b * BLOCK_SIZE + i);
+                }
+            }
+            in.readInts(block.boxes, 0, count * 4);
+            restored[b] = block;
+        }
+        HnswGraph restoredGraph = HnswGraph.readFrom(in, scorer(), efConstruction);
+        if (restoredGraph.size() != fileSize) {
+            throw new IOException("Graph covers " + restoredGraph.size() + " of " + fileSize + " slots");
+        }
+
+        blocks = restored;
+        slots.forEach((photoId, photoSlots) ->
+                slotsByPhoto.put(photoId, photoSlots.stream().mapToInt(Integer::intValue).toArray()));
+        removed = fileRemoved;
+        maxFaceId = fileMaxFaceId;
+        size = fileSize;
+        graph = restoredGraph;
+        return true;
+    }
+
+    private TopK scanBlock(Block block, int blockIndex, int count, float[] query, int limit, float threshold) {
+        float[] scores = new float[count];
+        if (quantized) {
+            ops.scores(query, block.codes, block.scales, count, dim, scores);
+        } else {
+            ops.scores(query, block.vectors, count, dim, scores);
+        }
+
+        TopK top = new TopK(limit);
+        int base = blockIndex * BLOCK_SIZE;
+        for (int i = 0; i < count; i++) {
+            if (scores[i] >= threshold && block.photoIds[i] != REMOVED) {
+                top.offer(scores[i], base + i);
+            }
+        }
+        return top;
+    }
+
+    /**
+     * Bounded min-heap of (score, slot) pairs
+     */
+    static final class TopK {
+        final float[] scores;
+        final int[] slots;
+        private int size;
+
+        TopK(int capacity) {
+            this.scores = new float[capacity];
+            this.slots = new int[capacity];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void offer(float score, int slot) {
+            if (size < scores.length) {
+                scores[size] = score;
+                slots[size] = slot;
+                siftUp(size++);
+            } else if (score > scores[0]) {
+                scores[0] = score;
+                slots[0] = slot;
+                siftDown(0);
+            }
+        }
+
+        TopK merge(TopK other) {
+            for (int i = 0; i < other.size; i++) {
+                offer(other.scores[i], other.slots[i]);
+            }
+            return this;
+        }
+
+        int[] sortedDescending() {
+            return IntStream.range(0, size)
+                    .boxed()
+                    .sorted((a, b) -> Float.compare(scores[b], scores[a]))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (scores[parent] <= scores[i]) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int left = 2 * i + 1;
+                if (left >= size) {
+                    return;
+                }
+                int smallest = left + 1 < size && scores[left + 1] < scores[left] ? left + 1 : left;
+                if (scores[i] <= scores[smallest]) {
+                    return;
+                }
+                swap(i, smallest);
+                i = smallest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            float score = scores[a];
+            scores[a] = scores[b];
+            scores[b] = score;
+            int slot = slots[a];
+            slots[a] = slots[b];
+            slots[b] = slot;
+        }
+    }
+}
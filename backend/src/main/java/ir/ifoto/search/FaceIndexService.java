@@ -0,0 +1,555 @@
+package ir.ifoto.search;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import ir.ifoto.exception.BadRequestException;
+import ir.ifoto.model.FaceEmbedding;
+import ir.ifoto.repository.FaceEmbeddingRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * In-process face search over the embeddings stored in {@code face_embeddings}.
+ * <p>
+ * An event's index is loaded from the database on its first search and kept while it is being
+ * searched; idle or oversized indexes are evicted and reloaded on demand. Extraction and deletion
+ * update loaded indexes after their transaction commits. Events with faces stored before
+ * embeddings were persisted are reported as unavailable so callers fall back to the face service.
+ * <p>
+ * Events with at least {@code ifoto.face-index.hnsw.min-faces} faces get an HNSW graph, built in
+ * the background while searches keep scanning exactly. Indexes with a graph are written to
+ * {@code ifoto.face-index.hnsw.dir} when evicted or on shutdown and mapped back in on the next
+ * load, unless the event's faces changed in the meantime.
+ * <p>
+ * With {@code ifoto.face-index.quantization.mode=int8} indexes hold int8 codes instead of floats
+ * and similarities are those of the float query against the codes. With
+ * {@code quantization.rescore} searches instead gather {@code rescore-factor} times the requested
+ * matches, with the threshold lowered by the worst-case quantization error, and rescore them
+ * against the float embeddings in the database before applying the real threshold and limit.
+ * That costs a database round trip per search, so it is off unless exact similarities matter.
+ */
+@Slf4j
+@Service
+public class FaceIndexService {
+
+    private static final int LOAD_BATCH = 1024;
+    private static final float QUANTIZATION_MARGIN = 0.02f;
+
+    private final FaceEmbeddingRepository faceEmbeddingRepository;
+    private final TransactionTemplate readOnlyTransaction;
+    private final ThreadPoolTaskExecutor buildExecutor;
+    private final boolean enabled;
+    private final VectorOps vectorOps;
+    private final ForkJoinPool searchPool;
+    private final Cache<Long, EventFaceIndex> indexes;
+    private final long maxVectors;
+    private final boolean quantized;
+    private final boolean rescore;
+    private final int rescoreFactor;
+
+    private final int hnswMinFaces;
+    private final int hnswM;
+    private final int hnswEfConstruction;
+    private final int hnswEfSearch;
+    private final Path hnswDir;
+
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder restores = new LongAdder();
+    private final LongAdder persists = new LongAdder();
+    private final LongAdder graphBuilds = new LongAdder();
+    private final LongAdder searches = new LongAdder();
+    private final LongAdder approximateSearches = new LongAdder();
+    private final LongAdder totalSearchNanos = new LongAdder();
+    private final LongAdder rescoredCandidates = new LongAdder();
+    private final LongAdder totalRescoreNanos = new LongAdder();
+
+    public FaceIndexService(
+            FaceEmbeddingRepository faceEmbeddingRepository,
+            PlatformTransactionManager transactionManager,
+            @Qualifier("faceIndexBuildExecutor") ThreadPoolTaskExecutor buildExecutor,
+            @Value("${ifoto.face-index.enabled:true}") boolean enabled,
+            @Value("${ifoto.face-index.simd:true}") boolean simd,
+            @Value("${ifoto.face-index.parallelism:0}") int parallelism,
+            @Value("${ifoto.face-index.max-vectors:1000000}") long maxVectors,
+            @Value("${ifoto.face-index.idle-ttl:30m}") Duration idleTtl,
+            @Value("${ifoto.face-index.quantization.mode:none}") String quantization,
+            @Value("${ifoto.face-index.quantization.rescore:false}") boolean rescore,
+            @Value("${ifoto.face-index.quantization.rescore-factor:4}") int rescoreFactor,
+            @Value("${ifoto.face-index.hnsw.min-faces:200000}") int hnswMinFaces,
+            @Value("${ifoto.face-index.hnsw.m:16}") int hnswM,
+            @Value("${ifoto.face-index.hnsw.ef-construction:100}") int hnswEfConstruction,
+            @Value("${ifoto.face-index.hnsw.ef-search:200}") int hnswEfSearch,
+            @Value("${ifoto.face-index.hnsw.dir:}") String hnswDir) {
+        this.faceEmbeddingRepository = faceEmbeddingRepository;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.buildExecutor = buildExecutor;
+        this.enabled = enabled;
+        this.vectorOps = VectorOps.create(simd);
+        this.searchPool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        this.maxVectors = maxVectors;
+        if (!"none".equalsIgnoreCase(quantization) && !"int8".equalsIgnoreCase(quantization)) {
+            throw new IllegalStateException("ifoto.face-index.quantization.mode must be none or int8");
+        }
+        this.quantized = "int8".equalsIgnoreCase(quantization);
+        this.rescore = rescore;
+        this.rescoreFactor = Math.max(1, rescoreFactor);
+        this.hnswMinFaces = hnswMinFaces;
+        this.hnswM = hnswM;
+        this.hnswEfConstruction = hnswEfConstruction;
+        this.hnswEfSearch = hnswEfSearch;
+        this.hnswDir = hnswDir.isBlank() ? null : Path.of(hnswDir);
+        this.indexes = Caffeine.newBuilder()
+                .maximumWeight(maxVectors)
+                .weigher((Long eventId, EventFaceIndex index) -> Math.max(1, index.size()))
+                .expireAfterAccess(idleTtl)
+                .removalListener((Long eventId, EventFaceIndex index, RemovalCause cause) -> {
+                    if (cause.wasEvicted() && eventId != null && index != null) {
+                        persist(eventId, index);
+                    }
+                })
+                .build();
+
+        log.info("Face index {} using {} scoring of {} vectors on {} threads",
+                enabled ? "enabled" : "disabled", vectorOps.name(), quantized ? "int8" : "float32",
+                searchPool.getParallelism());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Top matches for a query embedding, or empty when the event cannot be served in-process
+     */
+    public Optional<List<IndexMatch>> search(Long eventId, float[] embedding, int limit, float threshold) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        EventFaceIndex index = loadedIndex(eventId, embedding.length);
+        if (!index.isComplete() || index.dim() != embedding.length) {
+            return Optional.empty();
+        }
+
+        long start = System.nanoTime();
+        float[] query = Embeddings.normalize(embedding.clone());
+        if (index.hasGraph() && hnswEfSearch > 0) {
+            approximateSearches.increment();
+        }
+        List<IndexMatch> matches = index.isQuantized() && rescore
+                ? rescore(query, index.search(query, limit * rescoreFactor, threshold - QUANTIZATION_MARGIN,
+                        hnswEfSearch, searchPool), limit, threshold)
+                : index.search(query, limit, threshold, hnswEfSearch, searchPool);
+        searches.increment();
+        totalSearchNanos.add(System.nanoTime() - start);
+        return Optional.of(matches);
+    }
+
+    /**
+     * Replace approximate int8 similarities with exact ones from the stored float embeddings.
+     * Faces deleted since the index saw them are dropped.
+     */
+    private List<IndexMatch> rescore(float[] query, List<IndexMatch> candidates, int limit, float threshold) {
+        if (candidates.isEmpty()) {
+            return candidates;
+        }
+        long start = System.nanoTime();
+        Map<Long, byte[]> stored = new HashMap<>(candidates.size() * 2);
+        for (StoredVector vector : faceEmbeddingRepository.findStoredVectors(
+                candidates.stream().map(IndexMatch::faceId).toList())) {
+            stored.put(vector.id(), vector.embedding());
+        }
+
+        List<IndexMatch> rescored = new ArrayList<>(candidates.size());
+        for (IndexMatch candidate : candidates) {
+            byte[] embedding = stored.get(candidate.faceId());
+            if (embedding == null) {
+                continue;
+            }
+            float[] vector = Embeddings.normalize(Embeddings.toFloats(embedding));
+            if (vector.length != query.length) {
+                continue;
+            }
+            float similarity = vectorOps.dot(query, 0, vector, 0, query.length);
+            if (similarity >= threshold) {
+                rescored.add(candidate.withSimilarity(similarity));
+            }
+        }
+        rescored.sort(Comparator.comparingDouble(IndexMatch::similarity).reversed());
+
+        rescoredCandidates.add(candidates.size());
+        totalRescoreNanos.add(System.nanoTime() - start);
+        return rescored.size() > limit ? rescored.subList(0, limit) : rescored;
+    }
+
+    /**
+     * Recall of the event's graph against exact search, using stored faces as queries.
+     * Each {@code efSearch} value gives one point of the recall/latency curve.
+     */
+    public Map<String, Object> measureRecall(Long eventId, int samples, int k, List<Integer> efSearch) {
+        if (!enabled) {
+            throw new BadRequestException("The face index is disabled");
+        }
+        FaceEmbedding sample = faceEmbeddingRepository.findFirstByPhotoEventIdAndEmbeddingIsNotNull(eventId)
+                .orElseThrow(() -> new BadRequestException("Event " + eventId + " has no stored embeddings"));
+        EventFaceIndex index = loadedIndex(eventId, sample.getEmbedding().length / Float.BYTES);
+        if (!index.hasGraph()) {
+            throw new BadRequestException("Event " + eventId + " has no HNSW graph yet (" + index.liveSize()
+                    + " faces, graphs are built from " + hnswMinFaces + ")");
+        }
+        List<Integer> efValues = efSearch == null || efSearch.isEmpty() ? List.of(hnswEfSearch) : efSearch;
+
+        SplittableRandom random = new SplittableRandom(eventId);
+        List<float[]> queries = new ArrayList<>(samples);
+        List<Set<Integer>> truth = new ArrayList<>(samples);
+        long exactNanos = 0;
+        for (int i = 0; i < samples; i++) {
+            int slot = index.randomLiveSlot(random);
+            if (slot < 0) {
+                break;
+            }
+            float[] query = index.vector(slot);
+            long start = System.nanoTime();
+            SlotScores exact = index.exact(query, k, -1f, searchPool);
+            exactNanos += System.nanoTime() - start;
+            queries.add(query);
+            truth.add(slotSet(exact));
+        }
+        if (queries.isEmpty()) {
+            throw new BadRequestException("Event " + eventId + " has no live faces to sample");
+        }
+
+        List<Map<String, Object>> curve = new ArrayList<>();
+        for (int ef : efValues) {
+            long found = 0;
+            long expected = 0;
+            long nanos = 0;
+            for (int i = 0; i < queries.size(); i++) {
+                long start = System.nanoTime();
+                SlotScores approximate = index.approximate(queries.get(i), k, -1f, ef);
+                nanos += System.nanoTime() - start;
+                Set<Integer> relevant = truth.get(i);
+                for (int slot : approximate.slots()) {
+                    if (relevant.contains(slot)) {
+                        found++;
+                    }
+                }
+                expected += relevant.size();
+            }
+            Map<String, Object> point = new LinkedHashMap<>();
+            point.put("efSearch", ef);
+            point.put("recall", expected > 0 ? Math.round(found * 10000.0 / expected) / 10000.0 : 1.0);
+            point.put("avgMs", nanos / queries.size() / 1e6);
+            curve.add(point);
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("eventId", eventId);
+        result.put("faces", index.liveSize());
+        result.put("samples", queries.size());
+        result.put("k", k);
+        result.put("quantization", index.isQuantized() ? "int8" : "none");
+        result.put("exactAvgMs", exactNanos / queries.size() / 1e6);
+        result.put("hnsw", curve);
+        return result;
+    }
+
+    private static Set<Integer> slotSet(SlotScores scores) {
+        Set<Integer> slots = new HashSet<>(scores.size() * 2);
+        for (int slot : scores.slots()) {
+            slots.add(slot);
+        }
+        return slots;
+    }
+
+    /**
+     * Replace the indexed faces of a photo once the surrounding transaction commits
+     */
+    public void replacePhoto(Long eventId, Long photoId, List<FaceEmbedding> faces) {
+        if (!enabled) {
+            return;
+        }
+        List<IndexedFace> indexed = new ArrayList<>(faces.size());
+        for (FaceEmbedding face : faces) {
+            indexed.add(new IndexedFace(face.getId(), photoId, face.getFaceIndex(),
+                    face.getBoundingBoxX(), face.getBoundingBoxY(),
+                    face.getBoundingBoxWidth(), face.getBoundingBoxHeight(),
+                    face.getEmbedding(), face.getQuantizedEmbedding()));
+        }
+        afterCommit(() -> apply(eventId, photoId, indexed));
+    }
+
+    public void removePhoto(Long eventId, Long photoId) {
+        if (!enabled) {
+            return;
+        }
+        afterCommit(() -> apply(eventId, photoId, List.of()));
+    }
+
+    private void apply(Long eventId, Long photoId, List<IndexedFace> faces) {
+        // Indexes that are not loaded pick the change up from the database when they are
+        EventFaceIndex index = indexes.getIfPresent(eventId);
+        if (index == null) {
+            return;
+        }
+        int sizeBefore = index.size();
+        index.replacePhoto(photoId, faces);
+
+        // Tombstones are never reclaimed in place; rebuild once they dominate
+        if (index.removedSize() > index.size() / 4) {
+            indexes.asMap().remove(eventId, index);
+            return;
+        }
+        if (index.size() != sizeBefore) {
+            // Re-insert so the cache weighs the index by its grown size and can evict it
+            indexes.asMap().replace(eventId, index, index);
+        }
+        if (index.isLoaded()) {
+            scheduleGraphBuild(eventId, index);
+        }
+    }
+
+    private void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private EventFaceIndex loadedIndex(Long eventId, int dim) {
+        EventFaceIndex index = indexes.get(eventId, id -> new EventFaceIndex(dim, vectorOps, quantized));
+        if (!index.isLoaded()) {
+            // Concurrent first searches of an event wait for a single load
+            index.loadLock().lock();
+            try {
+                if (!index.isLoaded()) {
+                    load(eventId, index);
+                }
+            } finally {
+                index.loadLock().unlock();
+            }
+        }
+        return index;
+    }
+
+    private void load(Long eventId, EventFaceIndex index) {
+        long start = System.nanoTime();
+        boolean complete = faceEmbeddingRepository.countByPhotoEventIdAndEmbeddingIsNull(eventId) == 0;
+        if (!complete) {
+            log.info("Event {} has faces without stored embeddings, searching it through the face service", eventId);
+        }
+
+        boolean restored = restore(eventId, index);
+        if (!restored) {
+            readOnlyTransaction.executeWithoutResult(status -> {
+                try (Stream<IndexedFace> faces = faceEmbeddingRepository.streamIndexable(eventId)) {
+                    List<IndexedFace> batch = new ArrayList<>(LOAD_BATCH);
+                    faces.forEach(face -> {
+                        batch.add(face);
+                        if (batch.size() == LOAD_BATCH) {
+                            index.appendLoaded(batch);
+                            batch.clear();
+                        }
+                    });
+                    index.appendLoaded(batch);
+                }
+            });
+        }
+        index.finishLoading(complete);
+
+        // Re-insert so the cache weighs the index by its loaded size
+        indexes.asMap().replace(eventId, index, index);
+        loads.increment();
+        if (index.size() > maxVectors) {
+            log.warn("Face index of event {} holds {} faces, more than ifoto.face-index.max-vectors; "
+                    + "it is evicted right away and reloaded on every search", eventId, index.size());
+        }
+        log.info("Loaded face index for event {} from {}: {} faces in {} ms",
+                eventId, restored ? "disk" : "database", index.size(), (System.nanoTime() - start) / 1_000_000);
+
+        scheduleGraphBuild(eventId, index);
+    }
+
+    private Path indexFile(Long eventId) {
+        return hnswDir.resolve("event-" + eventId + ".idx");
+    }
+
+    /**
+     * Map a persisted index back in if it still matches the event's faces
+     */
+    private boolean restore(Long eventId, EventFaceIndex index) {
+        if (hnswDir == null || !Files.exists(indexFile(eventId))) {
+            return false;
+        }
+        IndexFingerprint fingerprint = faceEmbeddingRepository.findIndexFingerprint(eventId);
+        long faces = fingerprint.faces() != null ? fingerprint.faces() : 0;
+        long maxFaceId = fingerprint.maxFaceId() != null ? fingerprint.maxFaceId() : 0;
+        try (MappedInput in = new MappedInput(indexFile(eventId))) {
+            if (index.restore(in, faces, maxFaceId, hnswEfConstruction)) {
+                restores.increment();
+                return true;
+            }
+            log.info("Persisted face index of event {} is stale, rebuilding from the database", eventId);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Ignoring unreadable face index file of event {}: {}", eventId, e.getMessage());
+        }
+        return false;
+    }
+
+    private void persist(Long eventId, EventFaceIndex index) {
+        if (hnswDir == null || !index.hasGraph()) {
+            return;
+        }
+        long start = System.nanoTime();
+        Path target = indexFile(eventId);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(hnswDir);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp), 1 << 20))) {
+                index.writeTo(out);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            persists.increment();
+            log.info("Persisted face index of event {} ({} faces) in {} ms",
+                    eventId, index.size(), (System.nanoTime() - start) / 1_000_000);
+        } catch (IOException e) {
+            log.warn("Failed to persist face index of event {}: {}", eventId, e.getMessage());
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // Overwritten by the next attempt
+            }
+        }
+    }
+
+    @PreDestroy
+    public void persistAll() {
+        indexes.asMap().forEach(this::persist);
+        searchPool.shutdown();
+    }
+
+    private void scheduleGraphBuild(Long eventId, EventFaceIndex index) {
+        if (index.liveSize() < hnswMinFaces || !index.claimGraphBuild()) {
+            return;
+        }
+        try {
+            buildExecutor.execute(() -> buildGraph(eventId, index));
+        } catch (TaskRejectedException e) {
+            index.releaseGraphBuild();
+        }
+    }
+
+    /**
+     * Insert every slot into a new graph without blocking writers, catching up with faces added
+     * meanwhile, then attach it. Abandoned if the index is evicted.
+     */
+    private void buildGraph(Long eventId, EventFaceIndex index) {
+        long start = System.nanoTime();
+        try {
+            HnswGraph graph = index.newGraph(hnswM, hnswEfConstruction);
+            int inserted = 0;
+            do {
+                if (indexes.getIfPresent(eventId) != index) {
+                    log.debug("Face index of event {} was evicted during its graph build", eventId);
+                    return;
+                }
+                int target = Math.min(index.size(), inserted + EventFaceIndex.BLOCK_SIZE);
+                while (inserted < target) {
+                    graph.insert(inserted++);
+                }
+            } while (inserted < index.size() || !index.attachGraph(graph));
+
+            graphBuilds.increment();
+            log.info("Built HNSW graph for event {}: {} faces in {} ms",
+                    eventId, inserted, (System.nanoTime() - start) / 1_000_000);
+        } catch (RuntimeException e) {
+            log.error("Failed to build HNSW graph for event {}: {}", eventId, e.getMessage(), e);
+        } finally {
+            if (!index.hasGraph()) {
+                index.releaseGraphBuild();
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        long count = searches.sum();
+        long vectors = 0;
+        long memoryBytes = 0;
+        int graphs = 0;
+        for (EventFaceIndex index : indexes.asMap().values()) {
+            vectors += index.liveSize();
+            memoryBytes += index.memoryBytes();
+            if (index.hasGraph()) {
+                graphs++;
+            }
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("scoring", vectorOps.name());
+        stats.put("parallelism", searchPool.getParallelism());
+        stats.put("loadedEvents", indexes.estimatedSize());
+        stats.put("vectors", vectors);
+        stats.put("memoryMb", memoryBytes / (1024 * 1024));
+        stats.put("loads", loads.sum());
+        stats.put("searches", count);
+        stats.put("avgSearchMs", count > 0 ? totalSearchNanos.sum() / count / 1e6 : 0);
+
+        Map<String, Object> hnsw = new LinkedHashMap<>();
+        hnsw.put("minFaces", hnswMinFaces);
+        hnsw.put("efSearch", hnswEfSearch);
+        hnsw.put("graphs", graphs);
+        hnsw.put("builds", graphBuilds.sum());
+        hnsw.put("restores", restores.sum());
+        hnsw.put("persists", persists.sum());
+        hnsw.put("approximateSearches", approximateSearches.sum());
+        stats.put("hnsw", hnsw);
+
+        long rescored = rescoredCandidates.sum();
+        Map<String, Object> quantization = new LinkedHashMap<>();
+        quantization.put("mode", quantized ? "int8" : "none");
+        quantization.put("rescore", rescore);
+        quantization.put("rescoreFactor", rescoreFactor);
+        quantization.put("rescoredCandidates", rescored);
+        quantization.put("avgRescoreMs", count > 0 && rescored > 0 ? totalRescoreNanos.sum() / count / 1e6 : 0);
+        stats.put("quantization", quantization);
+        return stats;
+    }
+}
@@ -0,0 +1,423 @@
+package ir.ifoto.search;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Hierarchical navigable small world graph over the slots of an {@link EventFaceIndex}.
+ * <p>
+ * Nodes are slot numbers and must be inserted in slot order; vectors stay in the index and are
+ * reached through a {@link Scorer}. Removed slots stay in the graph as waypoints and are filtered
+ * by the caller. Layer 0 links live in one flat array, upper layers in per-node arrays, and each
+ * link list starts with its length. Inserts take the write lock, searches the read lock.
+ */
+final class HnswGraph {
+
+    private static final int MAX_LEVEL = 15;
+    private static final ThreadLocal<Visited> VISITED = ThreadLocal.withInitial(Visited::new);
+
+    /**
+     * Similarity between a query or a node and another node; higher is closer
+     */
+    interface Scorer {
+        float score(float[] query, int node);
+
+        float score(int a, int b);
+
+        float[] vector(int node);
+    }
+
+    private final Scorer scorer;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final SplittableRandom random = new SplittableRandom(42);
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private byte[] levels = new byte[0];
+    private int[] layer0 = new int[0];
+    private int[][][] upper = new int[0][][];
+    private int size;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    HnswGraph(Scorer scorer, int m, int efConstruction) {
+        this.scorer = scorer;
+        this.m = m;
+        this.maxM0 = 2 * m;
+        this.efConstruction = efConstruction;
+        this.levelMultiplier = 1 / Math.log(m);
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Link the next slot into the graph
+     */
+    void insert(int node) {
+        float[] vector = scorer.vector(node);
+        lock.writeLock().lock();
+        try {
+            if (node != size) {
+                throw new IllegalStateException("Expected node " + size + " but got " + node);
+            }
+            int level = Math.min(MAX_LEVEL, (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier));
+            ensureCapacity(node + 1);
+            levels[node] = (byte) level;
+            if (level > 0) {
+                upper[node] = new int[level][m + 1];
+            }
+            size = node + 1;
+
+            if (entryPoint < 0) {
+                entryPoint = node;
+                maxLevel = level;
+                return;
+            }
+
+            int entry = entryPoint;
+            float entryScore = scorer.score(vector, entry);
+            for (int l = maxLevel; l > level; l--) {
+                NodeHeap nearest = searchLayer(vector, entry, entryScore, 1, l);
+                entry = nearest.peekNode();
+                entryScore = nearest.peekScore();
+            }
+
+            for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+                NodeHeap candidates = searchLayer(vector, entry, entryScore, efConstruction, l);
+                SlotScores sorted = candidates.drainDescending();
+                int[] neighbours = selectNeighbours(sorted.slots(), sorted.scores(), maxConnections(l));
+                setLinks(node, l, neighbours);
+                for (int neighbour : neighbours) {
+                    addLink(neighbour, l, node);
+                }
+                entry = sorted.slots()[0];
+                entryScore = sorted.scores()[0];
+            }
+
+            if (level > maxLevel) {
+                maxLevel = level;
+                entryPoint = node;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Approximate nearest nodes, best first. {@code ef} bounds the candidate list and so
+     * trades latency for recall.
+     */
+    SlotScores search(float[] query, int ef) {
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0) {
+                return new SlotScores(new int[0], new float[0]);
+            }
+            int entry = entryPoint;
+            float entryScore = scorer.score(query, entry);
+            for (int l = maxLevel; l > 0; l--) {
+                NodeHeap nearest = searchLayer(query, entry, entryScore, 1, l);
+                entry = nearest.peekNode();
+                entryScore = nearest.peekScore();
+            }
+            return searchLayer(query, entry, entryScore, ef, 0).drainDescending();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private NodeHeap searchLayer(float[] query, int entry, float entryScore, int ef, int level) {
+        Visited visited = VISITED.get();
+        visited.reset(size);
+        visited.visit(entry);
+
+        NodeHeap candidates = new NodeHeap(true, Math.max(ef, 16));
+        NodeHeap results = new NodeHeap(false, ef + 1);
+        candidates.push(entry, entryScore);
+        results.push(entry, entryScore);
+
+        while (candidates.size() > 0) {
+            if (results.size() >= ef && candidates.peekScore() < results.peekScore()) {
+                break;
+            }
+            int current = candidates.pop();
+            int[] links = level == 0 ? layer0 : upper[current][level - 1];
+            int base = level == 0 ? current * (maxM0 + 1) : 0;
+            int count = links[base];
+            for (int i = 1; i <= count; i++) {
+                int neighbour = links[base + i];
+                if (!visited.visit(neighbour)) {
+                    continue;
+                }
+                float score = scorer.score(query, neighbour);
+                if (results.size() < ef || score > results.peekScore()) {
+                    candidates.push(neighbour, score);
+                    results.push(neighbour, score);
+                    if (results.size() > ef) {
+                        results.pop();
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Neighbour selection heuristic from the HNSW paper: prefer candidates that are closer to the
+     * new node than to any neighbour already selected, then fill up with the closest skipped ones.
+     */
+    private int[] selectNeighbours(int[] candidates, float[] scores, int max) {
+        if (candidates.length <= max) {
+            return candidates;
+        }
+        int[] selected = new int[max];
+        boolean[] taken = new boolean[candidates.length];
+        int count = 0;
+        for (int i = 0; i < candidates.length && count < max; i++) {
+            boolean diverse = true;
+            for (int j = 0; j < count; j++) {
+                if (scorer.score(candidates[i], selected[j]) > scores[i]) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected[count++] = candidates[i];
+                taken[i] = true;
+            }
+        }
+        for (int i = 0; i < candidates.length && count < max; i++) {
+            if (!taken[i]) {
+                selected[count++] = candidates[i];
+            }
+        }
+        return selected;
+    }
+
+    private void addLink(int node, int level, int neighbour) {
+        int[] links = level == 0 ? layer0 : upper[node][level - 1];
+        int base = level == 0 ? node * (maxM0 + 1) : 0;
+        int count = links[base];
+        if (count < maxConnections(level)) {
+            links[base + count + 1] = neighbour;
+            links[base] = count + 1;
+            return;
+        }
+
+        // Full: re-select among the existing links and the new one
+        NodeHeap ranked = new NodeHeap(false, count + 1);
+        for (int i = 1; i <= count; i++) {
+            ranked.push(links[base + i], scorer.score(node, links[base + i]));
+        }
+        ranked.push(neighbour, scorer.score(node, neighbour));
+        SlotScores sorted = ranked.drainDescending();
+        setLinks(node, level, selectNeighbours(sorted.slots(), sorted.scores(), count));
+    }
+
+    private void setLinks(int node, int level, int[] neighbours) {
+        int[] links = level == 0 ? layer0 : upper[node][level - 1];
+        int base = level == 0 ? node * (maxM0 + 1) : 0;
+        links[base] = neighbours.length;
+        System.arraycopy(neighbours, 0, links, base + 1, neighbours.length);
+    }
+
+    private int maxConnections(int level) {
+        return level == 0 ? maxM0 : m;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= levels.length) {
+            return;
+        }
+        int grown = Math.max(capacity, Math.max(1024, levels.length * 2));
+        levels = Arrays.copyOf(levels, grown);
+        layer0 = Arrays.copyOf(layer0, grown * (maxM0 + 1));
+        upper = Arrays.copyOf(upper, grown);
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        lock.readLock().lock();
+        try {
+            out.writeInt(m);
+            out.writeInt(size);
+            out.writeInt(entryPoint);
+            out.writeInt(maxLevel);
+            for (int node = 0; node < size; node++) {
+                out.writeByte(levels[node]);
+                writeLinks(out, layer0, node * (maxM0 + 1));
+                for (int l = 1; l <= levels[node]; l++) {
+                    writeLinks(out, upper[node][l - 1], 0);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static void writeLinks(DataOutputStream out, int[] links, int base) throws IOException {
+        int count = links[base];
+        out.writeInt(count);
+        for (int i = 1; i <= count; i++) {
+            out.writeInt(links[base + i]);
+        }
+    }
+
+    static HnswGraph readFrom(MappedInput in, Scorer scorer, int efConstruction) throws IOException {
+        HnswGraph graph = new HnswGraph(scorer, in.readInt(), efConstruction);
+        int size = in.readInt();
+        graph.ensureCapacity(size);
+        graph.entryPoint = in.readInt();
+        graph.maxLevel = in.readInt();
+        for (int node = 0; node < size; node++) {
+            int level = in.readByte();
+            graph.levels[node] = (byte) level;
+            graph.readLinks(in, graph.layer0, node * (graph.maxM0 + 1), graph.maxM0);
+            if (level > 0) {
+                graph.upper[node] = new int[level][graph.m + 1];
+                for (int l = 1; l <= level; l++) {
+                    graph.readLinks(in, graph.upper[node][l - 1], 0, graph.m);
+                }
+            }
+        }
+        graph.size = size;
+        return graph;
+    }
+
+    private void readLinks(MappedInput in, int[] links, int base, int max) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > max) {
+            throw new IOException("Corrupt link list of length " + count);
+        }
+        links[base] = count;
+        in.readInts(links, base + 1, count);
+    }
+
+    /**
+     * Per-thread visited marks, cleared in O(1) by bumping the epoch
+     */
+    private static final class Visited {
+        private int[] marks = new int[0];
+        private int epoch;
+
+        void reset(int capacity) {
+            if (marks.length < capacity) {
+                marks = new int[Math.max(capacity, marks.length * 2)];
+                epoch = 0;
+            }
+            if (++epoch == 0) {
+                Arrays.fill(marks, 0);
+                epoch = 1;
+            }
+        }
+
+        boolean visit(int node) {
+            if (marks[node] == epoch) {
+                return false;
+            }
+            marks[node] = epoch;
+            return true;
+        }
+    }
+
+    /**
+     * Growable binary heap of (node, score), max-first or min-first
+     */
+    private static final class NodeHeap {
+        private final boolean max;
+        private int[] nodes;
+        private float[] scores;
+        private int size;
+
+        NodeHeap(boolean max, int capacity) {
+            this.max = max;
+            this.nodes = new int[capacity];
+            this.scores = new float[capacity];
+        }
+
+        int size() {
+            return size;
+        }
+
+        int peekNode() {
+            return nodes[0];
+        }
+
+        float peekScore() {
+            return scores[0];
+        }
+
+        void push(int node, float score) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!before(score, scores[parent])) {
+                    break;
+                }
+                nodes[i] = nodes[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+            nodes[i] = node;
+            scores[i] = score;
+        }
+
+        int pop() {
+            int top = nodes[0];
+            int lastNode = nodes[--size];
+            float lastScore = scores[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && before(scores[child + 1], scores[child])) {
+                    child++;
+                }
+                if (!before(scores[child], lastScore)) {
+                    break;
+                }
+                nodes[i] = nodes[child];
+                scores[i] = scores[child];
+                i = child;
+            }
+            nodes[i] = lastNode;
+            scores[i] = lastScore;
+            return top;
+        }
+
+        private boolean before(float a, float b) {
+            return max ? a > b : a < b;
+        }
+
+        /**
+         * Empty a min-first heap into arrays ordered best first
+         */
+        SlotScores drainDescending() {
+            int count = size;
+            int[] outNodes = new int[count];
+            float[] outScores = new float[count];
+            for (int i = count - 1; i >= 0; i--) {
+                outScores[i] = scores[0];
+                outNodes[i] = pop();
+            }
+            return new SlotScores(outNodes, outScores);
+        }
+    }
+}
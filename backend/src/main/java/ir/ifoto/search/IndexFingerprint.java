@@ -0,0 +1,6 @@
+package ir.ifoto.search;
+
+/**
+ * Live face count and highest face id of an event's indexable faces; {@code maxFaceId} is null for none
+ */
+public record IndexFingerprint(Long faces, Long maxFaceId) {}
@@ -0,0 +1,21 @@
+package ir.ifoto.search;
+
+/**
+ * A face returned by an index search. {@code hasBox} is false for faces stored without a bounding box.
+ */
+public record IndexMatch(
+        long faceId,
+        long photoId,
+        int faceIndex,
+        float similarity,
+        boolean hasBox,
+        int x,
+        int y,
+        int width,
+        int height
+) {
+    
+    public IndexMatch withSimilarity(float rescored) {
+        return new IndexMatch(faceId, photoId, faceIndex, rescored, hasBox, x, y, width, height);
+    }
+}
@@ -0,0 +1,18 @@
+package ir.ifoto.search;
+
+/**
+ * A stored face as loaded into the in-process index. The bounding box is in the
+ * original photo's coordinates and may be null for faces stored without one, as may the
+ * quantized embedding of faces stored before quantization.
+ */
+public record IndexedFace(
+        Long id,
+        Long photoId,
+        Integer faceIndex,
+        Integer x,
+        Integer y,
+        Integer width,
+        Integer height,
+        byte[] embedding,
+        byte[] quantized
+) {}
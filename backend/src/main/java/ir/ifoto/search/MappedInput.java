@@ -0,0 +1,94 @@
+package ir.ifoto.search;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Sequential big-endian reader over a memory-mapped file, as written by a {@code DataOutputStream}.
+ * The file is mapped in windows because a single mapping is limited to 2 GB.
+ */
+final class MappedInput implements Closeable {
+
+    private static final long WINDOW = 256L << 20;
+
+    private final FileChannel channel;
+    private final long length;
+    private long windowStart;
+    private MappedByteBuffer window;
+
+    MappedInput(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.length = channel.size();
+        map(0);
+    }
+
+    private void map(long position) throws IOException {
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW, length - position));
+        windowStart = position;
+    }
+
+    private MappedByteBuffer require(int bytes) throws IOException {
+        if (window.remaining() < bytes) {
+            long position = windowStart + window.position();
+            if (length - position < bytes) {
+                throw new EOFException("Unexpected end of " + length + " byte file at " + position);
+            }
+            map(position);
+        }
+        return window;
+    }
+
+    byte readByte() throws IOException {
+        return require(Byte.BYTES).get();
+    }
+
+    int readInt() throws IOException {
+        return require(Integer.BYTES).getInt();
+    }
+
+    long readLong() throws IOException {
+        return require(Long.BYTES).getLong();
+    }
+
+    void readBytes(byte[] target, int offset, int count) throws IOException {
+        while (count > 0) {
+            MappedByteBuffer buffer = require(Byte.BYTES);
+            int n = Math.min(count, buffer.remaining());
+            buffer.get(target, offset, n);
+            offset += n;
+            count -= n;
+        }
+    }
+
+    void readInts(int[] target, int offset, int count) throws IOException {
+        while (count > 0) {
+            MappedByteBuffer buffer = require(Integer.BYTES);
+            int n = Math.min(count, buffer.remaining() / Integer.BYTES);
+            buffer.asIntBuffer().get(target, offset, n);
+            buffer.position(buffer.position() + n * Integer.BYTES);
+            offset += n;
+            count -= n;
+        }
+    }
+
+    void readFloats(float[] target, int offset, int count) throws IOException {
+        while (count > 0) {
+            MappedByteBuffer buffer = require(Float.BYTES);
+            int n = Math.min(count, buffer.remaining() / Float.BYTES);
+            buffer.asFloatBuffer().get(target, offset, n);
+            buffer.position(buffer.position() + n * Float.BYTES);
+            offset += n;
+            count -= n;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
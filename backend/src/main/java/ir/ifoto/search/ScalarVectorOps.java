@@ -0,0 +1,55 @@
+package ir.ifoto.search;
+
+final class ScalarVectorOps implements VectorOps {
+    
+    @Override
+    public void scores(float[] query, float[] vectors, int count, int dim, float[] scores) {
+        for (int v = 0; v < count; v++) {
+            int base = v * dim;
+            float sum = 0f;
+            for (int i = 0; i < dim; i++) {
+                sum += query[i] * vectors[base + i];
+            }
+            scores[v] = sum;
+        }
+    }
+    
+    @Override
+    public float dot(float[] a, int aOffset, float[] b, int bOffset, int dim) {
+        float sum = 0f;
+        for (int i = 0; i < dim; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+    
+    @Override
+    public void scores(float[] query, byte[] codes, float[] scales, int count, int dim, float[] scores) {
+        for (int v = 0; v < count; v++) {
+            scores[v] = dot(query, codes, v * dim, dim) * scales[v];
+        }
+    }
+    
+    @Override
+    public float dot(float[] query, byte[] codes, int offset, int dim) {
+        float sum = 0f;
+        for (int i = 0; i < dim; i++) {
+            sum += query[i] * codes[offset + i];
+        }
+        return sum;
+    }
+    
+    @Override
+    public float dot(byte[] a, int aOffset, byte[] b, int bOffset, int dim) {
+        int sum = 0;
+        for (int i = 0; i < dim; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+    
+    @Override
+    public String name() {
+        return "scalar";
+    }
+}
@@ -0,0 +1,114 @@
+package ir.ifoto.search;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API scoring with the widest float species the CPU supports. Only instantiated
+ * through {@link VectorOps#create(boolean)} after the module has been found.
+ */
+final class SimdVectorOps implements VectorOps {
+    
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+    
+    /**
+     * Bytes loaded per step of the int8 kernels, one per float lane. Byte vectors are at least
+     * 64 bits, so CPUs with fewer than 8 float lanes use the scalar int8 loops.
+     */
+    private static final VectorSpecies<Byte> BYTE_SPECIES = SPECIES.length() >= 8
+            ? VectorSpecies.of(byte.class, VectorShape.forBitSize(SPECIES.length() * Byte.SIZE))
+            : null;
+    private static final ScalarVectorOps SCALAR = new ScalarVectorOps();
+    
+    @Override
+    public void scores(float[] query, float[] vectors, int count, int dim, float[] scores) {
+        int upper = SPECIES.loopBound(dim);
+        for (int v = 0; v < count; v++) {
+            int base = v * dim;
+            FloatVector acc = FloatVector.zero(SPECIES);
+            int i = 0;
+            for (; i < upper; i += SPECIES.length()) {
+                FloatVector q = FloatVector.fromArray(SPECIES, query, i);
+                FloatVector x = FloatVector.fromArray(SPECIES, vectors, base + i);
+                acc = q.fma(x, acc);
+            }
+            float sum = acc.reduceLanes(VectorOperators.ADD);
+            for (; i < dim; i++) {
+                sum += query[i] * vectors[base + i];
+            }
+            scores[v] = sum;
+        }
+    }
+    
+    @Override
+    public float dot(float[] a, int aOffset, float[] b, int bOffset, int dim) {
+        int upper = SPECIES.loopBound(dim);
+        FloatVector acc = FloatVector.zero(SPECIES);
+        int i = 0;
+        for (; i < upper; i += SPECIES.length()) {
+            FloatVector x = FloatVector.fromArray(SPECIES, a, aOffset + i);
+            FloatVector y = FloatVector.fromArray(SPECIES, b, bOffset + i);
+            acc = x.fma(y, acc);
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < dim; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+    
+    @Override
+    public void scores(float[] query, byte[] codes, float[] scales, int count, int dim, float[] scores) {
+        for (int v = 0; v < count; v++) {
+            scores[v] = dot(query, codes, v * dim, dim) * scales[v];
+        }
+    }
+    
+    @Override
+    public float dot(float[] query, byte[] codes, int offset, int dim) {
+        if (BYTE_SPECIES == null) {
+            return SCALAR.dot(query, codes, offset, dim);
+        }
+        int upper = SPECIES.loopBound(dim);
+        FloatVector acc = FloatVector.zero(SPECIES);
+        int i = 0;
+        for (; i < upper; i += SPECIES.length()) {
+            FloatVector q = FloatVector.fromArray(SPECIES, query, i);
+            FloatVector c = (FloatVector) ByteVector.fromArray(BYTE_SPECIES, codes, offset + i).castShape(SPECIES, 0);
+            acc = q.fma(c, acc);
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < dim; i++) {
+            sum += query[i] * codes[offset + i];
+        }
+        return sum;
+    }
+    
+    @Override
+    public float dot(byte[] a, int aOffset, byte[] b, int bOffset, int dim) {
+        if (BYTE_SPECIES == null) {
+            return SCALAR.dot(a, aOffset, b, bOffset, dim);
+        }
+        int upper = SPECIES.loopBound(dim);
+        FloatVector acc = FloatVector.zero(SPECIES);
+        int i = 0;
+        for (; i < upper; i += SPECIES.length()) {
+            FloatVector x = (FloatVector) ByteVector.fromArray(BYTE_SPECIES, a, aOffset + i).castShape(SPECIES, 0);
+            FloatVector y = (FloatVector) ByteVector.fromArray(BYTE_SPECIES, b, bOffset + i).castShape(SPECIES, 0);
+            acc = x.fma(y, acc);
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < dim; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+    
+    @Override
+    public String name() {
+        return "simd-" + SPECIES.vectorBitSize();
+    }
+}
@@ -0,0 +1,11 @@
+package ir.ifoto.search;
+
+/**
+ * Index slots with their similarity to a query, best first
+ */
+record SlotScores(int[] slots, float[] scores) {
+
+    int size() {
+        return slots.length;
+    }
+}
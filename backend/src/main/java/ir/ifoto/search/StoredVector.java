@@ -0,0 +1,6 @@
+package ir.ifoto.search;
+
+/**
+ * A face's full-precision embedding, for rescoring quantized matches
+ */
+public record StoredVector(Long id, byte[] embedding) {}
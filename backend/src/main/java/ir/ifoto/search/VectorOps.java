@@ -0,0 +1,53 @@
+package ir.ifoto.search;
+
+/**
+ * Dot products of one query against a block of row-major vectors.
+ * The SIMD implementation needs the incubating {@code jdk.incubator.vector} module
+ * ({@code --add-modules jdk.incubator.vector}); without it the scalar loop is used.
+ */
+public interface VectorOps {
+    
+    /**
+     * Write the dot product of {@code query} with each of the first {@code count} vectors of
+     * {@code vectors} into {@code scores}
+     */
+    void scores(float[] query, float[] vectors, int count, int dim, float[] scores);
+    
+    /**
+     * Dot product of {@code dim} floats of {@code a} starting at {@code aOffset} with
+     * {@code dim} floats of {@code b} starting at {@code bOffset}
+     */
+    float dot(float[] a, int aOffset, float[] b, int bOffset, int dim);
+    
+    /**
+     * Like {@link #scores(float[], float[], int, int, float[])} against int8 codes, each row
+     * multiplied by its own scale
+     */
+    void scores(float[] query, byte[] codes, float[] scales, int count, int dim, float[] scores);
+    
+    /**
+     * Unscaled dot product of a float vector with {@code dim} int8 codes starting at {@code offset}
+     */
+    float dot(float[] query, byte[] codes, int offset, int dim);
+    
+    /**
+     * Unscaled dot product of two runs of {@code dim} int8 codes
+     */
+    float dot(byte[] a, int aOffset, byte[] b, int bOffset, int dim);
+    
+    String name();
+    
+    static VectorOps create(boolean simd) {
+        if (simd && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                // Loaded reflectively so this class links without the incubator module
+                return (VectorOps) Class.forName("ir.ifoto.search.SimdVectorOps")
+                        .getDeclaredConstructor()
+                        .newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // Fall through to scalar; the chosen implementation is logged by the caller
+            }
+        }
+        return new ScalarVectorOps();
+    }
+}
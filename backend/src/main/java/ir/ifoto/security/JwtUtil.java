@@ -1,36 +1,112 @@
 package ir.ifoto.security;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.LocatorAdapter;
+import io.jsonwebtoken.UnsupportedJwtException;
 import io.jsonwebtoken.security.Keys;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Component;
 
 import javax.crypto.SecretKey;
 import java.nio.charset.StandardCharsets;
+import java.security.Key;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.function.Function;
 
+/**
+ * Issues and verifies JWTs. Keys and the parser are built once at startup.
+ * <p>
+ * Tokens are signed with {@code ifoto.jwt.secret} and carry its {@code ifoto.jwt.key-id} as {@code kid}.
+ * To rotate, move the current pair into {@code ifoto.jwt.previous-keys} ({@code kid=secret,...})
+ * and configure a new secret and key id; tokens signed with either keep verifying until the
+ * previous key is removed. Tokens without a {@code kid} are verified with the current key.
+ */
 @Component
 public class JwtUtil {
     
+    public static final String ROLE_CLAIM = "role";
+    
     @Value("${ifoto.jwt.secret}")
     private String secret;
     
+    @Value("${ifoto.jwt.key-id:primary}")
+    private String keyId;
+    
+    @Value("${ifoto.jwt.previous-keys:}")
+    private String previousKeys;
+    
     @Value("${ifoto.jwt.expiration}")
     private Long expiration;
     
+    private SecretKey signingKey;
+    private Map<String, SecretKey> verificationKeys;
+    private JwtParser parser;
+    
+    /**
+     * Verified view of a token, produced by a single parse
+     */
+    public record TokenClaims(String username, String role, Date expiration) {
+    }
+    
     @jakarta.annotation.PostConstruct
-    public void validateSecret() {
-        if (secret == null || secret.length() < 64) {
+    public void init() {
+        signingKey = buildKey(keyId, secret);
+        
+        Map<String, SecretKey> keys = new HashMap<>();
+        keys.put(keyId, signingKey);
+        if (previousKeys != null && !previousKeys.isBlank()) {
+            for (String entry : previousKeys.split(",")) {
+                int separator = entry.indexOf('=');
+                if (separator <= 0) {
+                    throw new IllegalStateException("ifoto.jwt.previous-keys entries must be kid=secret");
+                }
+                String kid = entry.substring(0, separator).trim();
+                keys.putIfAbsent(kid, buildKey(kid, entry.substring(separator + 1).trim()));
+            }
+        }
+        verificationKeys = Map.copyOf(keys);
+        
+        parser = Jwts.parser()
+                .keyLocator(new LocatorAdapter<Key>() {
+                    @Override
+                    protected Key locate(JwsHeader header) {
+                        String kid = header.getKeyId();
+                        if (kid == null) {
+                            return signingKey;
+                        }
+                        SecretKey key = verificationKeys.get(kid);
+                        if (key == null) {
+                            throw new UnsupportedJwtException("Unknown signing key: " + kid);
+                        }
+                        return key;
+                    }
+                })
+                .build();
+    }
+    
+    private static SecretKey buildKey(String kid, String keySecret) {
+        if (keySecret == null || keySecret.length() < 64) {
             throw new IllegalStateException(
-                "JWT secret must be at least 64 characters for HS512 security. " +
+                "JWT secret '" + kid + "' must be at least 64 characters for HS512 security. " +
                 "Set JWT_SECRET environment variable with a strong random string."
             );
         }
+        return Keys.hmacShaKeyFor(keySecret.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Verify the signature and expiry of a token and return its claims
+     */
+    public TokenClaims parse(String token) {
+        Claims claims = extractAllClaims(token);
+        return new TokenClaims(claims.getSubject(), claims.get(ROLE_CLAIM, String.class), claims.getExpiration());
     }
     
     public String extractUsername(String token) {
@@ -47,39 +123,33 @@ public class JwtUtil {
     }
     
     private Claims extractAllClaims(String token) {
-        return Jwts.parser()
-                .verifyWith(getSigningKey())
-                .build()
-                .parseSignedClaims(token)
-                .getPayload();
-    }
-    
-    private Boolean isTokenExpired(String token) {
-        return extractExpiration(token).before(new Date());
+        return parser.parseSignedClaims(token).getPayload();
     }
     
     public String generateToken(UserDetails userDetails) {
         Map<String, Object> claims = new HashMap<>();
+        userDetails.getAuthorities().stream()
+                .map(GrantedAuthority::getAuthority)
+                .findFirst()
+                .ifPresent(role -> claims.put(ROLE_CLAIM, role));
         return createToken(claims, userDetails.getUsername());
     }
     
     private String createToken(Map<String, Object> claims, String subject) {
         return Jwts.builder()
+                .header().keyId(keyId).and()
                 .claims(claims)
                 .subject(subject)
                 .issuedAt(new Date(System.currentTimeMillis()))
                 .expiration(new Date(System.currentTimeMillis() + expiration))
-                .signWith(getSigningKey())
+                .signWith(signingKey)
                 .compact();
     }
     
+    /**
+     * Parsing already rejects expired tokens, so only the subject needs checking
+     */
     public Boolean validateToken(String token, UserDetails userDetails) {
-        final String username = extractUsername(token);
-        return (username.equals(userDetails.getUsername()) && !isTokenExpired(token));
-    }
-    
-    private SecretKey getSigningKey() {
-        byte[] keyBytes = secret.getBytes(StandardCharsets.UTF_8);
-        return Keys.hmacShaKeyFor(keyBytes);
+        return userDetails.getUsername().equals(parse(token).username());
     }
 }
@@ -0,0 +1,59 @@
+package ir.ifoto.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.UserCache;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Short-lived cache of the principals behind JWTs, so authenticated requests do not query
+ * the users table. Entries are evicted as soon as the user row changes, see {@link UserCacheInvalidator};
+ * the TTL only bounds staleness for changes made outside the application.
+ */
+@Component
+public class PrincipalCache implements UserCache {
+    
+    private final Cache<String, UserDetails> cache;
+    
+    public PrincipalCache(
+            @Value("${ifoto.security.principal-cache.ttl:60s}") Duration ttl,
+            @Value("${ifoto.security.principal-cache.max-size:10000}") long maxSize) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+    }
+    
+    @Override
+    public UserDetails getUserFromCache(String username) {
+        return cache.getIfPresent(username);
+    }
+    
+    @Override
+    public void putUserInCache(UserDetails user) {
+        cache.put(user.getUsername(), user);
+    }
+    
+    @Override
+    public void removeUserFromCache(String username) {
+        cache.invalidate(username);
+    }
+    
+    public Map<String, Object> getStats() {
+        CacheStats cacheStats = cache.stats();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", cache.estimatedSize());
+        stats.put("hits", cacheStats.hitCount());
+        stats.put("misses", cacheStats.missCount());
+        stats.put("hitRate", Math.round(cacheStats.hitRate() * 1000) / 1000.0);
+        return stats;
+    }
+}
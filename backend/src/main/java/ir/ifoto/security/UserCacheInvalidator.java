@@ -0,0 +1,37 @@
+package ir.ifoto.security;
+
+import ir.ifoto.model.User;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Evicts a user's cached principal whenever the row is updated or deleted, e.g. when the
+ * account is deactivated or its role changes. The entry is evicted again after commit so a
+ * concurrent request cannot re-cache the pre-commit row.
+ */
+@Component
+@RequiredArgsConstructor
+public class UserCacheInvalidator {
+    
+    private final PrincipalCache principalCache;
+    
+    @PostUpdate
+    @PostRemove
+    public void onChange(User user) {
+        String username = user.getUsername();
+        principalCache.removeUserFromCache(username);
+        
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    principalCache.removeUserFromCache(username);
+                }
+            });
+        }
+    }
+}
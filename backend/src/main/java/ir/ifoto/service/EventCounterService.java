@@ -0,0 +1,261 @@
+package ir.ifoto.service;
+
+import ir.ifoto.repository.EventRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Denormalized photo and face counts on the events row.
+ * <p>
+ * Upload and extraction paths only add to per-event striped adders, so a burst upload never
+ * queues on the event's row lock. Deltas are written in one increment per event per flush
+ * interval, and a periodic reconcile overwrites the counters with true counts to repair any
+ * drift, e.g. deltas lost in a crash before their flush. Every write also moves the event's
+ * gallery version, so validators change once per flush rather than once per upload. The reconcile finds drifted events
+ * without blocking anyone and repairs them, together with events that have unflushed deltas, in
+ * small chunks; recording commits only wait for the chunk being repaired.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class EventCounterService {
+    
+    private final EventRepository eventRepository;
+    private final GalleryVersionService galleryVersionService;
+    
+    // Entries are never removed: a removal could race with a concurrent increment and lose it
+    private final Map<Long, Deltas> pending = new ConcurrentHashMap<>();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder flushFailures = new LongAdder();
+    private volatile int lastReconcileDrift;
+    
+    @Value("${ifoto.counters.reconcile-chunk:100}")
+    private int reconcileChunk = 100;
+    
+    /**
+     * Held across database updates, so a lock rather than a monitor to keep virtual threads unpinned
+     */
+    private final ReentrantLock flushLock = new ReentrantLock();
+    
+    /**
+     * Shared from just before a recording transaction commits until its deltas are added, exclusive
+     * while a reconcile chunk is written. A commit counted by the reconcile statement would
+     * otherwise add its delta only afterwards and be counted twice.
+     */
+    private final ReadWriteLock commitGate = new ReentrantReadWriteLock();
+    
+    private static final class Deltas {
+        final LongAdder photos = new LongAdder();
+        final LongAdder faces = new LongAdder();
+    }
+    
+    public void photosAdded(Long eventId, int count) {
+        record(eventId, count, 0);
+    }
+    
+    public void photoRemoved(Long eventId, int faces) {
+        record(eventId, -1, -faces);
+    }
+    
+    public void facesChanged(Long eventId, int delta) {
+        record(eventId, 0, delta);
+    }
+    
+    /**
+     * Runs an auto-committed write, such as a repository save outside a transaction, that records
+     * its deltas before returning. The write and the recording hold the commit gate together, so
+     * a reconcile cannot count the new rows before their deltas are added.
+     */
+    public <T> T gated(Supplier<T> write) {
+        commitGate.readLock().lock();
+        try {
+            return write.get();
+        } finally {
+            commitGate.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Deltas recorded inside a transaction only count once it commits. Outside one the rows are
+     * already committed, so callers wrap the write in {@link #gated}.
+     */
+    private void record(Long eventId, int photos, int faces) {
+        if (photos == 0 && faces == 0) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                private boolean gated;
+                
+                @Override
+                public void beforeCommit(boolean readOnly) {
+                    commitGate.readLock().lock();
+                    gated = true;
+                }
+                
+                @Override
+                public void afterCommit() {
+                    add(eventId, photos, faces);
+                }
+                
+                @Override
+                public void afterCompletion(int status) {
+                    if (gated) {
+                        gated = false;
+                        commitGate.readLock().unlock();
+                    }
+                }
+            });
+        } else {
+            commitGate.readLock().lock();
+            try {
+                add(eventId, photos, faces);
+            } finally {
+                commitGate.readLock().unlock();
+            }
+        }
+    }
+    
+    private void add(Long eventId, long photos, long faces) {
+        Deltas deltas = pending.computeIfAbsent(eventId, id -> new Deltas());
+        deltas.photos.add(photos);
+        deltas.faces.add(faces);
+    }
+    
+    @Scheduled(fixedDelayString = "${ifoto.counters.flush-interval:2000}")
+    public void flush() {
+        flushLock.lock();
+        try {
+            flushPending();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+    
+    /**
+     * Also writes gallery changes that altered no count, as a version increment without deltas
+     */
+    private void flushPending() {
+        pending.forEach(this::flushEvent);
+        for (Long eventId : galleryVersionService.changedEvents()) {
+            flushEvent(eventId, pending.get(eventId));
+        }
+    }
+    
+    private void flushEvent(Long eventId, Deltas deltas) {
+        long photos = deltas != null ? deltas.photos.sumThenReset() : 0;
+        long faces = deltas != null ? deltas.faces.sumThenReset() : 0;
+        boolean changed = galleryVersionService.takeChange(eventId);
+        if (photos == 0 && faces == 0 && !changed) {
+            return;
+        }
+        try {
+            eventRepository.incrementCounters(eventId, (int) photos, (int) faces);
+            galleryVersionService.evict(eventId);
+            flushes.increment();
+        } catch (Exception e) {
+            // Keep the deltas for the next flush
+            if (deltas != null) {
+                deltas.photos.add(photos);
+                deltas.faces.add(faces);
+            }
+            galleryVersionService.bump(eventId);
+            flushFailures.increment();
+            log.error("Failed to flush counters for event {}: {}", eventId, e.getMessage());
+        }
+    }
+    
+    /**
+     * Drifted events are found from a snapshot without any lock; an event whose deltas are still
+     * in memory looks drifted there, and one whose stored counts match may still be off by its
+     * unflushed deltas, so both are repaired. Each chunk flushes its events first so deltas
+     * already applied in memory are not counted twice, and keeps recording transactions from
+     * committing until its true counts are written.
+     */
+    @Scheduled(
+            initialDelayString = "${ifoto.counters.reconcile-initial-delay:60000}",
+            fixedDelayString = "${ifoto.counters.reconcile-interval:3600000}")
+    public void reconcile() {
+        Set<Long> candidates;
+        try {
+            candidates = new TreeSet<>(eventRepository.findEventIdsWithDriftedCounters());
+        } catch (Exception e) {
+            log.error("Failed to find drifted event counters: {}", e.getMessage(), e);
+            return;
+        }
+        pending.forEach((eventId, deltas) -> {
+            if (deltas.photos.sum() != 0 || deltas.faces.sum() != 0) {
+                candidates.add(eventId);
+            }
+        });
+        
+        List<Long> ids = new ArrayList<>(candidates);
+        int drift = 0;
+        for (int from = 0; from < ids.size(); from += reconcileChunk) {
+            List<Long> chunk = ids.subList(from, Math.min(from + reconcileChunk, ids.size()));
+            try {
+                drift += reconcileChunk(chunk);
+            } catch (Exception e) {
+                log.error("Failed to reconcile counters of events {}: {}", chunk, e.getMessage(), e);
+            }
+        }
+        lastReconcileDrift = drift;
+        if (drift > 0) {
+            log.warn("Reconciled photo and face counters of {} events", drift);
+        }
+    }
+    
+    private int reconcileChunk(List<Long> eventIds) {
+        commitGate.writeLock().lock();
+        flushLock.lock();
+        try {
+            for (Long eventId : eventIds) {
+                Deltas deltas = pending.get(eventId);
+                if (deltas != null) {
+                    flushEvent(eventId, deltas);
+                }
+            }
+            int drifted = eventRepository.reconcileCounters(eventIds);
+            eventIds.forEach(galleryVersionService::evict);
+            return drifted;
+        } finally {
+            flushLock.unlock();
+            commitGate.writeLock().unlock();
+        }
+    }
+    
+    public Map<String, Object> getStats() {
+        long pendingPhotos = 0;
+        long pendingFaces = 0;
+        for (Deltas deltas : pending.values()) {
+            pendingPhotos += deltas.photos.sum();
+            pendingFaces += deltas.faces.sum();
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("trackedEvents", pending.size());
+        stats.put("pendingPhotoDelta", pendingPhotos);
+        stats.put("pendingFaceDelta", pendingFaces);
+        stats.put("flushes", flushes.sum());
+        stats.put("flushFailures", flushFailures.sum());
+        stats.put("lastReconcileDrift", lastReconcileDrift);
+        return stats;
+    }
+}
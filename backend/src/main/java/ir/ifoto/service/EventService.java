@@ -1,24 +1,55 @@
 package ir.ifoto.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import ir.ifoto.dto.EventPageResponse;
 import ir.ifoto.dto.EventRequest;
 import ir.ifoto.dto.EventResponse;
 import ir.ifoto.model.Event;
 import ir.ifoto.model.User;
 import ir.ifoto.repository.EventRepository;
 import ir.ifoto.repository.UserRepository;
-import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.time.Duration;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
 
 @Service
-@RequiredArgsConstructor
 public class EventService {
     
     private final EventRepository eventRepository;
     private final UserRepository userRepository;
+    private final int maxPageSize;
+    
+    /**
+     * Pages of the public listing, served to every anonymous landing page visit.
+     * Cleared when an event is created or updated; photo counts may lag by up to the TTL.
+     */
+    private final Cache<PageRequest, EventPageResponse> publicEventsCache;
+    
+    public EventService(
+            EventRepository eventRepository,
+            UserRepository userRepository,
+            @Value("${ifoto.events.public-cache.ttl:60s}") Duration publicCacheTtl,
+            @Value("${ifoto.events.max-page-size:100}") int maxPageSize) {
+        this.eventRepository = eventRepository;
+        this.userRepository = userRepository;
+        this.maxPageSize = maxPageSize;
+        this.publicEventsCache = Caffeine.newBuilder()
+                .maximumSize(1000)
+                .expireAfterWrite(publicCacheTtl)
+                .recordStats()
+                .build();
+    }
     
     @Transactional
     public EventResponse createEvent(EventRequest request, String username) {
@@ -44,27 +75,35 @@ public class EventService {
         event.setPhotographer(photographer);
         
         event = eventRepository.save(event);
+        invalidatePublicEventsAfterCommit();
         return mapToResponse(event);
     }
     
     public EventResponse getEventBySlug(String slug) {
-        Event event = eventRepository.findBySlug(slug)
+        return eventRepository.findResponseBySlug(slug)
                 .orElseThrow(() -> new ir.ifoto.exception.ResourceNotFoundException("Event not found"));
-        return mapToResponse(event);
     }
     
-    public List<EventResponse> getPublishedEvents() {
-        return eventRepository.findByPublishedTrue().stream()
-                .map(this::mapToResponse)
-                .collect(Collectors.toList());
+    /**
+     * Published events, newest first. Each page is one projection query joined with the
+     * photographer, and is cached in memory.
+     */
+    public EventPageResponse getPublishedEvents(int page, int size) {
+        PageRequest pageRequest = PageRequest.of(Math.max(page, 0), Math.max(1, Math.min(size, maxPageSize)));
+        return publicEventsCache.get(pageRequest, key -> {
+            Page<EventResponse> events = eventRepository.findPublishedResponses(key);
+            return new EventPageResponse(
+                    events.getContent(),
+                    events.getTotalElements(),
+                    events.getTotalPages(),
+                    key.getPageNumber(),
+                    key.getPageSize()
+            );
+        });
     }
     
     public List<EventResponse> getMyEvents(String username) {
-        User photographer = userRepository.findByUsername(username)
-                .orElseThrow(() -> new ir.ifoto.exception.ResourceNotFoundException("User not found"));
-        return eventRepository.findByPhotographerId(photographer.getId()).stream()
-                .map(this::mapToResponse)
-                .collect(Collectors.toList());
+        return eventRepository.findResponsesByPhotographerUsername(username);
     }
     
     @Transactional
@@ -86,9 +125,35 @@ public class EventService {
         }
         
         event = eventRepository.save(event);
+        invalidatePublicEventsAfterCommit();
         return mapToResponse(event);
     }
     
+    /**
+     * Clearing again after commit keeps a concurrent reader from re-caching the old rows
+     */
+    private void invalidatePublicEventsAfterCommit() {
+        publicEventsCache.invalidateAll();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    publicEventsCache.invalidateAll();
+                }
+            });
+        }
+    }
+    
+    public Map<String, Object> getPublicCacheStats() {
+        CacheStats cacheStats = publicEventsCache.stats();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", publicEventsCache.estimatedSize());
+        stats.put("hits", cacheStats.hitCount());
+        stats.put("misses", cacheStats.missCount());
+        stats.put("hitRate", Math.round(cacheStats.hitRate() * 1000) / 1000.0);
+        return stats;
+    }
+    
     private EventResponse mapToResponse(Event event) {
         EventResponse response = new EventResponse();
         response.setId(event.getId());
@@ -103,9 +168,11 @@ public class EventService {
         response.setSponsorLogoUrl(event.getSponsorLogoUrl());
         response.setPublished(event.getPublished());
         response.setPhotoCount(event.getPhotoCount());
+        response.setFaceCount(event.getFaceCount());
         response.setPhotographerName(event.getPhotographer() != null ? event.getPhotographer().getFullName() : null);
         response.setCreatedAt(event.getCreatedAt());
         response.setUpdatedAt(event.getUpdatedAt());
+        response.setPhotographerUpdatedAt(event.getPhotographer() != null ? event.getPhotographer().getUpdatedAt() : null);
         return response;
     }
 }
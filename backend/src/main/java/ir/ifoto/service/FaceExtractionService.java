@@ -0,0 +1,296 @@
+package ir.ifoto.service;
+
+import ir.ifoto.client.FaceServiceClient;
+import ir.ifoto.dto.ExtractionProgressResponse;
+import ir.ifoto.exception.FaceServiceUnavailableException;
+import ir.ifoto.exception.ResourceNotFoundException;
+import ir.ifoto.model.FaceEmbedding;
+import ir.ifoto.model.Photo;
+import ir.ifoto.repository.EventRepository;
+import ir.ifoto.repository.FaceEmbeddingRepository;
+import ir.ifoto.repository.PhotoRepository;
+import ir.ifoto.search.Embeddings;
+import ir.ifoto.search.FaceIndexService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Background face extraction pipeline.
+ * <p>
+ * Uploads only persist the photo with {@code processed=false}; the photos table is the durable queue.
+ * Workers send a bounded-resolution copy of the stored original to the face service outside of
+ * any transaction, so no database connection is held during inference. Returned bounding boxes
+ * are mapped back to original coordinates before the faces are stored. Failures are retried with
+ * exponential backoff until {@code ifoto.face-extraction.max-attempts} is reached.
+ */
+@Slf4j
+@Service
+public class FaceExtractionService {
+
+    private final PhotoRepository photoRepository;
+    private final EventRepository eventRepository;
+    private final FaceEmbeddingRepository faceEmbeddingRepository;
+    private final FaceServiceClient faceServiceClient;
+    private final StorageService storageService;
+    private final ImageResizeService imageResizeService;
+    private final EventCounterService eventCounterService;
+    private final GalleryVersionService galleryVersionService;
+    private final FaceIndexService faceIndexService;
+    private final TransactionTemplate transactionTemplate;
+    private final ThreadPoolTaskExecutor executor;
+    private final int maxAttempts;
+    private final int batchSize;
+    private final Duration initialBackoff;
+    private final Duration maxBackoff;
+
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+    private final LongAdder extractions = new LongAdder();
+    private final LongAdder totalExtractionNanos = new LongAdder();
+
+    public FaceExtractionService(
+            PhotoRepository photoRepository,
+            EventRepository eventRepository,
+            FaceEmbeddingRepository faceEmbeddingRepository,
+            FaceServiceClient faceServiceClient,
+            StorageService storageService,
+            ImageResizeService imageResizeService,
+            EventCounterService eventCounterService,
+            GalleryVersionService galleryVersionService,
+            FaceIndexService faceIndexService,
+            PlatformTransactionManager transactionManager,
+            @Qualifier("faceExtractionExecutor") ThreadPoolTaskExecutor executor,
+            @Value("${ifoto.face-extraction.max-attempts:5}") int maxAttempts,
+            @Value("${ifoto.face-extraction.batch-size:50}") int batchSize,
+            @Value("${ifoto.face-extraction.initial-backoff:10s}") Duration initialBackoff,
+            @Value("${ifoto.face-extraction.max-backoff:15m}") Duration maxBackoff) {
+        this.photoRepository = photoRepository;
+        this.eventRepository = eventRepository;
+        this.faceEmbeddingRepository = faceEmbeddingRepository;
+        this.faceServiceClient = faceServiceClient;
+        this.storageService = storageService;
+        this.imageResizeService = imageResizeService;
+        this.eventCounterService = eventCounterService;
+        this.galleryVersionService = galleryVersionService;
+        this.faceIndexService = faceIndexService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.executor = executor;
+        this.maxAttempts = maxAttempts;
+        this.batchSize = batchSize;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+    /**
+     * Hand a freshly uploaded photo to the workers. If the pool is saturated the photo
+     * stays pending and is picked up by the next poll.
+     */
+    public void enqueue(Long photoId) {
+        submit(photoId);
+    }
+
+    @Scheduled(
+            initialDelayString = "${ifoto.face-extraction.poll-interval:5000}",
+            fixedDelayString = "${ifoto.face-extraction.poll-interval:5000}")
+    public void dispatchPending() {
+        int capacity = executor.getQueueCapacity() - executor.getQueueSize();
+        if (capacity <= 0) {
+            return;
+        }
+
+        List<Long> dueIds = photoRepository.findIdsDueForExtraction(
+                maxAttempts, LocalDateTime.now(), PageRequest.of(0, Math.min(batchSize, capacity) + inFlight.size()));
+
+        int submitted = 0;
+        for (Long photoId : dueIds) {
+            if (submitted >= capacity) {
+                break;
+            }
+            if (submit(photoId)) {
+                submitted++;
+            }
+        }
+
+        if (submitted > 0) {
+            log.debug("Dispatched {} pending photos for face extraction", submitted);
+        }
+    }
+
+    private boolean submit(Long photoId) {
+        if (!inFlight.add(photoId)) {
+            return false;
+        }
+        try {
+            executor.execute(() -> process(photoId));
+            return true;
+        } catch (TaskRejectedException e) {
+            inFlight.remove(photoId);
+            return false;
+        }
+    }
+
+    void process(Long photoId) {
+        try {
+            Photo photo = photoRepository.findById(photoId).orElse(null);
+            if (photo == null || Boolean.TRUE.equals(photo.getProcessed())) {
+                return;
+            }
+
+            try {
+                long extractionStart = System.nanoTime();
+                Resource original = storageService.loadAsResource(
+                        photo.getStoragePath(), photo.getFileName(), photo.getFileSize());
+                ImageResizeService.InferenceImage image = imageResizeService.prepareForInference(original);
+                FaceServiceClient.FaceExtractionResponse faceResponse =
+                        faceServiceClient.extractEmbeddings(image.resource(), photoId, photo.getEvent().getId());
+                extractions.increment();
+                totalExtractionNanos.add(System.nanoTime() - extractionStart);
+
+                int faceCount = saveFaces(photoId, photo.getEvent().getId(), image, faceResponse);
+                galleryVersionService.bump(photo.getEvent().getId());
+
+                log.info("Extracted {} faces from photo {}", faceCount, photoId);
+
+            } catch (FaceServiceUnavailableException e) {
+                // Turned away before reaching the face service, so this does not use up an attempt
+                photoRepository.deferExtraction(photoId, LocalDateTime.now().plus(e.getRetryAfter()));
+                log.debug("Deferred face extraction for photo {}: {}", photoId, e.getMessage());
+
+            } catch (Exception e) {
+                int attempt = photo.getExtractionAttempts() + 1;
+                LocalDateTime nextAttemptAt = LocalDateTime.now().plus(backoff(attempt));
+                photoRepository.markExtractionFailed(photoId, nextAttemptAt, truncate(e.getMessage()));
+
+                if (attempt >= maxAttempts) {
+                    log.error("Giving up face extraction for photo {} after {} attempts: {}", photoId, attempt, e.getMessage());
+                } else {
+                    log.warn("Face extraction failed for photo {} (attempt {}), retrying at {}: {}",
+                            photoId, attempt, nextAttemptAt, e.getMessage());
+                }
+            }
+
+        } catch (Exception e) {
+            log.error("Error processing photo {}: {}", photoId, e.getMessage(), e);
+        } finally {
+            inFlight.remove(photoId);
+        }
+    }
+
+    /**
+     * Replace the stored faces of a photo and mark it processed, in one transaction
+     */
+    private int saveFaces(Long photoId, Long eventId, ImageResizeService.InferenceImage image,
+                          FaceServiceClient.FaceExtractionResponse faceResponse) {
+        List<FaceServiceClient.EmbeddingData> embeddings =
+                faceResponse != null && faceResponse.embeddings() != null ? faceResponse.embeddings() : List.of();
+
+        return transactionTemplate.execute(status -> {
+            Photo photoRef = photoRepository.getReferenceById(photoId);
+            List<FaceEmbedding> faces = new ArrayList<>(embeddings.size());
+
+            for (FaceServiceClient.EmbeddingData data : embeddings) {
+                FaceEmbedding face = new FaceEmbedding();
+                face.setPhoto(photoRef);
+                face.setVectorId(data.vectorId());
+                face.setFaceIndex(data.faceIndex());
+                face.setConfidence(data.confidence());
+                if (data.embedding() != null) {
+                    face.setEmbedding(Embeddings.toBytes(data.embedding()));
+                    face.setQuantizedEmbedding(Embeddings.quantize(Embeddings.normalize(data.embedding().clone())));
+                }
+
+                List<Integer> bbox = image.toOriginal(data.bbox());
+                if (bbox != null && bbox.size() == 4) {
+                    face.setBoundingBoxX(bbox.get(0));
+                    face.setBoundingBoxY(bbox.get(1));
+                    face.setBoundingBoxWidth(bbox.get(2) - bbox.get(0));
+                    face.setBoundingBoxHeight(bbox.get(3) - bbox.get(1));
+                }
+                faces.add(face);
+            }
+
+            int replaced = faceEmbeddingRepository.deleteByPhotoId(photoId);
+            faceEmbeddingRepository.saveAll(faces);
+            eventCounterService.facesChanged(eventId, faces.size() - replaced);
+            faceIndexService.replacePhoto(eventId, photoId, faces);
+            photoRepository.markExtracted(photoId, faces.size(),
+                    image.originalWidth(), image.originalHeight(), (float) image.scale());
+            return faces.size();
+        });
+    }
+
+    /**
+     * Average time to load, downscale and run inference on one photo
+     */
+    public long averageExtractionNanos() {
+        long count = extractions.sum();
+        return count > 0 ? totalExtractionNanos.sum() / count : 0;
+    }
+
+    private Duration backoff(int attempt) {
+        Duration delay = initialBackoff.multipliedBy(1L << Math.min(attempt - 1, 20));
+        return delay.compareTo(maxBackoff) > 0 ? maxBackoff : delay;
+    }
+
+    private String truncate(String message) {
+        if (message == null) {
+            return null;
+        }
+        return message.length() > 500 ? message.substring(0, 500) : message;
+    }
+
+    @Transactional(readOnly = true)
+    public ExtractionProgressResponse getProgress(Long eventId) {
+        if (!eventRepository.existsById(eventId)) {
+            throw new ResourceNotFoundException("Event not found with id: " + eventId);
+        }
+
+        long total = photoRepository.countByEventId(eventId);
+        long processed = photoRepository.countByEventIdAndProcessedTrue(eventId);
+        long failed = photoRepository.countByEventIdAndProcessedFalseAndExtractionAttemptsGreaterThanEqual(eventId, maxAttempts);
+        long pending = Math.max(0, total - processed - failed);
+        double percent = total == 0 ? 100.0 : Math.round(processed * 1000.0 / total) / 10.0;
+
+        return new ExtractionProgressResponse(eventId, total, processed, pending, failed, percent);
+    }
+
+    /**
+     * Reset photos of an event that exhausted their attempts so the workers pick them up again
+     */
+    @Transactional
+    public int retryFailed(Long eventId) {
+        if (!eventRepository.existsById(eventId)) {
+            throw new ResourceNotFoundException("Event not found with id: " + eventId);
+        }
+
+        List<Photo> failed = photoRepository.findByEventIdAndProcessedFalse(eventId).stream()
+                .filter(photo -> photo.getExtractionAttempts() >= maxAttempts)
+                .toList();
+
+        failed.forEach(photo -> {
+            photo.setExtractionAttempts(0);
+            photo.setNextExtractionAt(null);
+        });
+        photoRepository.saveAll(failed);
+
+        log.info("Re-queued {} photos of event {} for face extraction", failed.size(), eventId);
+        return failed.size();
+    }
+}
@@ -1,100 +1,610 @@
 package ir.ifoto.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import ir.ifoto.client.FaceServiceClient;
+import ir.ifoto.dto.BatchFaceSearchResponse;
 import ir.ifoto.dto.FaceSearchResponse;
+import ir.ifoto.exception.BadRequestException;
+import ir.ifoto.exception.FaceServiceUnavailableException;
+import ir.ifoto.exception.NoFaceDetectedException;
 import ir.ifoto.exception.ResourceNotFoundException;
-import ir.ifoto.model.Event;
-import ir.ifoto.model.Photo;
 import ir.ifoto.repository.EventRepository;
+import ir.ifoto.repository.PhotoPaths;
 import ir.ifoto.repository.PhotoRepository;
-import lombok.RequiredArgsConstructor;
+import ir.ifoto.search.FaceIndexService;
+import ir.ifoto.search.IndexMatch;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class FaceSearchService {
     
     private final FaceServiceClient faceServiceClient;
     private final PhotoRepository photoRepository;
     private final EventRepository eventRepository;
     private final StorageService storageService;
+    private final ImageResizeService imageResizeService;
+    private final FaceIndexService faceIndexService;
+    private final ThreadPoolTaskExecutor searchExecutor;
+    private final ThreadPoolTaskExecutor urlExecutor;
+    private final int batchMaxImages;
+    private final int batchMaxFaces;
+    private final int urlParallelism;
+    private final Duration urlDeadline;
     
-    @Transactional(readOnly = true)
+    /**
+     * Query faces by SHA-256 of the uploaded image. Guests re-run the same selfie while
+     * tuning threshold or limit; a hit skips detection and embedding in the face service.
+     * Embeddings do not depend on the event, so a hit also serves searches in other events.
+     */
+    private final Cache<String, List<QueryFace>> queryEmbeddings;
+    
+    private final LongAdder searches = new LongAdder();
+    private final LongAdder totalFaceServiceNanos = new LongAdder();
+    private final LongAdder totalDbNanos = new LongAdder();
+    private final LongAccumulator maxDbNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder totalEmbedNanos = new LongAdder();
+    private final LongAdder indexSearches = new LongAdder();
+    private final LongAdder faceServiceSearches = new LongAdder();
+    private final LongAdder batchSearches = new LongAdder();
+    private final LongAdder batchQueryFaces = new LongAdder();
+    private final LongAdder totalBatchNanos = new LongAdder();
+    private final LongAdder urlResolutions = new LongAdder();
+    private final LongAdder totalUrlNanos = new LongAdder();
+    private final LongAdder urlDeadlineExceeded = new LongAdder();
+    private final LongAdder urlRejected = new LongAdder();
+    private final LongAdder droppedMatches = new LongAdder();
+    
+    public FaceSearchService(
+            FaceServiceClient faceServiceClient,
+            PhotoRepository photoRepository,
+            EventRepository eventRepository,
+            StorageService storageService,
+            ImageResizeService imageResizeService,
+            FaceIndexService faceIndexService,
+            @Qualifier("faceSearchExecutor") ThreadPoolTaskExecutor searchExecutor,
+            @Qualifier("urlSigningExecutor") ThreadPoolTaskExecutor urlExecutor,
+            @Value("${ifoto.face-search.query-cache.ttl:30m}") Duration queryCacheTtl,
+            @Value("${ifoto.face-search.query-cache.max-size:10000}") long queryCacheMaxSize,
+            @Value("${ifoto.face-search.batch.max-images:10}") int batchMaxImages,
+            @Value("${ifoto.face-search.batch.max-faces:20}") int batchMaxFaces,
+            @Value("${ifoto.face-search.enrichment.parallelism:4}") int urlParallelism,
+            @Value("${ifoto.face-search.enrichment.deadline:2s}") Duration urlDeadline) {
+        this.faceServiceClient = faceServiceClient;
+        this.photoRepository = photoRepository;
+        this.eventRepository = eventRepository;
+        this.storageService = storageService;
+        this.imageResizeService = imageResizeService;
+        this.faceIndexService = faceIndexService;
+        this.searchExecutor = searchExecutor;
+        this.urlExecutor = urlExecutor;
+        this.batchMaxImages = batchMaxImages;
+        this.batchMaxFaces = batchMaxFaces;
+        this.urlParallelism = Math.max(1, urlParallelism);
+        this.urlDeadline = urlDeadline;
+        this.queryEmbeddings = Caffeine.newBuilder()
+                .maximumSize(queryCacheMaxSize)
+                .expireAfterWrite(queryCacheTtl)
+                .recordStats()
+                .build();
+    }
+    
+    /**
+     * Not transactional: a read-only transaction here would hold a connection for the whole
+     * face service round trip. Matches are resolved with a single projection query.
+     */
     public FaceSearchResponse searchByFace(Long eventId, MultipartFile file, Integer limit, Float threshold) {
         log.info("Searching faces in event {} with limit {} and threshold {}", eventId, limit, threshold);
         
+        long dbStart = System.nanoTime();
+        
         // Validate event exists
-        Event event = eventRepository.findById(eventId)
-                .orElseThrow(() -> new ResourceNotFoundException("Event not found with id: " + eventId));
+        if (!eventRepository.existsById(eventId)) {
+            throw new ResourceNotFoundException("Event not found with id: " + eventId);
+        }
+        
+        long dbNanos = System.nanoTime() - dbStart;
         
         // Validate file
         if (file.isEmpty()) {
-            throw new IllegalArgumentException("File cannot be empty");
+            throw new BadRequestException("File cannot be empty");
         }
         
         try {
-            // Search for similar faces using Face Service
-            FaceServiceClient.FaceSearchResult searchResult = faceServiceClient.searchSimilarFaces(
-                    file, 
-                    eventId, 
-                    limit != null ? limit : 50,
-                    threshold != null ? threshold : 0.6f
-            );
+            // Embed the query only on a cache miss, then search the in-process index when it
+            // can serve the event and the face service otherwise
+            long embedStart = System.nanoTime();
+            float[] embedding = queryEmbedding(file);
+            int maxResults = limit != null ? limit : 50;
+            float minSimilarity = threshold != null ? threshold : 0.6f;
+            
+            long lookupStart = System.nanoTime();
+            List<Hit> hits = lookup(eventId, embedding, maxResults, minSimilarity);
+            long lookupEnd = System.nanoTime();
+            long faceServiceNanos = lookupEnd - embedStart;
+            
+            // Resolve all matched photos in one query
+            dbStart = System.nanoTime();
+            Map<Long, PhotoPaths> photos = resolvePhotos(eventId, hits.stream()
+                    .map(Hit::photoId)
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toSet()));
+            dbNanos += System.nanoTime() - dbStart;
             
-            // Convert to response format
+            long urlStart = System.nanoTime();
+            Map<Long, PhotoUrls> urls = resolveUrls(photos.values());
+            long urlNanos = System.nanoTime() - urlStart;
+            
+            // Convert to response format, keeping the similarity order
             List<FaceSearchResponse.PhotoMatch> matches = new ArrayList<>();
             
-            for (FaceServiceClient.FaceMatch match : searchResult.matches()) {
-                // Get photo details
-                Photo photo = photoRepository.findById(match.photoId())
-                        .orElse(null);
+            for (Hit hit : hits) {
+                PhotoPaths photo = photos.get(hit.photoId());
+                PhotoUrls photoUrls = urls.get(hit.photoId());
                 
-                if (photo != null) {
-                    // Generate photo URL
-                    String photoUrl = storageService.getUrl(photo.getStoragePath());
-                    String thumbnailUrl = photo.getThumbnailPath() != null 
-                            ? storageService.getUrl(photo.getThumbnailPath())
-                            : null;
-                    
-                    // Convert bbox to FaceLocation
-                    FaceSearchResponse.FaceLocation faceLocation = null;
-                    if (match.bbox() != null && match.bbox().size() == 4) {
-                        List<Integer> bbox = match.bbox();
-                        faceLocation = new FaceSearchResponse.FaceLocation(
-                                bbox.get(0),  // x
-                                bbox.get(1),  // y
-                                bbox.get(2) - bbox.get(0),  // width
-                                bbox.get(3) - bbox.get(1)   // height
-                        );
-                    }
-                    
+                if (photo != null && photoUrls != null) {
                     matches.add(new FaceSearchResponse.PhotoMatch(
                             photo.getId(),
-                            photoUrl,
-                            thumbnailUrl,
-                            match.similarity(),
-                            faceLocation
+                            photoUrls.photoUrl(),
+                            photoUrls.thumbnailUrl(),
+                            hit.similarity(),
+                            hit.location(photo)
                     ));
                 }
             }
             
-            log.info("Found {} matching photos", matches.size());
+            recordSearch(faceServiceNanos, dbNanos);
+            Map<String, Double> timings = new LinkedHashMap<>();
+            timings.put("embed", millis(lookupStart - embedStart));
+            timings.put("lookup", millis(lookupEnd - lookupStart));
+            timings.put("db", millis(dbNanos));
+            timings.put("urls", millis(urlNanos));
+            log.info("Found {} matching photos (embed {} ms, lookup {} ms, db {} ms, urls {} ms)",
+                    matches.size(), timings.get("embed"), timings.get("lookup"), timings.get("db"), timings.get("urls"));
             
-            return new FaceSearchResponse(matches, matches.size());
+            return new FaceSearchResponse(matches, matches.size(), timings);
             
+        } catch (FaceServiceUnavailableException | NoFaceDetectedException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Error searching faces: {}", e.getMessage(), e);
             throw new RuntimeException("Failed to search faces", e);
         }
     }
     
+    /**
+     * Searches for several faces at once: every face in each image with {@code allFaces},
+     * otherwise the first face of each image. Each image is embedded once, the per-face
+     * lookups run concurrently, and matches are merged per photo and resolved in one query.
+     * Photos are ranked by their best similarity to any searched face, ties going to photos
+     * showing more of the searched faces, and cut to {@code limit} before they are resolved.
+     */
+    public BatchFaceSearchResponse searchByFaces(Long eventId, List<MultipartFile> files, boolean allFaces,
+                                                 Integer limit, Float threshold) {
+        log.info("Batch searching {} images in event {} (all faces: {})", files.size(), eventId, allFaces);
+        
+        long start = System.nanoTime();
+        if (!eventRepository.existsById(eventId)) {
+            throw new ResourceNotFoundException("Event not found with id: " + eventId);
+        }
+        
+        List<MultipartFile> images = files.stream().filter(file -> !file.isEmpty()).toList();
+        if (images.isEmpty()) {
+            throw new BadRequestException("At least one query image is required");
+        }
+        if (images.size() > batchMaxImages) {
+            throw new BadRequestException("At most " + batchMaxImages + " query images per search");
+        }
+        int maxResults = limit != null ? limit : 50;
+        float minSimilarity = threshold != null ? threshold : 0.6f;
+        
+        // Embed every image once, concurrently
+        List<CompletableFuture<List<QueryFace>>> embeds = images.stream()
+                .map(file -> CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return queryFaces(file, allFaces);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, searchExecutor))
+                .toList();
+        
+        List<BatchFaceSearchResponse.QueryFace> queries = new ArrayList<>();
+        List<BatchFaceSearchResponse.SkippedFile> skipped = new ArrayList<>();
+        List<float[]> embeddings = new ArrayList<>();
+        for (int i = 0; i < images.size(); i++) {
+            String fileName = images.get(i).getOriginalFilename();
+            List<QueryFace> faces;
+            try {
+                faces = embeds.get(i).join();
+            } catch (CompletionException e) {
+                // The face service rejects images without a face; anything else fails the search
+                if (e.getCause() instanceof FaceServiceUnavailableException unavailable) {
+                    throw unavailable;
+                }
+                if (!(e.getCause() instanceof NoFaceDetectedException)) {
+                    log.error("Error embedding query image {}: {}", fileName, e.getMessage(), e);
+                    throw new RuntimeException("Failed to search faces", e);
+                }
+                log.info("Skipping query image {}: {}", fileName, e.getCause().getMessage());
+                skipped.add(new BatchFaceSearchResponse.SkippedFile(fileName, "No face detected in the image"));
+                continue;
+            }
+            for (int f = 0; f < faces.size(); f++) {
+                if (embeddings.size() == batchMaxFaces) {
+                    log.warn("Batch search capped at {} query faces, ignoring the rest of {}", batchMaxFaces, fileName);
+                    break;
+                }
+                QueryFace face = faces.get(f);
+                queries.add(new BatchFaceSearchResponse.QueryFace(
+                        embeddings.size(), fileName, f, queryLocation(face.bbox()), 0));
+                embeddings.add(face.embedding());
+            }
+        }
+        if (embeddings.isEmpty()) {
+            throw new NoFaceDetectedException("No face detected in the query images");
+        }
+        
+        try {
+            // Fan out the similarity lookups, then merge per photo
+            List<CompletableFuture<List<Hit>>> lookups = embeddings.stream()
+                    .map(embedding -> CompletableFuture.supplyAsync(
+                            () -> lookup(eventId, embedding, maxResults, minSimilarity), searchExecutor))
+                    .toList();
+            
+            Map<Long, MergedMatch> merged = new HashMap<>();
+            for (int q = 0; q < lookups.size(); q++) {
+                for (Hit hit : lookups.get(q).join()) {
+                    if (hit.photoId() != null) {
+                        merged.computeIfAbsent(hit.photoId(), id -> new MergedMatch()).add(q, hit);
+                    }
+                }
+            }
+            
+            // Best score first, ties to photos matching more query faces; only the top
+            // results are resolved and signed
+            List<Map.Entry<Long, MergedMatch>> ranked = merged.entrySet().stream()
+                    .sorted(Comparator
+                            .comparingDouble((Map.Entry<Long, MergedMatch> e) -> e.getValue().best.similarity())
+                            .reversed()
+                            .thenComparing(e -> e.getValue().queries.size(), Comparator.reverseOrder()))
+                    .limit(maxResults)
+                    .toList();
+            
+            long dbStart = System.nanoTime();
+            Map<Long, PhotoPaths> photos = resolvePhotos(eventId, ranked.stream().map(Map.Entry::getKey).toList());
+            long dbNanos = System.nanoTime() - dbStart;
+            
+            long urlStart = System.nanoTime();
+            Map<Long, PhotoUrls> urls = resolveUrls(photos.values());
+            long urlNanos = System.nanoTime() - urlStart;
+            
+            List<BatchFaceSearchResponse.PhotoMatch> matches = new ArrayList<>();
+            for (Map.Entry<Long, MergedMatch> entry : ranked) {
+                PhotoPaths photo = photos.get(entry.getKey());
+                PhotoUrls photoUrls = urls.get(entry.getKey());
+                if (photo == null || photoUrls == null) {
+                    continue;
+                }
+                MergedMatch match = entry.getValue();
+                for (Integer q : match.queries) {
+                    BatchFaceSearchResponse.QueryFace query = queries.get(q);
+                    query.setMatches(query.getMatches() + 1);
+                }
+                matches.add(new BatchFaceSearchResponse.PhotoMatch(
+                        photo.getId(),
+                        photoUrls.photoUrl(),
+                        photoUrls.thumbnailUrl(),
+                        match.best.similarity(),
+                        match.best.location(photo),
+                        List.copyOf(match.queries)));
+            }
+            long nanos = System.nanoTime() - start;
+            batchSearches.increment();
+            batchQueryFaces.add(embeddings.size());
+            totalBatchNanos.add(nanos);
+            Map<String, Double> timings = new LinkedHashMap<>();
+            timings.put("search", millis(dbStart - start));
+            timings.put("db", millis(dbNanos));
+            timings.put("urls", millis(urlNanos));
+            log.info("Found {} matching photos for {} query faces ({} ms, db {} ms, urls {} ms)",
+                    matches.size(), embeddings.size(), nanos / 1_000_000, timings.get("db"), timings.get("urls"));
+            
+            return new BatchFaceSearchResponse(queries, skipped, matches, matches.size(), timings);
+            
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof FaceServiceUnavailableException unavailable) {
+                throw unavailable;
+            }
+            log.error("Error batch searching faces: {}", e.getMessage(), e);
+            throw new RuntimeException("Failed to search faces", e);
+        } catch (Exception e) {
+            log.error("Error batch searching faces: {}", e.getMessage(), e);
+            throw new RuntimeException("Failed to search faces", e);
+        }
+    }
+    
+    /**
+     * Looks a face up in the in-process index when it can serve the event and the face service otherwise
+     */
+    private List<Hit> lookup(Long eventId, float[] embedding, int maxResults, float minSimilarity) {
+        Optional<List<IndexMatch>> indexed = faceIndexService.search(eventId, embedding, maxResults, minSimilarity);
+        if (indexed.isPresent()) {
+            indexSearches.increment();
+            return indexed.get().stream()
+                    .map(match -> new Hit(new FaceServiceClient.FaceMatch(null, match.similarity(),
+                            match.photoId(), eventId, match.faceIndex(), null, null), match))
+                    .toList();
+        }
+        faceServiceSearches.increment();
+        FaceServiceClient.FaceSearchResult searchResult = faceServiceClient.searchByVector(
+                embedding, eventId, maxResults, minSimilarity);
+        List<FaceServiceClient.FaceMatch> matches = searchResult != null && searchResult.matches() != null
+                ? searchResult.matches()
+                : List.of();
+        return matches.stream().map(match -> new Hit(match, null)).toList();
+    }
+    
+    private Map<Long, PhotoPaths> resolvePhotos(Long eventId, Collection<Long> photoIds) {
+        return photoIds.isEmpty()
+                ? Map.of()
+                : photoRepository.findByEventIdAndIdIn(eventId, photoIds).stream()
+                        .collect(Collectors.toMap(PhotoPaths::getId, Function.identity()));
+    }
+    
+    /**
+     * Signs photo and thumbnail URLs for the matched photos with a few tasks on the URL
+     * signing pool that take photos from a shared cursor, so one stuck call holds up only its
+     * own photo. Tasks still running at the deadline are interrupted; photos whose URLs failed
+     * or were not signed in time are left out of the result instead of failing the search.
+     * Nothing is signed on the caller, where a stuck call would outlast the deadline: when the
+     * pool turns tasks away, the photos left for them stay unsigned.
+     */
+    private Map<Long, PhotoUrls> resolveUrls(Collection<PhotoPaths> photos) {
+        if (photos.isEmpty()) {
+            return Map.of();
+        }
+        long start = System.nanoTime();
+        long deadline = start + urlDeadline.toNanos();
+        List<PhotoPaths> pending = List.copyOf(photos);
+        AtomicInteger cursor = new AtomicInteger();
+        Map<Long, PhotoUrls> urls = new ConcurrentHashMap<>();
+        
+        Runnable signer = () -> {
+            for (int i = cursor.getAndIncrement(); i < pending.size() && System.nanoTime() < deadline;
+                 i = cursor.getAndIncrement()) {
+                PhotoPaths photo = pending.get(i);
+                try {
+                    urls.put(photo.getId(), new PhotoUrls(
+                            storageService.getUrl(photo.getStoragePath()),
+                            photo.getThumbnailPath() != null ? storageService.getUrl(photo.getThumbnailPath()) : null));
+                } catch (RuntimeException e) {
+                    log.warn("Dropping photo {} from search results, URL signing failed: {}",
+                            photo.getId(), e.getMessage());
+                }
+            }
+        };
+        List<Future<?>> tasks = new ArrayList<>();
+        int wanted = Math.min(urlParallelism, pending.size());
+        try {
+            while (tasks.size() < wanted) {
+                tasks.add(urlExecutor.submit(signer));
+            }
+        } catch (TaskRejectedException e) {
+            urlRejected.increment();
+            log.warn("URL signing pool is full, started {} of {} signing tasks", tasks.size(), wanted);
+        }
+        
+        try {
+            for (Future<?> task : tasks) {
+                task.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            }
+        } catch (TimeoutException e) {
+            urlDeadlineExceeded.increment();
+            log.warn("URL signing missed the {} ms deadline, {} of {} photos signed",
+                    urlDeadline.toMillis(), urls.size(), pending.size());
+        } catch (ExecutionException e) {
+            log.warn("URL signing failed: {}", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            tasks.forEach(task -> task.cancel(true));
+        }
+        
+        // Tasks may still finish a photo after being cancelled, so take a snapshot
+        Map<Long, PhotoUrls> signed = Map.copyOf(urls);
+        droppedMatches.add(pending.size() - signed.size());
+        urlResolutions.increment();
+        totalUrlNanos.add(System.nanoTime() - start);
+        return signed;
+    }
+    
+    private record PhotoUrls(String photoUrl, String thumbnailUrl) {}
+    
+    private static double millis(long nanos) {
+        return Math.round(nanos / 1e5) / 10.0;
+    }
+    
+    /**
+     * A face match from either search path; indexed matches carry their own box
+     */
+    private record Hit(FaceServiceClient.FaceMatch match, IndexMatch indexed) {
+        
+        Long photoId() {
+            return match.photoId();
+        }
+        
+        Float similarity() {
+            return match.similarity();
+        }
+        
+        FaceSearchResponse.FaceLocation location(PhotoPaths photo) {
+            return indexed != null ? indexedLocation(indexed) : remoteLocation(match, photo);
+        }
+    }
+    
+    /**
+     * Best hit for a photo across query faces, and every query face that matched it
+     */
+    private static final class MergedMatch {
+        private final Set<Integer> queries = new TreeSet<>();
+        private Hit best;
+        
+        void add(int query, Hit hit) {
+            queries.add(query);
+            if (best == null || hit.similarity() > best.similarity()) {
+                best = hit;
+            }
+        }
+    }
+    
+    /**
+     * A query face, with its box in the uploaded image's coordinates
+     */
+    private record QueryFace(float[] embedding, List<Integer> bbox) {}
+    
+    /**
+     * Indexed faces already carry boxes in original photo coordinates
+     */
+    private static FaceSearchResponse.FaceLocation indexedLocation(IndexMatch match) {
+        return match.hasBox()
+                ? new FaceSearchResponse.FaceLocation(match.x(), match.y(), match.width(), match.height())
+                : null;
+    }
+    
+    /**
+     * Face service boxes are corner coordinates in the inference copy's scale
+     */
+    private static FaceSearchResponse.FaceLocation remoteLocation(FaceServiceClient.FaceMatch match, PhotoPaths photo) {
+        if (match.bbox() == null || match.bbox().size() != 4) {
+            return null;
+        }
+        double scale = photo.getInferenceScale() != null ? photo.getInferenceScale() : 1.0;
+        List<Integer> bbox = ImageResizeService.scaleBox(match.bbox(), scale);
+        return new FaceSearchResponse.FaceLocation(
+                bbox.get(0),  // x
+                bbox.get(1),  // y
+                bbox.get(2) - bbox.get(0),  // width
+                bbox.get(3) - bbox.get(1)   // height
+        );
+    }
+    
+    private float[] queryEmbedding(MultipartFile file) throws IOException {
+        return queryFaces(file, false).get(0).embedding();
+    }
+    
+    private List<QueryFace> queryFaces(MultipartFile file, boolean allFaces) throws IOException {
+        String hash = ContentHash.sha256(file);
+        String key = allFaces ? hash + ":all" : hash;
+        List<QueryFace> faces = queryEmbeddings.getIfPresent(key);
+        if (faces != null) {
+            return faces;
+        }
+        
+        long embedStart = System.nanoTime();
+        ImageResizeService.InferenceImage query = imageResizeService.prepareForInference(file.getResource());
+        FaceServiceClient.QueryEmbedding result = faceServiceClient.embedQuery(query.resource(), allFaces);
+        totalEmbedNanos.add(System.nanoTime() - embedStart);
+        
+        if (result == null || result.embedding() == null || result.embedding().length == 0) {
+            throw new IllegalStateException("Face service returned no query embedding");
+        }
+        faces = allFaces && result.faces() != null && !result.faces().isEmpty()
+                ? result.faces().stream()
+                        .map(face -> new QueryFace(face.embedding(), query.toOriginal(face.bbox())))
+                        .toList()
+                : List.of(new QueryFace(result.embedding(), query.toOriginal(result.bbox())));
+        queryEmbeddings.put(key, faces);
+        return faces;
+    }
+    
+    private static FaceSearchResponse.FaceLocation queryLocation(List<Integer> bbox) {
+        if (bbox == null || bbox.size() != 4) {
+            return null;
+        }
+        return new FaceSearchResponse.FaceLocation(
+                bbox.get(0), bbox.get(1), bbox.get(2) - bbox.get(0), bbox.get(3) - bbox.get(1));
+    }
+    
+    private void recordSearch(long faceServiceNanos, long dbNanos) {
+        searches.increment();
+        totalFaceServiceNanos.add(faceServiceNanos);
+        totalDbNanos.add(dbNanos);
+        maxDbNanos.accumulate(dbNanos);
+    }
+    
+    public Map<String, Object> getStats() {
+        long count = searches.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("searches", count);
+        stats.put("avgFaceServiceMs", count > 0 ? totalFaceServiceNanos.sum() / count / 1e6 : 0);
+        stats.put("avgDbMs", count > 0 ? totalDbNanos.sum() / count / 1e6 : 0);
+        stats.put("maxDbMs", maxDbNanos.get() / 1e6);
+        stats.put("indexSearches", indexSearches.sum());
+        stats.put("faceServiceSearches", faceServiceSearches.sum());
+        
+        long batches = batchSearches.sum();
+        Map<String, Object> batch = new LinkedHashMap<>();
+        batch.put("searches", batches);
+        batch.put("avgQueryFaces", batches > 0 ? batchQueryFaces.sum() / (double) batches : 0);
+        batch.put("avgMs", batches > 0 ? totalBatchNanos.sum() / batches / 1e6 : 0);
+        stats.put("batch", batch);
+        
+        long resolutions = urlResolutions.sum();
+        Map<String, Object> enrichment = new LinkedHashMap<>();
+        enrichment.put("avgUrlMs", resolutions > 0 ? totalUrlNanos.sum() / resolutions / 1e6 : 0);
+        enrichment.put("deadlineExceeded", urlDeadlineExceeded.sum());
+        enrichment.put("rejected", urlRejected.sum());
+        enrichment.put("droppedMatches", droppedMatches.sum());
+        stats.put("enrichment", enrichment);
+        
+        CacheStats cacheStats = queryEmbeddings.stats();
+        Map<String, Object> queryCache = new LinkedHashMap<>();
+        queryCache.put("size", queryEmbeddings.estimatedSize());
+        queryCache.put("hits", cacheStats.hitCount());
+        queryCache.put("misses", cacheStats.missCount());
+        queryCache.put("hitRate", Math.round(cacheStats.hitRate() * 1000) / 1000.0);
+        queryCache.put("avgEmbedMs", cacheStats.missCount() > 0 ? totalEmbedNanos.sum() / cacheStats.missCount() / 1e6 : 0);
+        stats.put("queryCache", queryCache);
+        return stats;
+    }
+    
     @Transactional
     public void deleteEventEmbeddings(Long eventId) {
         log.info("Deleting face embeddings for event: {}", eventId);
@@ -0,0 +1,99 @@
+package ir.ifoto.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import ir.ifoto.repository.EventRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-event version stamp for HTTP validators, bumped whenever anything shown in an event's
+ * gallery or counts changes. The version is stored on the events row and incremented by the
+ * counter flush together with the counts, so every node builds the same validators and a change
+ * made on one node reaches the others within the flush interval plus the local cache TTL.
+ * Until then a conditional request can still be answered 304 from the previous version.
+ */
+@Service
+public class GalleryVersionService {
+
+    private static final Stamp INITIAL = new Stamp(0, Instant.EPOCH);
+
+    private final EventRepository eventRepository;
+    private final Cache<Long, Stamp> stamps;
+    // Changes that alter no count, written with the next counter flush
+    private final Set<Long> changed = ConcurrentHashMap.newKeySet();
+
+    public GalleryVersionService(
+            EventRepository eventRepository,
+            @Value("${ifoto.gallery.version-cache-ttl:2s}") Duration cacheTtl) {
+        this.eventRepository = eventRepository;
+        this.stamps = Caffeine.newBuilder()
+                .maximumSize(10_000)
+                .expireAfterWrite(cacheTtl)
+                .build();
+    }
+
+    public record Stamp(long version, Instant changedAt) {
+
+        // Read by EventRepository.findGalleryStamp
+        public Stamp(Long version, LocalDateTime changedAt) {
+            this(version, changedAt.atZone(ZoneId.systemDefault()).toInstant());
+        }
+    }
+
+    /**
+     * Records a change to the gallery that does not alter its counts, such as new thumbnails
+     */
+    public void bump(Long eventId) {
+        changed.add(eventId);
+    }
+
+    /**
+     * Events with a change waiting for the next counter flush
+     */
+    public Set<Long> changedEvents() {
+        return changed;
+    }
+
+    /**
+     * Takes the pending change of an event for a flush that is about to increment its version
+     */
+    public boolean takeChange(Long eventId) {
+        return changed.remove(eventId);
+    }
+
+    /**
+     * Drops the cached stamp of an event whose version was just incremented by this node
+     */
+    public void evict(Long eventId) {
+        stamps.invalidate(eventId);
+    }
+
+    public Stamp get(Long eventId) {
+        return stamps.get(eventId, id -> eventRepository.findGalleryStamp(id).orElse(INITIAL));
+    }
+
+    /**
+     * Strong validator for one page of an event's gallery, {@code pageKey} identifying the page
+     */
+    public String galleryEtag(Long eventId, String pageKey) {
+        return "\"g" + eventId + "-" + get(eventId).version() + "-" + pageKey + "\"";
+    }
+
+    /**
+     * Strong validator for an event's details, which also carry its photo and face counts and
+     * the photographer's name
+     */
+    public String eventEtag(Long eventId, Instant updatedAt, Instant photographerUpdatedAt) {
+        return "\"e" + eventId + "-" + updatedAt.toEpochMilli()
+                + "-" + (photographerUpdatedAt != null ? photographerUpdatedAt.toEpochMilli() : 0)
+                + "-" + get(eventId).version() + "\"";
+    }
+}
@@ -0,0 +1,349 @@
+package ir.ifoto.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+import org.w3c.dom.Node;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Produces bounded-resolution JPEG copies of photos.
+ * <p>
+ * Images are decoded with source subsampling, so a large original is never fully
+ * rasterized on the heap, and then downscaled with bilinear filtering.
+ */
+@Slf4j
+@Service
+public class ImageResizeService {
+
+    private static final String JPEG_METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+    private static final int APP1_MARKER = 0xE1;
+    private static final int EXIF_ORIENTATION_TAG = 0x0112;
+
+    private final int inferenceMaxEdge;
+    private final float jpegQuality;
+
+    public ImageResizeService(
+            @Value("${ifoto.face-service.inference-max-edge:1600}") int inferenceMaxEdge,
+            @Value("${ifoto.face-service.inference-jpeg-quality:0.9}") float jpegQuality) {
+        this.inferenceMaxEdge = inferenceMaxEdge;
+        this.jpegQuality = jpegQuality;
+    }
+
+    /**
+     * Image sent to the face service together with the factor that maps its
+     * coordinates back onto the original. Sizes and coordinates are those of the original as
+     * displayed, with its EXIF rotation applied.
+     */
+    public record InferenceImage(Resource resource, Integer originalWidth, Integer originalHeight, double scale) {
+
+        /**
+         * The face service applies EXIF rotation when it decodes an original, and a downscaled
+         * copy is encoded already rotated, so both report boxes upright and only the scale
+         * separates them
+         */
+        public List<Integer> toOriginal(List<Integer> bbox) {
+            return scaleBox(bbox, scale);
+        }
+    }
+
+    /**
+     * A JPEG rendition of a photo, bounded by {@code maxEdge}
+     */
+    public record Rendition(int maxEdge, byte[] data, int width, int height) {}
+
+    /**
+     * Render the given sizes of an image from a single decode. The largest size is decoded with
+     * subsampling and every smaller size is derived from it. EXIF rotation is applied so renditions
+     * display upright without metadata. Images are never upscaled.
+     */
+    public List<Rendition> renderRenditions(Resource original, List<Integer> maxEdges, float quality) throws IOException {
+        List<Integer> sizes = maxEdges.stream().sorted(Comparator.reverseOrder()).toList();
+
+        try (InputStream in = original.getInputStream();
+             ImageInputStream iis = ImageIO.createImageInputStream(in)) {
+
+            ImageReader reader = firstReader(iis);
+            if (reader == null) {
+                throw new IOException("Unsupported image format: " + original.getFilename());
+            }
+
+            try {
+                reader.setInput(iis, true, false);
+                int orientation = exifOrientation(reader);
+                BufferedImage source = applyOrientation(
+                        readScaled(reader, reader.getWidth(0), reader.getHeight(0), sizes.get(0)), orientation);
+
+                List<Rendition> renditions = new ArrayList<>(sizes.size());
+                for (int maxEdge : sizes) {
+                    source = scaleTo(source, maxEdge);
+                    renditions.add(new Rendition(maxEdge, encodeJpeg(source, quality), source.getWidth(), source.getHeight()));
+                }
+                return renditions;
+
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Prepare the copy of an image that is sent to the face service. Images whose long edge
+     * exceeds {@code ifoto.face-service.inference-max-edge} are replaced by a downscaled JPEG
+     * with any EXIF rotation applied, as the copy carries no metadata; images in an unknown
+     * format are sent as is.
+     */
+    public InferenceImage prepareForInference(Resource original) {
+        try (InputStream in = original.getInputStream();
+             ImageInputStream iis = ImageIO.createImageInputStream(in)) {
+
+            ImageReader reader = firstReader(iis);
+            if (reader == null) {
+                return new InferenceImage(original, null, null, 1.0);
+            }
+
+            try {
+                reader.setInput(iis, true, false);
+                int storedWidth = reader.getWidth(0);
+                int storedHeight = reader.getHeight(0);
+                int orientation = exifOrientation(reader);
+                // Orientations 5-8 turn the image a quarter, swapping its sides when displayed
+                boolean quarterTurn = orientation >= 5 && orientation <= 8;
+                int width = quarterTurn ? storedHeight : storedWidth;
+                int height = quarterTurn ? storedWidth : storedHeight;
+                int longEdge = Math.max(width, height);
+
+                if (longEdge <= inferenceMaxEdge) {
+                    return new InferenceImage(original, width, height, 1.0);
+                }
+
+                BufferedImage scaled = applyOrientation(
+                        readScaled(reader, storedWidth, storedHeight, inferenceMaxEdge), orientation);
+                double scale = (double) longEdge / Math.max(scaled.getWidth(), scaled.getHeight());
+
+                return new InferenceImage(
+                        jpegResource(encodeJpeg(scaled, jpegQuality), original.getFilename()), width, height, scale);
+
+            } finally {
+                reader.dispose();
+            }
+
+        } catch (Exception e) {
+            log.warn("Could not prepare inference copy of {}, sending original: {}",
+                    original.getFilename(), e.getMessage());
+            return new InferenceImage(original, null, null, 1.0);
+        }
+    }
+
+    /**
+     * Map an [x1, y1, x2, y2] box from a downscaled copy back onto the original
+     */
+    public static List<Integer> scaleBox(List<Integer> bbox, double scale) {
+        if (bbox == null || scale == 1.0) {
+            return bbox;
+        }
+        return bbox.stream()
+                .map(value -> value == null ? null : (int) Math.round(value * scale))
+                .toList();
+    }
+
+    private ImageReader firstReader(ImageInputStream iis) {
+        if (iis == null) {
+            return null;
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+        return readers.hasNext() ? readers.next() : null;
+    }
+
+    private BufferedImage readScaled(ImageReader reader, int width, int height, int maxEdge) throws IOException {
+        // Subsample while decoding down to roughly twice the target, then filter the rest of the way
+        int subsampling = Math.max(1, Math.max(width, height) / (maxEdge * 2));
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        return scaleTo(reader.read(0, param), maxEdge);
+    }
+
+    /**
+     * Downscale to fit {@code maxEdge}, halving in steps so large reductions do not alias
+     */
+    private BufferedImage scaleTo(BufferedImage image, int maxEdge) {
+        BufferedImage current = image;
+        do {
+            int longEdge = Math.max(current.getWidth(), current.getHeight());
+            double factor = Math.max(0.5, Math.min(1.0, (double) maxEdge / longEdge));
+            int targetWidth = Math.max(1, (int) Math.round(current.getWidth() * factor));
+            int targetHeight = Math.max(1, (int) Math.round(current.getHeight() * factor));
+
+            if (factor == 1.0 && current.getType() == BufferedImage.TYPE_INT_RGB) {
+                return current;
+            }
+            current = draw(current, targetWidth, targetHeight, null);
+        } while (Math.max(current.getWidth(), current.getHeight()) > maxEdge);
+
+        return current;
+    }
+
+    private BufferedImage draw(BufferedImage source, int width, int height, AffineTransform transform) {
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            if (transform != null) {
+                graphics.drawImage(source, transform, null);
+            } else {
+                graphics.drawImage(source, 0, 0, width, height, null);
+            }
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    /**
+     * Rotate/flip pixels according to an EXIF orientation value (1-8)
+     */
+    private BufferedImage applyOrientation(BufferedImage image, int orientation) {
+        if (orientation <= 1 || orientation > 8) {
+            return image;
+        }
+
+        int w = image.getWidth();
+        int h = image.getHeight();
+        boolean swap = orientation >= 5;
+        AffineTransform t = new AffineTransform();
+
+        switch (orientation) {
+            case 2 -> { t.translate(w, 0); t.scale(-1, 1); }
+            case 3 -> { t.translate(w, h); t.rotate(Math.PI); }
+            case 4 -> { t.translate(0, h); t.scale(1, -1); }
+            case 5 -> { t.rotate(-Math.PI / 2); t.scale(-1, 1); }
+            case 6 -> { t.translate(h, 0); t.rotate(Math.PI / 2); }
+            case 7 -> { t.scale(-1, 1); t.translate(-h, 0); t.translate(0, w); t.rotate(3 * Math.PI / 2); }
+            case 8 -> { t.translate(0, w); t.rotate(3 * Math.PI / 2); }
+            default -> { }
+        }
+
+        return draw(image, swap ? h : w, swap ? w : h, t);
+    }
+
+    private byte[] encodeJpeg(BufferedImage image, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private Resource jpegResource(byte[] data, String originalFilename) {
+        String baseName = originalFilename != null && originalFilename.contains(".")
+                ? originalFilename.substring(0, originalFilename.lastIndexOf('.'))
+                : (originalFilename != null ? originalFilename : "image");
+        String filename = baseName + ".jpg";
+
+        return new ByteArrayResource(data) {
+            @Override
+            public String getFilename() {
+                return filename;
+            }
+        };
+    }
+
+    /**
+     * Read the EXIF orientation from a JPEG's APP1 segment, 1 (upright) when absent
+     */
+    private int exifOrientation(ImageReader reader) {
+        try {
+            IIOMetadata metadata = reader.getImageMetadata(0);
+            if (metadata == null || !JPEG_METADATA_FORMAT.equals(metadata.getNativeMetadataFormatName())) {
+                return 1;
+            }
+
+            Node root = metadata.getAsTree(JPEG_METADATA_FORMAT);
+            for (Node child = root.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (!"markerSequence".equals(child.getNodeName())) {
+                    continue;
+                }
+                for (Node marker = child.getFirstChild(); marker != null; marker = marker.getNextSibling()) {
+                    if (marker instanceof IIOMetadataNode node
+                            && "unknown".equals(node.getNodeName())
+                            && String.valueOf(APP1_MARKER).equals(node.getAttribute("MarkerTag"))
+                            && node.getUserObject() instanceof byte[] data) {
+                        return parseOrientation(data);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.debug("Could not read EXIF orientation: {}", e.getMessage());
+        }
+        return 1;
+    }
+
+    private int parseOrientation(byte[] app1) {
+        // "Exif\0\0" followed by a TIFF header
+        if (app1.length < 14 || app1[0] != 'E' || app1[1] != 'x' || app1[2] != 'i' || app1[3] != 'f') {
+            return 1;
+        }
+        int tiff = 6;
+        boolean littleEndian = app1[tiff] == 'I';
+        int ifdOffset = tiff + readInt(app1, tiff + 4, littleEndian);
+        if (ifdOffset + 2 > app1.length) {
+            return 1;
+        }
+
+        int entries = readShort(app1, ifdOffset, littleEndian);
+        for (int i = 0; i < entries; i++) {
+            int entry = ifdOffset + 2 + i * 12;
+            if (entry + 12 > app1.length) {
+                break;
+            }
+            if (readShort(app1, entry, littleEndian) == EXIF_ORIENTATION_TAG) {
+                return readShort(app1, entry + 8, littleEndian);
+            }
+        }
+        return 1;
+    }
+
+    private int readShort(byte[] data, int offset, boolean littleEndian) {
+        int b0 = data[offset] & 0xFF;
+        int b1 = data[offset + 1] & 0xFF;
+        return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    private int readInt(byte[] data, int offset, boolean littleEndian) {
+        int high = readShort(data, offset + (littleEndian ? 2 : 0), littleEndian);
+        int low = readShort(data, offset + (littleEndian ? 0 : 2), littleEndian);
+        return (high << 16) | low;
+    }
+}
@@ -1,5 +1,8 @@
 package ir.ifoto.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import io.minio.*;
 import io.minio.errors.*;
 import lombok.extern.slf4j.Slf4j;
@@ -11,6 +14,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 @Slf4j
 @Service
@@ -18,14 +24,33 @@ public class MinioService {
     
     private final MinioClient minioClient;
     private final String bucketName;
+    private final int urlExpirySeconds;
+    private final Cache<String, String> urlCache;
     
     public MinioService(
             @Value("${ifoto.storage.minio.endpoint}") String endpoint,
             @Value("${ifoto.storage.minio.access-key}") String accessKey,
             @Value("${ifoto.storage.minio.secret-key}") String secretKey,
-            @Value("${ifoto.storage.minio.bucket-name}") String bucketName) {
+            @Value("${ifoto.storage.minio.bucket-name}") String bucketName,
+            @Value("${ifoto.storage.minio.url-expiry:7d}") Duration urlExpiry,
+            @Value("${ifoto.storage.minio.url-cache.ttl:1d}") Duration urlCacheTtl,
+            @Value("${ifoto.storage.minio.url-cache.max-size:100000}") long urlCacheMaxSize) {
+        
+        if (urlCacheTtl.compareTo(urlExpiry.dividedBy(2)) > 0) {
+            throw new IllegalStateException(
+                "ifoto.storage.minio.url-cache.ttl must be at most half of url-expiry " +
+                "so cached URLs never reach clients close to expiring."
+            );
+        }
         
         this.bucketName = bucketName;
+        this.urlExpirySeconds = (int) urlExpiry.toSeconds();
+        // Identical URLs for repeat views keep them cacheable by browsers and CDNs
+        this.urlCache = Caffeine.newBuilder()
+                .maximumSize(urlCacheMaxSize)
+                .expireAfterWrite(urlCacheTtl)
+                .recordStats()
+                .build();
         this.minioClient = MinioClient.builder()
                 .endpoint(endpoint)
                 .credentials(accessKey, secretKey)
@@ -53,15 +78,24 @@ public class MinioService {
     }
     
     public String uploadFile(MultipartFile file, String folder, String filename) {
+        try (InputStream inputStream = file.getInputStream()) {
+            return uploadStream(inputStream, file.getSize(), file.getContentType(), folder, filename);
+        } catch (IOException e) {
+            log.error("Error reading upload {}: {}", filename, e.getMessage(), e);
+            throw new RuntimeException("Failed to upload file to MinIO", e);
+        }
+    }
+    
+    public String uploadStream(InputStream inputStream, long size, String contentType, String folder, String filename) {
         String objectName = folder + "/" + filename;
         
-        try (InputStream inputStream = file.getInputStream()) {
+        try {
             minioClient.putObject(
                     PutObjectArgs.builder()
                             .bucket(bucketName)
                             .object(objectName)
-                            .stream(inputStream, file.getSize(), -1)
-                            .contentType(file.getContentType())
+                            .stream(inputStream, size, -1)
+                            .contentType(contentType)
                             .build()
             );
             
@@ -74,14 +108,32 @@ public class MinioService {
         }
     }
     
+    public InputStream downloadFile(String objectName) {
+        try {
+            return minioClient.getObject(
+                    GetObjectArgs.builder()
+                            .bucket(bucketName)
+                            .object(objectName)
+                            .build()
+            );
+        } catch (Exception e) {
+            log.error("Error downloading file from MinIO: {}", e.getMessage(), e);
+            throw new RuntimeException("Failed to download file from MinIO", e);
+        }
+    }
+    
     public String getFileUrl(String objectName) {
+        return urlCache.get(objectName, this::presignGetUrl);
+    }
+    
+    private String presignGetUrl(String objectName) {
         try {
             return minioClient.getPresignedObjectUrl(
                     GetPresignedObjectUrlArgs.builder()
                             .method(io.minio.http.Method.GET)
                             .bucket(bucketName)
                             .object(objectName)
-                            .expiry(7 * 24 * 60 * 60) // 7 days
+                            .expiry(urlExpirySeconds)
                             .build()
             );
         } catch (Exception e) {
@@ -98,10 +150,22 @@ public class MinioService {
                             .object(objectName)
                             .build()
             );
+            urlCache.invalidate(objectName);
             log.info("Deleted file from MinIO: {}", objectName);
         } catch (Exception e) {
             log.error("Error deleting file from MinIO: {}", e.getMessage(), e);
             throw new RuntimeException("Failed to delete file from MinIO", e);
         }
     }
+    
+    public Map<String, Object> getUrlCacheStats() {
+        CacheStats cacheStats = urlCache.stats();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", urlCache.estimatedSize());
+        stats.put("hits", cacheStats.hitCount());
+        stats.put("misses", cacheStats.missCount());
+        stats.put("hitRate", Math.round(cacheStats.hitRate() * 1000) / 1000.0);
+        stats.put("evictions", cacheStats.evictionCount());
+        return stats;
+    }
 }
@@ -1,23 +1,60 @@
 package ir.ifoto.service;
 
-import ir.ifoto.client.FaceServiceClient;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import ir.ifoto.dto.BatchUploadResponse;
+import ir.ifoto.dto.GalleryPageResponse;
 import ir.ifoto.dto.GalleryPhotoResponse;
+import ir.ifoto.dto.PhotoManifestEntry;
 import ir.ifoto.dto.PhotoUploadResponse;
+import ir.ifoto.exception.BadRequestException;
 import ir.ifoto.exception.ResourceNotFoundException;
 import ir.ifoto.model.Event;
 import ir.ifoto.model.Photo;
 import ir.ifoto.repository.EventRepository;
+import ir.ifoto.repository.FaceEmbeddingRepository;
 import ir.ifoto.repository.PhotoRepository;
+import ir.ifoto.search.FaceIndexService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Slf4j
 @Service
@@ -26,10 +63,45 @@ public class PhotoService {
     
     private final PhotoRepository photoRepository;
     private final EventRepository eventRepository;
-    private final FaceServiceClient faceServiceClient;
+    private final FaceEmbeddingRepository faceEmbeddingRepository;
     private final StorageService storageService;
+    private final FaceExtractionService faceExtractionService;
+    private final RenditionService renditionService;
+    private final EventCounterService eventCounterService;
+    private final FaceIndexService faceIndexService;
+    private final PlatformTransactionManager transactionManager;
+    private final ObjectMapper objectMapper;
     
-    @Transactional
+    @Qualifier("storageExecutor")
+    private final ThreadPoolTaskExecutor storageExecutor;
+    
+    @Value("${ifoto.upload.max-batch-files:200}")
+    private int maxBatchFiles;
+    
+    @Value("${ifoto.gallery.page-size:60}")
+    private int defaultPageSize;
+    
+    @Value("${ifoto.gallery.max-page-size:200}")
+    private int maxPageSize;
+    
+    private final LongAdder photosAdded = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder duplicateRaces = new LongAdder();
+    private final LongAdder bytesSaved = new LongAdder();
+    private final LongAdder inferenceNanosSaved = new LongAdder();
+    
+    /**
+     * Events are never deleted, so an event once seen is remembered without asking the database again
+     */
+    private final Cache<Long, Boolean> knownEvents = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .build();
+    
+    /**
+     * Store the photo and record it as pending face extraction. A photo whose content the event
+     * already has is not stored or extracted again; the existing photo is returned instead.
+     * Not transactional on purpose: the storage write must not hold a database connection.
+     */
     public PhotoUploadResponse uploadPhoto(Long eventId, MultipartFile file) {
         log.info("Uploading photo for event: {}", eventId);
         
@@ -39,59 +111,42 @@ public class PhotoService {
         
         // Validate file
         if (file.isEmpty()) {
-            throw new IllegalArgumentException("File cannot be empty");
+            throw new BadRequestException("File cannot be empty");
         }
         
         try {
-            // Generate unique filename
-            String originalFilename = file.getOriginalFilename();
-            String extension = originalFilename != null && originalFilename.contains(".") 
-                    ? originalFilename.substring(originalFilename.lastIndexOf("."))
-                    : "";
-            String uniqueFilename = UUID.randomUUID().toString() + extension;
+            // Hash the spooled upload first so a re-upload never reaches storage
+            String contentHash = ContentHash.sha256(file);
+            Optional<Photo> existing = photoRepository.findByEventIdAndContentHash(eventId, contentHash);
+            if (existing.isPresent()) {
+                return toUploadResponse(duplicateOf(existing.get()), true);
+            }
             
             // Store file
-            String storagePath = storageService.store(file, "events/" + eventId, uniqueFilename);
-            
-            // Create photo entity
-            Photo photo = new Photo();
-            photo.setEvent(event);
-            photo.setFileName(originalFilename);
-            photo.setStoragePath(storagePath);
-            photo.setFileSize(file.getSize());
-            photo.setFileType(file.getContentType());
-            photo.setFaceCount(0);
-            photo.setProcessed(false);
-            photo.setUploadedAt(LocalDateTime.now());
-            
-            Photo savedPhoto = photoRepository.save(photo);
+            String storagePath = storageService.store(file, "events/" + eventId, uniqueFilename(file));
             
-            // Extract face embeddings asynchronously
+            Photo savedPhoto;
             try {
-                FaceServiceClient.FaceExtractionResponse faceResponse = 
-                        faceServiceClient.extractEmbeddings(file, savedPhoto.getId(), eventId);
-                
-                // Update face count
-                savedPhoto.setFaceCount(faceResponse.faceCount());
-                savedPhoto.setProcessed(true);
-                photoRepository.save(savedPhoto);
-                
-                log.info("Extracted {} faces from photo {}", faceResponse.faceCount(), savedPhoto.getId());
-                
-            } catch (Exception e) {
-                log.error("Failed to extract face embeddings for photo {}: {}", savedPhoto.getId(), e.getMessage());
-                // Continue even if face extraction fails
+                // The save commits on its own, so record the delta under the same gate
+                savedPhoto = eventCounterService.gated(() -> {
+                    Photo photo = photoRepository.save(newPhoto(event, file, storagePath, contentHash));
+                    eventCounterService.photosAdded(eventId, 1);
+                    return photo;
+                });
+            } catch (DataIntegrityViolationException e) {
+                // A concurrent upload of the same content was saved first
+                Photo winner = photoRepository.findByEventIdAndContentHash(eventId, contentHash).orElseThrow(() -> e);
+                deleteStoredQuietly(storagePath);
+                duplicateRaces.increment();
+                return toUploadResponse(duplicateOf(winner), true);
             }
+            photosAdded.increment();
             
-            // Build response
-            return new PhotoUploadResponse(
-                    savedPhoto.getId(),
-                    savedPhoto.getFileName(),
-                    savedPhoto.getStoragePath(),
-                    savedPhoto.getFileSize(),
-                    savedPhoto.getFaceCount(),
-                    savedPhoto.getUploadedAt()
-            );
+            // Extract face embeddings and generate renditions in the background
+            faceExtractionService.enqueue(savedPhoto.getId());
+            renditionService.enqueue(savedPhoto.getId());
+            
+            return toUploadResponse(savedPhoto, false);
             
         } catch (Exception e) {
             log.error("Error uploading photo: {}", e.getMessage(), e);
@@ -99,28 +154,378 @@ public class PhotoService {
         }
     }
     
+    /**
+     * Upload many photos in one request. The event is validated once, files are hashed and
+     * objects written to storage in parallel, and all rows are inserted in a single batched
+     * transaction. Files whose content the event already has, or that repeat earlier in the
+     * batch, resolve to that photo without being stored again.
+     * Files that fail are reported individually instead of failing the whole batch.
+     */
+    public BatchUploadResponse uploadPhotos(Long eventId, List<MultipartFile> files) {
+        log.info("Uploading batch of {} photos for event: {}", files.size(), eventId);
+        
+        if (files.size() > maxBatchFiles) {
+            throw new BadRequestException("A batch may contain at most " + maxBatchFiles + " files");
+        }
+        
+        if (!eventRepository.existsById(eventId)) {
+            throw new ResourceNotFoundException("Event not found with id: " + eventId);
+        }
+        Event event = eventRepository.getReferenceById(eventId);
+        String folder = "events/" + eventId;
+        
+        BatchUploadResponse.FileResult[] results = new BatchUploadResponse.FileResult[files.size()];
+        
+        // Hash all files in parallel, then look the hashes up in one query
+        List<CompletableFuture<String>> hashing = new ArrayList<>(files.size());
+        for (MultipartFile file : files) {
+            if (file.isEmpty()) {
+                hashing.add(CompletableFuture.failedFuture(new BadRequestException("File cannot be empty")));
+            } else {
+                hashing.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return ContentHash.sha256(file);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, storageExecutor));
+            }
+        }
+        
+        String[] contentHashes = new String[files.size()];
+        for (int i = 0; i < files.size(); i++) {
+            try {
+                contentHashes[i] = hashing.get(i).join();
+            } catch (CompletionException e) {
+                results[i] = failed(files.get(i), e);
+            }
+        }
+        Set<String> hashes = Arrays.stream(contentHashes).filter(Objects::nonNull).collect(Collectors.toSet());
+        Map<String, Photo> existing = hashes.isEmpty() ? new HashMap<>() : photoRepository
+                .findByEventIdAndContentHashIn(eventId, hashes).stream()
+                .collect(Collectors.toMap(Photo::getContentHash, Function.identity(), (first, second) -> first, HashMap::new));
+        
+        // Write content that is new to the event to storage in parallel, once per batch
+        Map<String, Integer> firstSlots = new HashMap<>();
+        Map<Integer, CompletableFuture<String>> writes = new LinkedHashMap<>();
+        for (int i = 0; i < files.size(); i++) {
+            String contentHash = contentHashes[i];
+            if (contentHash != null && !existing.containsKey(contentHash) && firstSlots.putIfAbsent(contentHash, i) == null) {
+                MultipartFile file = files.get(i);
+                writes.put(i, CompletableFuture.supplyAsync(
+                        () -> storageService.store(file, folder, uniqueFilename(file)), storageExecutor));
+            }
+        }
+        
+        List<Photo> photos = new ArrayList<>();
+        for (Map.Entry<Integer, CompletableFuture<String>> write : writes.entrySet()) {
+            int slot = write.getKey();
+            MultipartFile file = files.get(slot);
+            try {
+                photos.add(newPhoto(event, file, write.getValue().join(), contentHashes[slot]));
+            } catch (CompletionException e) {
+                results[slot] = failed(file, e);
+            }
+        }
+        
+        // The inserts commit on their own, so record the delta under the same gate
+        List<Photo> unsaved = photos;
+        photos = eventCounterService.gated(() -> {
+            List<Photo> saved = save(eventId, unsaved, existing);
+            eventCounterService.photosAdded(eventId, saved.size());
+            return saved;
+        });
+        photosAdded.add(photos.size());
+        
+        Map<String, Photo> added = new HashMap<>();
+        for (Photo photo : photos) {
+            added.put(photo.getContentHash(), photo);
+            faceExtractionService.enqueue(photo.getId());
+            renditionService.enqueue(photo.getId());
+        }
+        
+        int uploaded = 0;
+        int duplicated = 0;
+        for (int i = 0; i < files.size(); i++) {
+            String contentHash = contentHashes[i];
+            if (results[i] == null && contentHash != null) {
+                Photo photo = existing.get(contentHash);
+                boolean duplicate = photo != null || firstSlots.get(contentHash) != i;
+                if (photo == null) {
+                    photo = added.get(contentHash);
+                }
+                if (photo == null) {
+                    // The first copy in this batch failed to store
+                    results[i] = new BatchUploadResponse.FileResult(files.get(i).getOriginalFilename(), false, null,
+                            results[firstSlots.get(contentHash)].getError());
+                    continue;
+                }
+                results[i] = new BatchUploadResponse.FileResult(files.get(i).getOriginalFilename(), true,
+                        toUploadResponse(duplicate ? duplicateOf(photo) : photo, duplicate), null);
+                duplicated += duplicate ? 1 : 0;
+            }
+            if (results[i].getSuccess()) {
+                uploaded++;
+            }
+        }
+        
+        log.info("Uploaded {} of {} photos for event {} ({} duplicates)", uploaded, files.size(), eventId, duplicated);
+        
+        return new BatchUploadResponse(uploaded, files.size() - uploaded, List.of(results));
+    }
+    
+    /**
+     * Inserts all rows in one transaction
+     */
+    private List<Photo> save(Long eventId, List<Photo> photos, Map<String, Photo> existing) {
+        try {
+            return photoRepository.saveAll(photos);
+        } catch (DataIntegrityViolationException e) {
+            // Another upload of some of these files committed first
+            return saveEach(eventId, photos, existing);
+        } catch (Exception e) {
+            log.error("Failed to save batch for event {}: {}", eventId, e.getMessage(), e);
+            photos.forEach(photo -> deleteStoredQuietly(photo.getStoragePath()));
+            throw new RuntimeException("Failed to upload photos", e);
+        }
+    }
+    
+    /**
+     * Inserts photos one at a time after a batch hit the (event, content hash) index, so only the
+     * photos another upload saved first become duplicates. Their objects are removed from storage
+     * and the winners added to {@code existing}. If an insert fails for any other reason, the
+     * objects of that photo and of those not yet inserted are removed before the error is
+     * rethrown; rows already inserted stay and are picked up by the extraction, rendition and
+     * counter sweeps.
+     */
+    private List<Photo> saveEach(Long eventId, List<Photo> photos, Map<String, Photo> existing) {
+        List<Photo> saved = new ArrayList<>();
+        int next = 0;
+        try {
+            for (; next < photos.size(); next++) {
+                Photo photo = photos.get(next);
+                // The rolled back batch left sequence ids on the entities
+                photo.setId(null);
+                try {
+                    saved.add(photoRepository.save(photo));
+                } catch (DataIntegrityViolationException e) {
+                    Photo winner = photoRepository.findByEventIdAndContentHash(eventId, photo.getContentHash())
+                            .orElseThrow(() -> e);
+                    deleteStoredQuietly(photo.getStoragePath());
+                    duplicateRaces.increment();
+                    existing.put(photo.getContentHash(), winner);
+                }
+            }
+            return saved;
+        } catch (RuntimeException e) {
+            log.error("Failed to save photo {} of {} for event {}: {}", next + 1, photos.size(), eventId, e.getMessage(), e);
+            photos.subList(next, photos.size()).forEach(photo -> deleteStoredQuietly(photo.getStoragePath()));
+            throw e;
+        }
+    }
+    
+    private static BatchUploadResponse.FileResult failed(MultipartFile file, CompletionException e) {
+        Throwable cause = e.getCause() != null ? e.getCause() : e;
+        log.error("Failed to store {}: {}", file.getOriginalFilename(), cause.getMessage());
+        return new BatchUploadResponse.FileResult(file.getOriginalFilename(), false, null, cause.getMessage());
+    }
+    
+    /**
+     * Counts the storage write and face extraction a re-upload of {@code photo} did not need
+     */
+    private Photo duplicateOf(Photo photo) {
+        duplicates.increment();
+        bytesSaved.add(photo.getFileSize());
+        inferenceNanosSaved.add(faceExtractionService.averageExtractionNanos());
+        log.debug("Upload of {} matches existing photo {}", photo.getFileName(), photo.getId());
+        return photo;
+    }
+    
+    public Map<String, Object> getUploadStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("photosAdded", photosAdded.sum());
+        stats.put("duplicates", duplicates.sum());
+        stats.put("duplicateRaces", duplicateRaces.sum());
+        stats.put("bytesSaved", bytesSaved.sum());
+        stats.put("inferenceSecondsSaved", inferenceNanosSaved.sum() / 1e9);
+        return stats;
+    }
+    
+    private String uniqueFilename(MultipartFile file) {
+        String originalFilename = file.getOriginalFilename();
+        String extension = originalFilename != null && originalFilename.contains(".") 
+                ? originalFilename.substring(originalFilename.lastIndexOf("."))
+                : "";
+        return UUID.randomUUID().toString() + extension;
+    }
+    
+    private Photo newPhoto(Event event, MultipartFile file, String storagePath, String contentHash) {
+        Photo photo = new Photo();
+        photo.setEvent(event);
+        photo.setFileName(file.getOriginalFilename());
+        photo.setStoragePath(storagePath);
+        photo.setFileSize(file.getSize());
+        photo.setFileType(file.getContentType());
+        photo.setContentHash(contentHash);
+        photo.setFaceCount(0);
+        photo.setProcessed(false);
+        photo.setUploadedAt(LocalDateTime.now());
+        return photo;
+    }
+    
+    private PhotoUploadResponse toUploadResponse(Photo photo, boolean duplicate) {
+        return new PhotoUploadResponse(
+                photo.getId(),
+                photo.getFileName(),
+                photo.getStoragePath(),
+                photo.getFileSize(),
+                photo.getFaceCount(),
+                photo.getUploadedAt(),
+                duplicate
+        );
+    }
+    
+    private void deleteStoredQuietly(String storagePath) {
+        try {
+            storageService.delete(storagePath);
+        } catch (Exception e) {
+            log.error("Error deleting orphaned file {}: {}", storagePath, e.getMessage());
+        }
+    }
+    
+    /**
+     * One page of an event's gallery in upload order. Pages are addressed by an opaque cursor
+     * over (uploadedAt, id), so every page is an index range scan no matter how deep it is and
+     * photos uploaded while a client is paging are appended to the end instead of shifting pages.
+     */
     @Transactional(readOnly = true)
-    public List<GalleryPhotoResponse> getPhotosByEvent(Long eventId) {
-        log.info("Getting photos for event: {}", eventId);
+    public GalleryPageResponse getPhotosByEvent(Long eventId, String cursor, Integer size) {
+        log.debug("Getting photos for event {} after cursor {}", eventId, cursor);
         
-        // Validate event exists
+        requireEvent(eventId);
+        
+        int pageSize = galleryPageSize(size);
+        
+        // Fetch one extra row to know whether another page follows
+        Limit limit = Limit.of(pageSize + 1);
+        List<GalleryPhotoResponse> photos;
+        if (cursor == null || cursor.isBlank()) {
+            photos = photoRepository.findGalleryPage(eventId, limit);
+        } else {
+            GalleryCursor after = GalleryCursor.decode(cursor);
+            photos = photoRepository.findGalleryPageAfter(eventId, after.uploadedAt(), after.id(), limit);
+        }
+        
+        boolean hasMore = photos.size() > pageSize;
+        if (hasMore) {
+            photos = photos.subList(0, pageSize);
+        }
+        String nextCursor = hasMore ? GalleryCursor.of(photos.get(photos.size() - 1)).encode() : null;
+        
+        return new GalleryPageResponse(photos, nextCursor, hasMore);
+    }
+    
+    /**
+     * Throw a 404 for an unknown event, answered from memory for events already seen
+     */
+    public void requireEvent(Long eventId) {
+        if (knownEvents.getIfPresent(eventId) != null) {
+            return;
+        }
+        if (!eventRepository.existsById(eventId)) {
+            throw new ResourceNotFoundException("Event not found with id: " + eventId);
+        }
+        knownEvents.put(eventId, Boolean.TRUE);
+    }
+    
+    /**
+     * Canonical form of a gallery page request for its HTTP validator, so every cursor and size
+     * gets its own ETag. Rejects a malformed cursor before any validator is issued.
+     */
+    public String galleryPageKey(String cursor, Integer size) {
+        String position = cursor == null || cursor.isBlank() ? "first" : GalleryCursor.decode(cursor).encode();
+        return position + "-" + galleryPageSize(size);
+    }
+    
+    private int galleryPageSize(Integer size) {
+        return size == null ? defaultPageSize : Math.max(1, Math.min(size, maxPageSize));
+    }
+    
+    /**
+     * Position of the last photo of a page, encoded as URL-safe base64 of {@code uploadedAt|id}
+     */
+    private record GalleryCursor(LocalDateTime uploadedAt, Long id) {
+        
+        static GalleryCursor of(GalleryPhotoResponse photo) {
+            return new GalleryCursor(photo.getUploadedAt(), photo.getId());
+        }
+        
+        String encode() {
+            String raw = uploadedAt + "|" + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+        
+        static GalleryCursor decode(String cursor) {
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int separator = raw.indexOf('|');
+                return new GalleryCursor(
+                        LocalDateTime.parse(raw.substring(0, separator)),
+                        Long.parseLong(raw.substring(separator + 1)));
+            } catch (IllegalArgumentException | IndexOutOfBoundsException | DateTimeParseException e) {
+                throw new BadRequestException("Invalid cursor");
+            }
+        }
+    }
+    
+    /**
+     * Stream every photo of an event as newline-delimited JSON. Rows come from a forward-only
+     * cursor and are written as they are read, so memory stays flat however large the event is.
+     * The event is validated up front so a missing event is still a plain 404.
+     */
+    public StreamingResponseBody exportManifest(Long eventId, boolean includeUrls) {
         if (!eventRepository.existsById(eventId)) {
             throw new ResourceNotFoundException("Event not found with id: " + eventId);
         }
         
-        List<Photo> photos = photoRepository.findByEventId(eventId, org.springframework.data.domain.Pageable.unpaged())
-                .getContent();
+        ObjectWriter writer = objectMapper.writerFor(PhotoManifestEntry.class);
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setReadOnly(true);
         
-        return photos.stream()
-                .map(photo -> new GalleryPhotoResponse(
-                        photo.getId(),
-                        photo.getFileName(),
-                        photo.getStoragePath(),
-                        photo.getThumbnailPath(),
-                        photo.getFaceCount(),
-                        photo.getUploadedAt()
-                ))
-                .collect(Collectors.toList());
+        return outputStream -> {
+            OutputStream out = new BufferedOutputStream(outputStream, 64 * 1024);
+            long written = transaction.execute(status -> {
+                try (Stream<PhotoManifestEntry> entries = photoRepository.streamManifest(eventId)) {
+                    long count = 0;
+                    for (PhotoManifestEntry entry : (Iterable<PhotoManifestEntry>) entries::iterator) {
+                        if (includeUrls) {
+                            addUrls(entry);
+                        }
+                        out.write(writer.writeValueAsBytes(entry));
+                        out.write('\n');
+                        // Let the client consume the manifest while it is being produced
+                        if (++count % 500 == 0) {
+                            out.flush();
+                        }
+                    }
+                    return count;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            out.flush();
+            log.info("Exported manifest of {} photos for event {}", written, eventId);
+        };
+    }
+    
+    private void addUrls(PhotoManifestEntry entry) {
+        entry.setUrl(storageService.getUrl(entry.getStoragePath()));
+        if (entry.getThumbnailPath() != null) {
+            entry.setThumbnailUrl(storageService.getUrl(entry.getThumbnailPath()));
+        }
+        if (entry.getPreviewPath() != null) {
+            entry.setPreviewUrl(storageService.getUrl(entry.getPreviewPath()));
+        }
     }
     
     @Transactional(readOnly = true)
@@ -141,11 +546,17 @@ public class PhotoService {
             if (photo.getThumbnailPath() != null) {
                 storageService.delete(photo.getThumbnailPath());
             }
+            if (photo.getPreviewPath() != null) {
+                storageService.delete(photo.getPreviewPath());
+            }
         } catch (Exception e) {
             log.error("Error deleting photo files: {}", e.getMessage());
         }
         
         // Delete from database
+        int faces = faceEmbeddingRepository.deleteByPhotoId(photoId);
         photoRepository.delete(photo);
+        eventCounterService.photoRemoved(photo.getEvent().getId(), faces);
+        faceIndexService.removePhoto(photo.getEvent().getId(), photoId);
     }
 }
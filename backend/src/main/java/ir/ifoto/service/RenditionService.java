@@ -0,0 +1,196 @@
+package ir.ifoto.service;
+
+import ir.ifoto.model.Photo;
+import ir.ifoto.repository.PhotoRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Generates the grid thumbnail and lightbox preview of each photo on a CPU-bound pool
+ * and records their storage paths on the photo.
+ */
+@Slf4j
+@Service
+public class RenditionService {
+
+    private static final String CONTENT_TYPE = "image/jpeg";
+
+    private final PhotoRepository photoRepository;
+    private final StorageService storageService;
+    private final ImageResizeService imageResizeService;
+    private final GalleryVersionService galleryVersionService;
+    private final ThreadPoolTaskExecutor executor;
+    private final int thumbnailEdge;
+    private final int previewEdge;
+    private final float quality;
+    private final int maxAttempts;
+    private final Duration initialBackoff;
+    private final Duration maxBackoff;
+
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private final LongAdder generated = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder cpuNanos = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+
+    public RenditionService(
+            PhotoRepository photoRepository,
+            StorageService storageService,
+            ImageResizeService imageResizeService,
+            GalleryVersionService galleryVersionService,
+            @Qualifier("renditionExecutor") ThreadPoolTaskExecutor executor,
+            @Value("${ifoto.renditions.thumbnail-edge:400}") int thumbnailEdge,
+            @Value("${ifoto.renditions.preview-edge:1600}") int previewEdge,
+            @Value("${ifoto.renditions.jpeg-quality:0.82}") float quality,
+            @Value("${ifoto.renditions.max-attempts:5}") int maxAttempts,
+            @Value("${ifoto.renditions.initial-backoff:1m}") Duration initialBackoff,
+            @Value("${ifoto.renditions.max-backoff:1h}") Duration maxBackoff) {
+        this.photoRepository = photoRepository;
+        this.storageService = storageService;
+        this.imageResizeService = imageResizeService;
+        this.galleryVersionService = galleryVersionService;
+        this.executor = executor;
+        this.thumbnailEdge = thumbnailEdge;
+        this.previewEdge = previewEdge;
+        this.quality = quality;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+    public void enqueue(Long photoId) {
+        if (!inFlight.add(photoId)) {
+            return;
+        }
+        try {
+            executor.execute(() -> process(photoId));
+        } catch (TaskRejectedException e) {
+            // Picked up by the next sweep
+            inFlight.remove(photoId);
+        }
+    }
+
+    /**
+     * Catch photos whose renditions were never generated, e.g. after a restart or a full queue.
+     * Failed photos are retried with exponential backoff until they run out of attempts.
+     */
+    @Scheduled(
+            initialDelayString = "${ifoto.renditions.sweep-interval:60000}",
+            fixedDelayString = "${ifoto.renditions.sweep-interval:60000}")
+    public void dispatchMissing() {
+        int capacity = executor.getQueueCapacity() - executor.getQueueSize();
+        if (capacity <= 0) {
+            return;
+        }
+
+        List<Long> due = photoRepository.findIdsDueForRenditions(
+                maxAttempts, LocalDateTime.now(), PageRequest.of(0, capacity + inFlight.size()));
+        due.stream()
+                .filter(photoId -> !inFlight.contains(photoId))
+                .limit(capacity)
+                .forEach(this::enqueue);
+    }
+
+    void process(Long photoId) {
+        long cpuStart = threadMXBean.getCurrentThreadCpuTime();
+        try {
+            Photo photo = photoRepository.findById(photoId).orElse(null);
+            if (photo == null || photo.getThumbnailPath() != null) {
+                return;
+            }
+
+            Resource original = storageService.loadAsResource(
+                    photo.getStoragePath(), photo.getFileName(), photo.getFileSize());
+            List<ImageResizeService.Rendition> renditions =
+                    imageResizeService.renderRenditions(original, List.of(previewEdge, thumbnailEdge), quality);
+
+            String storagePath = photo.getStoragePath();
+            int slash = storagePath.lastIndexOf('/');
+            String folder = slash >= 0 ? storagePath.substring(0, slash) : "";
+            String name = storagePath.substring(slash + 1);
+            String baseName = name.contains(".") ? name.substring(0, name.lastIndexOf('.')) : name;
+
+            String previewPath = null;
+            String thumbnailPath = null;
+            for (ImageResizeService.Rendition rendition : renditions) {
+                boolean thumbnail = rendition.maxEdge() == thumbnailEdge;
+                String path = storageService.store(rendition.data(), CONTENT_TYPE,
+                        folder + (thumbnail ? "/thumbnails" : "/previews"), baseName + ".jpg");
+                bytesWritten.add(rendition.data().length);
+                if (thumbnail) {
+                    thumbnailPath = path;
+                } else {
+                    previewPath = path;
+                }
+            }
+
+            photoRepository.updateRenditions(photoId, thumbnailPath, previewPath);
+            galleryVersionService.bump(photo.getEvent().getId());
+            generated.add(renditions.size());
+            log.debug("Generated {} renditions for photo {}", renditions.size(), photoId);
+
+        } catch (Exception e) {
+            failures.increment();
+            markFailed(photoId, e);
+        } finally {
+            cpuNanos.add(threadMXBean.getCurrentThreadCpuTime() - cpuStart);
+            inFlight.remove(photoId);
+        }
+    }
+
+    private void markFailed(Long photoId, Exception failure) {
+        try {
+            int attempt = photoRepository.findById(photoId).map(Photo::getRenditionAttempts).orElse(0) + 1;
+            LocalDateTime nextAttemptAt = LocalDateTime.now().plus(backoff(attempt));
+            photoRepository.markRenditionFailed(photoId, nextAttemptAt);
+            if (attempt >= maxAttempts) {
+                log.error("Giving up renditions for photo {} after {} attempts: {}", photoId, attempt, failure.getMessage());
+            } else {
+                log.warn("Failed to generate renditions for photo {} (attempt {}), retrying at {}: {}",
+                        photoId, attempt, nextAttemptAt, failure.getMessage());
+            }
+        } catch (Exception e) {
+            log.error("Failed to record rendition failure for photo {}: {}", photoId, e.getMessage());
+        }
+    }
+
+    private Duration backoff(int attempt) {
+        Duration delay = initialBackoff.multipliedBy(1L << Math.min(attempt - 1, 20));
+        return delay.compareTo(maxBackoff) > 0 ? maxBackoff : delay;
+    }
+
+    /**
+     * Throughput counters; renditions per CPU-second is the per-core rate
+     */
+    public Map<String, Object> getStats() {
+        double cpuSeconds = cpuNanos.sum() / 1e9;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("generated", generated.sum());
+        stats.put("failures", failures.sum());
+        stats.put("bytesWritten", bytesWritten.sum());
+        stats.put("cpuSeconds", Math.round(cpuSeconds * 100) / 100.0);
+        stats.put("renditionsPerCpuSecond", cpuSeconds > 0 ? Math.round(generated.sum() / cpuSeconds * 10) / 10.0 : 0);
+        stats.put("queued", executor.getQueueSize());
+        stats.put("active", executor.getActiveCount());
+        return stats;
+    }
+}
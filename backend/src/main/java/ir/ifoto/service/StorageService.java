@@ -2,15 +2,19 @@ package ir.ifoto.service;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.util.Map;
 
 @Slf4j
 @Service
@@ -53,6 +57,25 @@ public class StorageService {
         }
     }
     
+    /**
+     * Store generated content (e.g. a rendition) and return its path
+     */
+    public String store(byte[] data, String contentType, String folder, String filename) {
+        try {
+            if ("minio".equals(storageType)) {
+                return minioService.uploadStream(new ByteArrayInputStream(data), data.length, contentType, folder, filename);
+            } else {
+                Path folderPath = localStoragePath.resolve(folder);
+                Files.createDirectories(folderPath);
+                Files.write(folderPath.resolve(filename), data);
+                return folder + "/" + filename;
+            }
+        } catch (Exception e) {
+            log.error("Failed to store file: {}", e.getMessage(), e);
+            throw new RuntimeException("Failed to store file", e);
+        }
+    }
+    
     /**
      * Store file locally
      */
@@ -69,6 +92,24 @@ public class StorageService {
         return folder + "/" + filename;
     }
     
+    /**
+     * Open a stored file for reading
+     */
+    public InputStream load(String storagePath) throws IOException {
+        if ("minio".equals(storageType)) {
+            return minioService.downloadFile(storagePath);
+        } else {
+            return Files.newInputStream(localStoragePath.resolve(storagePath));
+        }
+    }
+    
+    /**
+     * Expose a stored file as a resource that is streamed from storage each time it is read
+     */
+    public Resource loadAsResource(String storagePath, String filename, long contentLength) {
+        return new StoredFileResource(storagePath, filename, contentLength);
+    }
+    
     /**
      * Get URL for a stored file
      */
@@ -80,6 +121,13 @@ public class StorageService {
         }
     }
     
+    /**
+     * Presigned URL cache statistics (empty for local storage)
+     */
+    public Map<String, Object> getUrlCacheStats() {
+        return "minio".equals(storageType) ? minioService.getUrlCacheStats() : Map.of();
+    }
+    
     /**
      * Delete a file
      */
@@ -103,4 +151,36 @@ public class StorageService {
         Path filePath = localStoragePath.resolve(storagePath);
         Files.deleteIfExists(filePath);
     }
+    
+    private class StoredFileResource extends AbstractResource {
+        private final String storagePath;
+        private final String filename;
+        private final long contentLength;
+        
+        StoredFileResource(String storagePath, String filename, long contentLength) {
+            this.storagePath = storagePath;
+            this.filename = filename;
+            this.contentLength = contentLength;
+        }
+        
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return load(storagePath);
+        }
+        
+        @Override
+        public String getFilename() {
+            return filename;
+        }
+        
+        @Override
+        public long contentLength() {
+            return contentLength;
+        }
+        
+        @Override
+        public String getDescription() {
+            return "Stored file [" + storagePath + "]";
+        }
+    }
 }
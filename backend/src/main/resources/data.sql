@@ -0,0 +1,7 @@
+-- Photo and face ids used to come from IDENTITY columns. Move each id sequence past the rows
+-- inserted that way; once the sequence is ahead of the table these statements change nothing.
+SELECT setval('photos_seq', (SELECT MAX(id) FROM photos))
+WHERE (SELECT MAX(id) FROM photos) >= (SELECT last_value FROM photos_seq);
+
+SELECT setval('face_embeddings_seq', (SELECT MAX(id) FROM face_embeddings))
+WHERE (SELECT MAX(id) FROM face_embeddings) >= (SELECT last_value FROM face_embeddings_seq);
@@ -0,0 +1,105 @@
+package ir.ifoto.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdaptiveLimiterTest {
+
+    private static final long TARGET = Duration.ofMillis(100).toNanos();
+    private static final long FAST = TARGET / 2;
+    private static final long SLOW = TARGET * 2;
+
+    @Test
+    void startsAtHalfTheMaximum() {
+        assertThat(new AdaptiveLimiter(2, 32, TARGET).getLimit()).isEqualTo(16);
+        assertThat(new AdaptiveLimiter(4, 4, TARGET).getLimit()).isEqualTo(4);
+    }
+
+    @Test
+    void growsByOneForFastCallsWhileTheLimitIsInUse() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1, 8, TARGET);
+        acquire(limiter, 2);
+
+        limiter.release(FAST, false);
+
+        assertThat(limiter.getLimit()).isEqualTo(5);
+    }
+
+    @Test
+    void doesNotGrowWhileMostlyIdle() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1, 8, TARGET);
+        acquire(limiter, 1);
+
+        limiter.release(FAST, false);
+
+        assertThat(limiter.getLimit()).isEqualTo(4);
+    }
+
+    @Test
+    void growthStopsAtTheMaximum() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1, 8, TARGET);
+        for (int i = 0; i < 20; i++) {
+            acquire(limiter, limiter.getLimit());
+            for (int j = limiter.getInFlight(); j > 0; j--) {
+                limiter.release(FAST, false);
+            }
+        }
+
+        assertThat(limiter.getLimit()).isEqualTo(8);
+    }
+
+    @Test
+    void backsOffMultiplicativelyForSlowAndFailedCalls() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1, 20, TARGET);
+        acquire(limiter, 2);
+
+        limiter.release(SLOW, false);
+        assertThat(limiter.getLimit()).isEqualTo(9);
+
+        limiter.release(FAST, true);
+        assertThat(limiter.getLimit()).isEqualTo(8);
+    }
+
+    @Test
+    void backoffStopsAtTheMinimum() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(2, 8, TARGET);
+        for (int i = 0; i < 30; i++) {
+            acquire(limiter, 1);
+            limiter.release(SLOW, false);
+        }
+
+        assertThat(limiter.getLimit()).isEqualTo(2);
+    }
+
+    @Test
+    void callersOverTheLimitWaitThenGiveUp() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1, 1, TARGET);
+        acquire(limiter, 1);
+
+        assertThat(limiter.tryAcquire(TimeUnit.MILLISECONDS.toNanos(20))).isFalse();
+
+        CompletableFuture<Boolean> waiter = CompletableFuture.supplyAsync(() -> {
+            try {
+                return limiter.tryAcquire(TimeUnit.SECONDS.toNanos(5));
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(50);
+        limiter.release(FAST, false);
+
+        assertThat(waiter.get(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(limiter.getInFlight()).isEqualTo(1);
+    }
+
+    private static void acquire(AdaptiveLimiter limiter, int permits) throws InterruptedException {
+        for (int i = 0; i < permits; i++) {
+            assertThat(limiter.tryAcquire(0)).isTrue();
+        }
+    }
+}
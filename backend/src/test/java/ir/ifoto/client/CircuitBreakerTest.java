@@ -0,0 +1,127 @@
+package ir.ifoto.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CircuitBreakerTest {
+
+    private static final Duration OPEN_DURATION = Duration.ofMillis(100);
+
+    // The application defaults: 20-call window, 10 calls minimum, 50% failures, 2 trial calls
+    private final CircuitBreaker breaker = new CircuitBreaker(20, 10, 0.5, OPEN_DURATION, 2);
+
+    @Test
+    void staysClosedUntilTheMinimumNumberOfCalls() {
+        record(9, true);
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(breaker.getFailureRate()).isEqualTo(1.0);
+
+        record(1, true);
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.getOpens()).isEqualTo(1);
+    }
+
+    @Test
+    void opensWhenHalfOfTenCallsFail() {
+        record(5, false);
+        record(4, true);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+
+        record(1, true);
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    void staysClosedBelowTheFailureRate() {
+        record(6, false);
+        record(4, true);
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(breaker.getFailureRate()).isEqualTo(0.4);
+    }
+
+    @Test
+    void oldCallsLeaveTheWindow() {
+        record(4, true);
+        record(20, false);
+        assertThat(breaker.getFailureRate()).isZero();
+
+        // 9 of the last 20 fail; counting the 4 that left the window would open the circuit
+        record(9, true);
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(breaker.getFailureRate()).isEqualTo(0.45);
+    }
+
+    @Test
+    void deniesCallsWhileOpenThenLetsTrialsThrough() throws InterruptedException {
+        record(10, true);
+
+        assertThat(breaker.tryAcquirePermission()).isEqualTo(CircuitBreaker.Permission.DENIED);
+        assertThat(breaker.retryAfter()).isPositive().isLessThanOrEqualTo(OPEN_DURATION);
+
+        Thread.sleep(OPEN_DURATION.toMillis() + 20);
+
+        CircuitBreaker.Permission first = breaker.tryAcquirePermission();
+        CircuitBreaker.Permission second = breaker.tryAcquirePermission();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(first).isEqualTo(CircuitBreaker.Permission.TRIAL);
+        assertThat(second).isEqualTo(CircuitBreaker.Permission.TRIAL);
+        // Only the configured number of trial calls at a time
+        assertThat(breaker.tryAcquirePermission()).isEqualTo(CircuitBreaker.Permission.DENIED);
+
+        breaker.onResult(first, false);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        breaker.onResult(second, false);
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(breaker.getFailureRate()).isZero();
+        assertThat(breaker.tryAcquirePermission()).isEqualTo(CircuitBreaker.Permission.CALL);
+    }
+
+    @Test
+    void failedTrialReopens() throws InterruptedException {
+        record(10, true);
+        Thread.sleep(OPEN_DURATION.toMillis() + 20);
+
+        breaker.onResult(breaker.tryAcquirePermission(), true);
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.getOpens()).isEqualTo(2);
+        assertThat(breaker.tryAcquirePermission()).isEqualTo(CircuitBreaker.Permission.DENIED);
+    }
+
+    @Test
+    void abandonedTrialFreesItsSlot() throws InterruptedException {
+        record(10, true);
+        Thread.sleep(OPEN_DURATION.toMillis() + 20);
+        CircuitBreaker.Permission first = breaker.tryAcquirePermission();
+        breaker.tryAcquirePermission();
+
+        breaker.onAbandoned(first);
+
+        assertThat(breaker.tryAcquirePermission()).isEqualTo(CircuitBreaker.Permission.TRIAL);
+    }
+
+    @Test
+    void lateResultsWhileOpenAreIgnored() {
+        CircuitBreaker.Permission late = breaker.tryAcquirePermission();
+        record(10, true);
+
+        breaker.onResult(late, false);
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    private void record(int calls, boolean failed) {
+        for (int i = 0; i < calls; i++) {
+            breaker.onResult(breaker.tryAcquirePermission(), failed);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package ir.ifoto.client;
+
+import com.sun.net.httpserver.HttpServer;
+import ir.ifoto.config.RestTemplateConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.core.io.AbstractResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Extraction streams the stored original into the multipart request: sending several large
+ * images to a local stub of the face service allocates a small fraction of the bytes sent, and
+ * the image is never read into a byte array.
+ */
+class FaceServiceClientMemoryTest {
+
+    private static final int FILE_SIZE = 32 * 1024 * 1024;
+    private static final int CONCURRENT_REQUESTS = 2;
+    // All requests together must allocate less than one copy of a single image
+    private static final long ALLOCATION_BUDGET = FILE_SIZE;
+    private static final Duration RESPONSE_TIMEOUT = Duration.ofSeconds(30);
+    private static final FaceServiceGuard.CircuitBreakerSettings BREAKER =
+            new FaceServiceGuard.CircuitBreakerSettings(8, 4, 0.5, Duration.ofSeconds(30), 1);
+
+    @TempDir
+    Path tempDir;
+
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final AtomicLong receivedBytes = new AtomicLong();
+    private HttpServer server;
+    private ExecutorService handlers;
+    private FaceServiceConnectionManager extractionConnections;
+    private FaceServiceConnectionManager searchConnections;
+    private FaceServiceClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        handlers = Executors.newCachedThreadPool();
+        server.setExecutor(handlers);
+        server.createContext("/api/face/extract", exchange -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                receivedBytes.addAndGet(in.transferTo(OutputStream.nullOutputStream()));
+                byte[] response = "{\"face_count\":0,\"embeddings\":[]}".getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, response.length);
+                exchange.getResponseBody().write(response);
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+
+        RestTemplateConfig config = new RestTemplateConfig(RESPONSE_TIMEOUT.toMillis(), RESPONSE_TIMEOUT,
+                Duration.ofSeconds(1), Duration.ofSeconds(30));
+        extractionConnections = config.faceExtractionConnections(CONCURRENT_REQUESTS);
+        searchConnections = config.faceSearchConnections(1);
+        client = new FaceServiceClient(
+                config.faceExtractionRestTemplate(new RestTemplateBuilder(), extractionConnections),
+                config.faceSearchRestTemplate(new RestTemplateBuilder(), searchConnections),
+                new FaceServiceGuard("extraction", CONCURRENT_REQUESTS, CONCURRENT_REQUESTS,
+                        Duration.ofSeconds(1), RESPONSE_TIMEOUT, RESPONSE_TIMEOUT, BREAKER),
+                new FaceServiceGuard("search", 1, 1, Duration.ofSeconds(1), RESPONSE_TIMEOUT,
+                        RESPONSE_TIMEOUT, BREAKER),
+                "http://127.0.0.1:" + server.getAddress().getPort());
+    }
+
+    @AfterEach
+    void tearDown() {
+        extractionConnections.close();
+        searchConnections.close();
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+
+    @Test
+    void concurrentExtractionsOfLargeImagesAllocateFarLessThanTheySend() throws Exception {
+        List<StoredImage> images = storedImages(CONCURRENT_REQUESTS);
+        ExecutorService callers = Executors.newFixedThreadPool(CONCURRENT_REQUESTS);
+        try {
+            long allocated = allocatedBytesDuring(() -> {
+                List<Future<?>> extractions = new ArrayList<>();
+                for (int i = 0; i < images.size(); i++) {
+                    StoredImage image = images.get(i);
+                    long photoId = i + 1;
+                    extractions.add(callers.submit(() -> client.extractEmbeddings(image, photoId, 1L)));
+                }
+                for (Future<?> extraction : extractions) {
+                    extraction.get();
+                }
+            });
+
+            // The multipart body carries each image plus its part headers and the id fields
+            assertThat(receivedBytes.get()).isGreaterThan((long) FILE_SIZE * CONCURRENT_REQUESTS);
+            assertThat(allocated).isLessThan(ALLOCATION_BUDGET);
+        } finally {
+            callers.shutdown();
+        }
+    }
+
+    /**
+     * Bytes allocated by all threads, the stub's included, while the work runs; a request that
+     * buffered its image would allocate at least {@code FILE_SIZE} on its own
+     */
+    private long allocatedBytesDuring(ThrowingRunnable work) throws Exception {
+        long before = threads.getTotalThreadAllocatedBytes();
+        work.run();
+        return threads.getTotalThreadAllocatedBytes() - before;
+    }
+
+    private List<StoredImage> storedImages(int count) throws IOException {
+        Random random = new Random(42);
+        byte[] chunk = new byte[64 * 1024];
+        List<StoredImage> images = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Path path = tempDir.resolve("original-" + i + ".jpg");
+            try (OutputStream out = Files.newOutputStream(path)) {
+                for (int written = 0; written < FILE_SIZE; written += chunk.length) {
+                    random.nextBytes(chunk);
+                    out.write(chunk);
+                }
+            }
+            images.add(new StoredImage(path));
+        }
+        return images;
+    }
+
+    @FunctionalInterface
+    private interface ThrowingRunnable {
+        void run() throws Exception;
+    }
+
+    /**
+     * Like the resource StorageService.loadAsResource hands out: a stream with a known length,
+     * that fails the test if anything asks for its content as a byte array
+     */
+    private static class StoredImage extends AbstractResource {
+
+        private final Path path;
+
+        StoredImage(Path path) {
+            this.path = path;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return Files.newInputStream(path);
+        }
+
+        @Override
+        public String getFilename() {
+            return path.getFileName().toString();
+        }
+
+        @Override
+        public long contentLength() {
+            return FILE_SIZE;
+        }
+
+        @Override
+        public byte[] getContentAsByteArray() {
+            throw new AssertionError("Image read into memory");
+        }
+
+        @Override
+        public String getDescription() {
+            return "Stored image [" + path + "]";
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package ir.ifoto.client;
+
+import com.sun.net.httpserver.HttpServer;
+import ir.ifoto.config.RestTemplateConfig;
+import ir.ifoto.exception.FaceServiceUnavailableException;
+import ir.ifoto.exception.NoFaceDetectedException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * The client against a local stub of the face service that can answer with errors or slowly.
+ * The breaker opens after 4 calls here, against 10 in the application defaults, to keep the
+ * timeout cases short.
+ */
+class FaceServiceClientTest {
+
+    private static final Duration RESPONSE_TIMEOUT = Duration.ofMillis(300);
+    private static final Duration SLOW_CALL = Duration.ofMillis(150);
+    private static final FaceServiceGuard.CircuitBreakerSettings BREAKER =
+            new FaceServiceGuard.CircuitBreakerSettings(8, 4, 0.5, Duration.ofSeconds(30), 1);
+
+    private HttpServer server;
+    private ExecutorService handlers;
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile int status = 200;
+    private volatile long delayMillis;
+    private volatile String body = "{}";
+
+    private FaceServiceConnectionManager extractionConnections;
+    private FaceServiceConnectionManager searchConnections;
+    private FaceServiceGuard searchGuard;
+    private FaceServiceClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        handlers = Executors.newCachedThreadPool();
+        server.setExecutor(handlers);
+        server.createContext("/api/face", exchange -> {
+            requests.incrementAndGet();
+            try (InputStream in = exchange.getRequestBody()) {
+                in.readAllBytes();
+            }
+            try {
+                Thread.sleep(delayMillis);
+                byte[] response = body.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(status, response.length);
+                exchange.getResponseBody().write(response);
+            } catch (InterruptedException | IOException e) {
+                // The client gave up on a slow answer
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+
+        RestTemplateConfig config = new RestTemplateConfig(RESPONSE_TIMEOUT.toMillis(), RESPONSE_TIMEOUT,
+                Duration.ofSeconds(1), Duration.ofSeconds(30));
+        extractionConnections = config.faceExtractionConnections(2);
+        searchConnections = config.faceSearchConnections(4);
+        searchGuard = new FaceServiceGuard("search", 2, 8, Duration.ofSeconds(1), Duration.ofMillis(200),
+                SLOW_CALL, BREAKER);
+        client = new FaceServiceClient(
+                config.faceExtractionRestTemplate(new RestTemplateBuilder(), extractionConnections),
+                config.faceSearchRestTemplate(new RestTemplateBuilder(), searchConnections),
+                new FaceServiceGuard("extraction", 1, 2, Duration.ofSeconds(1), Duration.ofSeconds(1),
+                        SLOW_CALL, BREAKER),
+                searchGuard,
+                "http://127.0.0.1:" + server.getAddress().getPort());
+    }
+
+    @AfterEach
+    void tearDown() {
+        extractionConnections.close();
+        searchConnections.close();
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+
+    @Test
+    void queryEmbeddingIsReadFromSnakeCase() {
+        body = "{\"face_count\":1,\"embedding\":[0.5,-0.25],\"bbox\":[10,20,110,140],\"confidence\":0.98}";
+
+        FaceServiceClient.QueryEmbedding embedding = client.embedQuery(image());
+
+        assertThat(embedding.faceCount()).isEqualTo(1);
+        assertThat(embedding.embedding()).containsExactly(0.5f, -0.25f);
+        assertThat(embedding.bbox()).containsExactly(10, 20, 110, 140);
+    }
+
+    @Test
+    void rejectedQueryImageIsNoFaceAndLeavesTheCircuitClosed() {
+        status = 400;
+        body = "{\"detail\":\"No face detected\"}";
+
+        for (int i = 0; i < 10; i++) {
+            assertThatThrownBy(() -> client.embedQuery(image())).isInstanceOf(NoFaceDetectedException.class);
+        }
+
+        assertThat(requests).hasValue(10);
+        assertThat(searchGuard.getStats()).containsEntry("circuit", "CLOSED").containsEntry("failures", 0L);
+    }
+
+    @Test
+    void serverErrorsOpenTheCircuit() {
+        status = 500;
+
+        for (int i = 0; i < 4; i++) {
+            assertThatThrownBy(() -> client.searchByVector(new float[]{1, 0}, 1L, 10, 0.6f))
+                    .isInstanceOf(RuntimeException.class)
+                    .isNotInstanceOf(FaceServiceUnavailableException.class);
+        }
+        assertThatThrownBy(() -> client.searchByVector(new float[]{1, 0}, 1L, 10, 0.6f))
+                .isInstanceOf(FaceServiceUnavailableException.class);
+
+        // The last call never reached the service
+        assertThat(requests).hasValue(4);
+    }
+
+    @Test
+    void responsesPastTheTimeoutFailAndOpenTheCircuit() {
+        delayMillis = RESPONSE_TIMEOUT.toMillis() * 2;
+
+        for (int i = 0; i < 4; i++) {
+            assertThatThrownBy(() -> client.embedQuery(image()))
+                    .isInstanceOf(RuntimeException.class)
+                    .hasCauseInstanceOf(ResourceAccessException.class);
+        }
+
+        assertThatThrownBy(() -> client.embedQuery(image())).isInstanceOf(FaceServiceUnavailableException.class);
+        assertThat(requests).hasValue(4);
+    }
+
+    @Test
+    void slowAnswersAreReturnedButOpenTheCircuit() {
+        delayMillis = SLOW_CALL.toMillis() + 50;
+        body = "{\"matches\":[],\"total_matches\":0}";
+
+        for (int i = 0; i < 4; i++) {
+            assertThat(client.searchByVector(new float[]{1, 0}, 1L, 10, 0.6f).totalMatches()).isZero();
+        }
+
+        assertThat(searchGuard.getStats())
+                .containsEntry("circuit", "OPEN")
+                .containsEntry("slowCalls", 4L);
+        assertThatThrownBy(() -> client.searchByVector(new float[]{1, 0}, 1L, 10, 0.6f))
+                .isInstanceOf(FaceServiceUnavailableException.class);
+    }
+
+    private static Resource image() {
+        return new ByteArrayResource(new byte[1024]) {
+            @Override
+            public String getFilename() {
+                return "query.jpg";
+            }
+        };
+    }
+}
@@ -0,0 +1,127 @@
+package ir.ifoto.client;
+
+import com.sun.net.httpserver.HttpServer;
+import ir.ifoto.config.RestTemplateConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Calls through the pooled face service template against a local keep-alive stub reuse their
+ * connections instead of opening one per request.
+ */
+class FaceServiceConnectionManagerTest {
+
+    private static final int CALLS = 50;
+    private static final int MAX_CONNECTIONS = 4;
+
+    private HttpServer server;
+    private ExecutorService handlers;
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private FaceServiceConnectionManager connections;
+    private RestTemplate restTemplate;
+    private String baseUrl;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        handlers = Executors.newFixedThreadPool(MAX_CONNECTIONS);
+        server.setExecutor(handlers);
+        server.createContext("/api/face/search", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            try (InputStream body = exchange.getRequestBody()) {
+                body.readAllBytes();
+            }
+            byte[] response = "{\"matches\":[],\"total_matches\":0}".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, response.length);
+            exchange.getResponseBody().write(response);
+            exchange.close();
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        RestTemplateConfig config = new RestTemplateConfig(60000, Duration.ofSeconds(15),
+                Duration.ofSeconds(10), Duration.ofSeconds(30));
+        connections = config.faceSearchConnections(MAX_CONNECTIONS);
+        restTemplate = config.faceSearchRestTemplate(new RestTemplateBuilder(), connections);
+    }
+
+    @AfterEach
+    void tearDown() {
+        connections.close();
+        server.stop(0);
+        handlers.shutdown();
+    }
+
+    @Test
+    void sequentialCallsShareOneConnection() {
+        for (int i = 0; i < CALLS; i++) {
+            restTemplate.postForObject(baseUrl + "/api/face/search", upload(), String.class);
+        }
+
+        Map<String, Object> stats = connections.getStats();
+        assertThat(stats.get("leases")).isEqualTo((long) CALLS);
+        assertThat(stats.get("connects")).isEqualTo(1L);
+        assertThat(clientPorts).hasSize(1);
+    }
+
+    @Test
+    void concurrentCallsOpenAtMostThePoolSize() throws Exception {
+        ExecutorService callers = Executors.newFixedThreadPool(MAX_CONNECTIONS * 2);
+        try {
+            List<Future<String>> calls = new ArrayList<>();
+            for (int i = 0; i < CALLS; i++) {
+                calls.add(callers.submit(() ->
+                        restTemplate.postForObject(baseUrl + "/api/face/search", upload(), String.class)));
+            }
+            for (Future<String> call : calls) {
+                call.get();
+            }
+        } finally {
+            callers.shutdown();
+        }
+
+        Map<String, Object> stats = connections.getStats();
+        assertThat(stats.get("leases")).isEqualTo((long) CALLS);
+        assertThat((long) stats.get("connects")).isLessThanOrEqualTo(MAX_CONNECTIONS);
+        assertThat(clientPorts).hasSizeLessThanOrEqualTo(MAX_CONNECTIONS);
+    }
+
+    private static HttpEntity<MultiValueMap<String, Object>> upload() {
+        MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+        body.add("file", new ByteArrayResource(new byte[4096]) {
+            @Override
+            public String getFilename() {
+                return "query.jpg";
+            }
+        });
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+        return new HttpEntity<>(body, headers);
+    }
+}
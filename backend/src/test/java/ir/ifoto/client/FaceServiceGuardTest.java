@@ -0,0 +1,124 @@
+package ir.ifoto.client;
+
+import ir.ifoto.exception.FaceServiceUnavailableException;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FaceServiceGuardTest {
+
+    private static final FaceServiceGuard.CircuitBreakerSettings BREAKER =
+            new FaceServiceGuard.CircuitBreakerSettings(20, 10, 0.5, Duration.ofSeconds(30), 2);
+
+    private final AtomicInteger reached = new AtomicInteger();
+
+    @Test
+    void clientErrorsDoNotCountAsFailures() {
+        FaceServiceGuard guard = guard(Duration.ofSeconds(5));
+
+        for (int i = 0; i < 20; i++) {
+            assertThatThrownBy(() -> guard.call(() -> {
+                reached.incrementAndGet();
+                throw HttpClientErrorException.create(HttpStatus.BAD_REQUEST, "No face", null, null, null);
+            })).isInstanceOf(HttpClientErrorException.BadRequest.class);
+        }
+
+        assertThat(guard.getStats())
+                .containsEntry("circuit", "CLOSED")
+                .containsEntry("failures", 0L)
+                .containsEntry("calls", 20L);
+    }
+
+    @Test
+    void serverErrorsOpenTheCircuitAndLaterCallsFailFast() {
+        FaceServiceGuard guard = guard(Duration.ofSeconds(5));
+        for (int i = 0; i < 10; i++) {
+            assertThatThrownBy(() -> guard.call(() -> {
+                reached.incrementAndGet();
+                throw new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR);
+            })).isInstanceOf(HttpServerErrorException.class);
+        }
+
+        assertThatThrownBy(() -> guard.call(() -> reached.incrementAndGet()))
+                .isInstanceOf(FaceServiceUnavailableException.class)
+                .satisfies(e -> assertThat(((FaceServiceUnavailableException) e).getRetryAfter()).isPositive());
+
+        assertThat(reached).hasValue(10);
+        assertThat(guard.getStats())
+                .containsEntry("circuit", "OPEN")
+                .containsEntry("failures", 10L)
+                .containsEntry("rejectedOpen", 1L);
+    }
+
+    @Test
+    void timeoutsCountAsFailures() {
+        FaceServiceGuard guard = guard(Duration.ofSeconds(5));
+
+        for (int i = 0; i < 10; i++) {
+            assertThatThrownBy(() -> guard.call(() -> {
+                throw new ResourceAccessException("Read timed out", new SocketTimeoutException());
+            })).isInstanceOf(ResourceAccessException.class);
+        }
+
+        assertThat(guard.getStats()).containsEntry("circuit", "OPEN");
+    }
+
+    @Test
+    void slowSuccessfulCallsOpenTheCircuit() {
+        FaceServiceGuard guard = guard(Duration.ofMillis(1));
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(guard.call(() -> {
+                sleep(5);
+                return "ok";
+            })).isEqualTo("ok");
+        }
+
+        assertThat(guard.getStats())
+                .containsEntry("circuit", "OPEN")
+                .containsEntry("failures", 0L)
+                .containsEntry("slowCalls", 10L);
+    }
+
+    @Test
+    void callsOverTheConcurrencyLimitAreTurnedAway() throws InterruptedException {
+        FaceServiceGuard guard = new FaceServiceGuard("test", 1, 1, Duration.ofSeconds(1),
+                Duration.ofMillis(20), Duration.ofSeconds(5), BREAKER);
+        Thread holder = Thread.ofPlatform().start(() -> guard.call(() -> {
+            sleep(300);
+            return null;
+        }));
+        sleep(50);
+
+        assertThatThrownBy(() -> guard.call(() -> reached.incrementAndGet()))
+                .isInstanceOf(FaceServiceUnavailableException.class)
+                .hasMessageContaining("busy");
+        holder.join();
+
+        assertThat(reached).hasValue(0);
+        assertThat(guard.getStats())
+                .containsEntry("rejectedBusy", 1L)
+                .containsEntry("circuit", "CLOSED");
+    }
+
+    private static FaceServiceGuard guard(Duration slowCall) {
+        return new FaceServiceGuard("test", 2, 8, Duration.ofSeconds(1), Duration.ofMillis(200), slowCall, BREAKER);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
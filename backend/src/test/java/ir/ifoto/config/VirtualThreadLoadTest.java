@@ -0,0 +1,133 @@
+package ir.ifoto.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Request-shaped load on a Hikari pool over H2: each operation waits on I/O without a
+ * connection (the face service or object storage), then borrows a connection for a short query.
+ * A fixed platform pool, as Tomcat's, caps the operations in flight; virtual threads do not,
+ * and Hikari's wait alone keeps them from exceeding the pool.
+ */
+class VirtualThreadLoadTest {
+
+    private static final int CONNECTIONS = 4;
+    private static final int PLATFORM_THREADS = 32;
+    private static final int OPERATIONS = 2000;
+    private static final long IO_MILLIS = 50;
+    private static final long QUERY_MILLIS = 1;
+
+    private final AtomicInteger held = new AtomicInteger();
+    private final LongAccumulator maxHeld = new LongAccumulator(Math::max, 0);
+    private final AtomicInteger timeouts = new AtomicInteger();
+    private HikariDataSource dataSource;
+    private ConnectionPoolStats stats;
+
+    @AfterEach
+    void tearDown() {
+        dataSource.close();
+    }
+
+    @Test
+    void virtualThreadsOutrunAPlatformPoolWithoutExceedingTheConnections() throws Exception {
+        start(30_000);
+        Result platform = run(Executors.newFixedThreadPool(PLATFORM_THREADS));
+        Result virtual = run(Executors.newVirtualThreadPerTaskExecutor());
+        System.out.printf("platform: %.0f ops/s, p99 %d ms%nvirtual: %.0f ops/s, p99 %d ms, avg wait %s ms%n",
+                platform.opsPerSecond(), platform.p99Millis(), virtual.opsPerSecond(), virtual.p99Millis(),
+                stats.getStats().get("avgWaitMs"));
+
+        assertThat(virtual.opsPerSecond()).isGreaterThan(platform.opsPerSecond());
+        assertThat(maxHeld.get()).isLessThanOrEqualTo(CONNECTIONS);
+        assertThat(timeouts).hasValue(0);
+        assertThat(stats.getStats()).containsEntry("acquired", (long) OPERATIONS * 2);
+    }
+
+    @Test
+    void borrowersGiveUpAfterOneConnectionTimeout() throws Exception {
+        long connectionTimeout = 250;
+        start(connectionTimeout);
+
+        // Far more demand than 4 connections serve in 250 ms, so some borrowers time out
+        Result virtual = run(Executors.newVirtualThreadPerTaskExecutor(), 0, 20);
+
+        assertThat(timeouts.get()).isPositive();
+        assertThat(stats.getStats()).containsEntry("timeouts", (long) timeouts.get());
+        // One bounded wait, not a wait in front of the pool followed by another inside it
+        assertThat(virtual.maxMillis()).isLessThan(connectionTimeout * 2);
+        assertThat(maxHeld.get()).isLessThanOrEqualTo(CONNECTIONS);
+    }
+
+    private void start(long connectionTimeoutMillis) {
+        stats = new ConnectionPoolStats();
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:h2:mem:load;DB_CLOSE_DELAY=-1");
+        dataSource.setMaximumPoolSize(CONNECTIONS);
+        dataSource.setMinimumIdle(CONNECTIONS);
+        dataSource.setConnectionTimeout(connectionTimeoutMillis);
+        dataSource.setMetricsTrackerFactory(stats);
+    }
+
+    private Result run(ExecutorService executor) throws Exception {
+        return run(executor, IO_MILLIS, QUERY_MILLIS);
+    }
+
+    private Result run(ExecutorService executor, long ioMillis, long queryMillis) throws Exception {
+        long[] latencies = new long[OPERATIONS];
+        long start = System.nanoTime();
+        try (executor) {
+            List<Future<?>> operations = new ArrayList<>(OPERATIONS);
+            for (int i = 0; i < OPERATIONS; i++) {
+                int index = i;
+                long submitted = System.nanoTime();
+                operations.add(executor.submit(() -> {
+                    operation(ioMillis, queryMillis);
+                    latencies[index] = System.nanoTime() - submitted;
+                    return null;
+                }));
+            }
+            for (Future<?> operation : operations) {
+                operation.get(1, TimeUnit.MINUTES);
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Arrays.sort(latencies);
+        return new Result(OPERATIONS / seconds,
+                TimeUnit.NANOSECONDS.toMillis(latencies[(int) (OPERATIONS * 0.99)]),
+                TimeUnit.NANOSECONDS.toMillis(latencies[OPERATIONS - 1]));
+    }
+
+    private void operation(long ioMillis, long queryMillis) throws InterruptedException, SQLException {
+        Thread.sleep(ioMillis);
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            maxHeld.accumulate(held.incrementAndGet());
+            try {
+                statement.execute("SELECT 1");
+                Thread.sleep(queryMillis);
+            } finally {
+                held.decrementAndGet();
+            }
+        } catch (SQLTransientConnectionException e) {
+            timeouts.incrementAndGet();
+        }
+    }
+
+    private record Result(double opsPerSecond, long p99Millis, long maxMillis) {}
+}
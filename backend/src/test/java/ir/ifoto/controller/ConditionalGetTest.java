@@ -0,0 +1,144 @@
+package ir.ifoto.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ir.ifoto.dto.EventResponse;
+import ir.ifoto.exception.GlobalExceptionHandler;
+import ir.ifoto.exception.ResourceNotFoundException;
+import ir.ifoto.repository.EventRepository;
+import ir.ifoto.repository.FaceEmbeddingRepository;
+import ir.ifoto.repository.PhotoRepository;
+import ir.ifoto.search.FaceIndexService;
+import ir.ifoto.service.EventCounterService;
+import ir.ifoto.service.EventService;
+import ir.ifoto.service.FaceExtractionService;
+import ir.ifoto.service.FaceSearchService;
+import ir.ifoto.service.GalleryVersionService;
+import ir.ifoto.service.PhotoService;
+import ir.ifoto.service.RenditionService;
+import ir.ifoto.service.StorageService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Limit;
+import org.springframework.http.HttpHeaders;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class ConditionalGetTest {
+
+    private final EventRepository eventRepository = mock(EventRepository.class);
+    private final PhotoRepository photoRepository = mock(PhotoRepository.class);
+    private final EventService eventService = mock(EventService.class);
+    private final GalleryVersionService galleryVersionService =
+            new GalleryVersionService(eventRepository, Duration.ofMinutes(1));
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        PhotoService photoService = new PhotoService(photoRepository, eventRepository,
+                mock(FaceEmbeddingRepository.class), mock(StorageService.class), mock(FaceExtractionService.class),
+                mock(RenditionService.class), mock(EventCounterService.class), mock(FaceIndexService.class),
+                mock(PlatformTransactionManager.class), new ObjectMapper(), mock(ThreadPoolTaskExecutor.class));
+        ReflectionTestUtils.setField(photoService, "defaultPageSize", 60);
+        ReflectionTestUtils.setField(photoService, "maxPageSize", 200);
+
+        when(eventRepository.existsById(1L)).thenReturn(true);
+        when(photoRepository.findGalleryPage(anyLong(), any(Limit.class))).thenReturn(List.of());
+        when(photoRepository.findGalleryPageAfter(anyLong(), any(), anyLong(), any(Limit.class))).thenReturn(List.of());
+
+        mockMvc = MockMvcBuilders
+                .standaloneSetup(
+                        new PhotoController(photoService, mock(FaceSearchService.class),
+                                mock(FaceExtractionService.class), galleryVersionService),
+                        new EventController(eventService, galleryVersionService))
+                .setControllerAdvice(new GlobalExceptionHandler())
+                .build();
+    }
+
+    @Test
+    void unknownEventIsNotFoundEvenWithAnEtag() throws Exception {
+        String etag = galleryVersionService.galleryEtag(404L, "first-60");
+
+        mockMvc.perform(get("/api/photos/events/404").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotFound())
+                .andExpect(header().doesNotExist(HttpHeaders.ETAG));
+    }
+
+    @Test
+    void eachCursorAndSizeHasItsOwnEtag() throws Exception {
+        String cursor = Base64.getUrlEncoder().withoutPadding()
+                .encodeToString("2026-10-01T12:00|42".getBytes());
+
+        String first = etag("/api/photos/events/1");
+        String smaller = etag("/api/photos/events/1?size=10");
+        String next = etag("/api/photos/events/1?cursor=" + cursor);
+        assertThat(List.of(first, smaller, next)).doesNotHaveDuplicates();
+
+        mockMvc.perform(get("/api/photos/events/1?size=10").header(HttpHeaders.IF_NONE_MATCH, smaller))
+                .andExpect(status().isNotModified());
+        mockMvc.perform(get("/api/photos/events/1?cursor=" + cursor).header(HttpHeaders.IF_NONE_MATCH, first))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void malformedCursorIsRejectedBeforeAnyValidator() throws Exception {
+        mockMvc.perform(get("/api/photos/events/1?cursor=not*a*cursor"))
+                .andExpect(status().isBadRequest())
+                .andExpect(header().doesNotExist(HttpHeaders.ETAG));
+    }
+
+    @Test
+    void photographerRenameChangesEventEtag() throws Exception {
+        EventResponse event = event(LocalDateTime.of(2026, 10, 1, 9, 0));
+        when(eventService.getEventBySlug("wedding")).thenReturn(event);
+        String before = etag("/api/events/public/wedding");
+
+        event.setPhotographerName("Renamed Photographer");
+        event.setPhotographerUpdatedAt(LocalDateTime.of(2026, 10, 2, 9, 0));
+
+        mockMvc.perform(get("/api/events/public/wedding").header(HttpHeaders.IF_NONE_MATCH, before))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void unknownSlugIsNotFound() throws Exception {
+        when(eventService.getEventBySlug("missing")).thenThrow(new ResourceNotFoundException("Event not found"));
+
+        mockMvc.perform(get("/api/events/public/missing"))
+                .andExpect(status().isNotFound());
+    }
+
+    private String etag(String url) throws Exception {
+        String etag = mockMvc.perform(get(url))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertThat(etag).isNotBlank();
+        return etag;
+    }
+
+    private static EventResponse event(LocalDateTime photographerUpdatedAt) {
+        EventResponse event = new EventResponse();
+        event.setId(7L);
+        event.setSlug("wedding");
+        event.setPhotographerName("Photographer");
+        event.setUpdatedAt(LocalDateTime.of(2026, 9, 1, 9, 0));
+        event.setPhotographerUpdatedAt(photographerUpdatedAt);
+        return event;
+    }
+}
@@ -0,0 +1,34 @@
+package ir.ifoto.exception;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GlobalExceptionHandlerTest {
+
+    private final GlobalExceptionHandler handler = new GlobalExceptionHandler();
+
+    @Test
+    void badRequestExceptionMapsTo400WithItsMessage() {
+        var response = handler.handleBadRequestException(new BadRequestException("Invalid cursor"));
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(response.getBody()).containsEntry("message", "Invalid cursor");
+    }
+
+    @Test
+    void queryImageWithoutFaceMapsTo422() {
+        var response = handler.handleNoFaceDetectedException(new NoFaceDetectedException("No face detected"));
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY);
+    }
+
+    @Test
+    void libraryIllegalArgumentExceptionIsNotReportedAsClientError() {
+        var response = handler.handleGlobalException(new IllegalArgumentException("Unknown bean property"));
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.INTERNAL_SERVER_ERROR);
+        assertThat(response.getBody()).containsEntry("message", "An unexpected error occurred");
+    }
+}
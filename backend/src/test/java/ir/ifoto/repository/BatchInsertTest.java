@@ -0,0 +1,123 @@
+package ir.ifoto.repository;
+
+import ir.ifoto.model.Event;
+import ir.ifoto.model.FaceEmbedding;
+import ir.ifoto.model.Photo;
+import ir.ifoto.security.PrincipalCache;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * saveAll of many new rows goes out as JDBC batches of hibernate.jdbc.batch_size, which the
+ * pooled sequence ids allow. Runs on H2 with the application's JPA settings.
+ */
+@DataJpaTest(properties = {
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "spring.sql.init.mode=never"
+})
+class BatchInsertTest {
+
+    private static final int ROWS = 120;
+    private static final int BATCH_SIZE = 50;
+
+    // Needed by the User entity listener
+    @MockitoBean
+    private PrincipalCache principalCache;
+
+    @Autowired
+    private PhotoRepository photoRepository;
+
+    @Autowired
+    private FaceEmbeddingRepository faceEmbeddingRepository;
+
+    @Autowired
+    private EventRepository eventRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+    private Event event;
+
+    @BeforeEach
+    void setUp() {
+        event = new Event();
+        event.setName("Wedding");
+        event.setSlug("wedding");
+        event.setEventDate(LocalDate.of(2026, 10, 1));
+        event = eventRepository.saveAndFlush(event);
+
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+    }
+
+    @Test
+    void photosAreInsertedInBatches() {
+        List<Photo> photos = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            photos.add(photo(i));
+        }
+
+        photoRepository.saveAll(photos);
+        entityManager.flush();
+
+        assertBatched();
+    }
+
+    @Test
+    void faceEmbeddingsAreInsertedInBatches() {
+        Photo photo = photoRepository.saveAndFlush(photo(0));
+        statistics.clear();
+        List<FaceEmbedding> faces = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            FaceEmbedding face = new FaceEmbedding();
+            face.setPhoto(photo);
+            face.setVectorId("face-" + i);
+            face.setFaceIndex(i);
+            face.setEmbedding(new byte[128]);
+            faces.add(face);
+        }
+
+        faceEmbeddingRepository.saveAll(faces);
+        entityManager.flush();
+
+        assertBatched();
+    }
+
+    /**
+     * One statement per batch plus a sequence call per 50 ids, instead of one per row
+     */
+    private void assertBatched() {
+        long batches = (ROWS + BATCH_SIZE - 1) / BATCH_SIZE;
+        assertThat(statistics.getEntityInsertCount()).isEqualTo(ROWS);
+        assertThat(statistics.getPrepareStatementCount()).isLessThanOrEqualTo(batches * 2 + 1);
+    }
+
+    private Photo photo(int i) {
+        Photo photo = new Photo();
+        photo.setEvent(event);
+        photo.setFileName("IMG_" + i + ".jpg");
+        photo.setStoragePath("photos/" + event.getId() + "/" + i + ".jpg");
+        photo.setFileSize(1024L);
+        photo.setUploadedAt(LocalDateTime.now());
+        return photo;
+    }
+}
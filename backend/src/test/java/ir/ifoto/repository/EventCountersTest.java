@@ -0,0 +1,81 @@
+package ir.ifoto.repository;
+
+import ir.ifoto.model.Event;
+import ir.ifoto.security.PrincipalCache;
+import ir.ifoto.service.GalleryVersionService;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The counter increment moves the gallery version stored with the event, which every node
+ * reads its validators from. Runs on H2 with the application's JPA settings.
+ */
+@DataJpaTest(properties = {
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.sql.init.mode=never"
+})
+class EventCountersTest {
+
+    // Needed by the User entity listener
+    @MockitoBean
+    private PrincipalCache principalCache;
+
+    @Autowired
+    private EventRepository eventRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    private Event event;
+
+    @BeforeEach
+    void setUp() {
+        event = new Event();
+        event.setName("Wedding");
+        event.setSlug("wedding");
+        event.setEventDate(LocalDate.of(2026, 10, 1));
+        event = eventRepository.saveAndFlush(event);
+    }
+
+    @Test
+    void newEventStartsAtVersionZeroChangedWhenCreated() {
+        GalleryVersionService.Stamp stamp = eventRepository.findGalleryStamp(event.getId()).orElseThrow();
+
+        assertThat(stamp.version()).isZero();
+        assertThat(stamp.changedAt()).isEqualTo(event.getCreatedAt().atZone(ZoneId.systemDefault()).toInstant());
+    }
+
+    @Test
+    void incrementMovesCountsAndVersionTogether() {
+        eventRepository.incrementCounters(event.getId(), 2, 5);
+        eventRepository.incrementCounters(event.getId(), 0, 0);
+        entityManager.clear();
+
+        Event updated = eventRepository.findById(event.getId()).orElseThrow();
+        assertThat(updated.getPhotoCount()).isEqualTo(2);
+        assertThat(updated.getFaceCount()).isEqualTo(5);
+        assertThat(updated.getGalleryVersion()).isEqualTo(2);
+        assertThat(eventRepository.findGalleryStamp(event.getId()).orElseThrow().changedAt())
+                .isAfterOrEqualTo(event.getCreatedAt().atZone(ZoneId.systemDefault()).toInstant());
+    }
+
+    @Test
+    void savingAStaleEventKeepsTheVersion() {
+        // The managed entity still holds version 0 when the increment lands
+        eventRepository.incrementCounters(event.getId(), 1, 0);
+        event.setName("Renamed");
+        eventRepository.saveAndFlush(event);
+        entityManager.clear();
+
+        assertThat(eventRepository.findGalleryStamp(event.getId()).orElseThrow().version()).isEqualTo(1);
+    }
+}
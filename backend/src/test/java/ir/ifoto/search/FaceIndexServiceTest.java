@@ -0,0 +1,120 @@
+package ir.ifoto.search;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import ir.ifoto.model.FaceEmbedding;
+import ir.ifoto.repository.FaceEmbeddingRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class FaceIndexServiceTest {
+
+    private static final int DIM = 32;
+
+    private final FaceEmbeddingRepository repository = mock(FaceEmbeddingRepository.class);
+    private final SplittableRandom random = new SplittableRandom(3);
+
+    @Test
+    void int8SearchStaysInProcessUnlessRescoringIsEnabled() {
+        List<IndexedFace> faces = faces(1, 100);
+        when(repository.streamIndexable(1L)).thenAnswer(invocation -> faces.stream());
+        FaceIndexService service = service(true, false, 1_000_000);
+
+        Optional<List<IndexMatch>> matches = service.search(1L, toFloats(faces.get(7)), 5, 0.5f);
+
+        assertThat(matches).isPresent();
+        assertThat(matches.get()).isNotEmpty();
+        assertThat(matches.get().get(0).faceId()).isEqualTo(faces.get(7).id());
+        verify(repository, never()).findStoredVectors(anyCollection());
+    }
+
+    @Test
+    void int8SearchRescoresFromDatabaseWhenEnabled() {
+        List<IndexedFace> faces = faces(1, 100);
+        when(repository.streamIndexable(1L)).thenAnswer(invocation -> faces.stream());
+        when(repository.findStoredVectors(anyCollection())).thenAnswer(invocation -> {
+            List<Long> ids = new ArrayList<>(invocation.getArgument(0));
+            return faces.stream()
+                    .filter(face -> ids.contains(face.id()))
+                    .map(face -> new StoredVector(face.id(), face.embedding()))
+                    .toList();
+        });
+        FaceIndexService service = service(true, true, 1_000_000);
+
+        List<IndexMatch> matches = service.search(1L, toFloats(faces.get(7)), 5, 0.5f).orElseThrow();
+
+        assertThat(matches.get(0).faceId()).isEqualTo(faces.get(7).id());
+        assertThat(matches.get(0).similarity()).isCloseTo(1f, within(1e-5f));
+        verify(repository, times(1)).findStoredVectors(anyCollection());
+    }
+
+    @Test
+    void indexGrownByNewFacesIsReweighedAndEvicted() {
+        when(repository.streamIndexable(1L)).thenAnswer(invocation -> faces(1, 60).stream());
+        FaceIndexService service = service(false, false, 100);
+        service.search(1L, randomVector(), 5, 0.5f);
+        Cache<?, ?> indexes = (Cache<?, ?>) ReflectionTestUtils.getField(service, "indexes");
+        indexes.cleanUp();
+        assertThat(indexes.estimatedSize()).isEqualTo(1);
+
+        // Outside a transaction the change applies right away; 120 faces exceed max-vectors
+        List<FaceEmbedding> added = new ArrayList<>();
+        for (IndexedFace face : faces(1000, 60)) {
+            FaceEmbedding embedding = new FaceEmbedding();
+            embedding.setId(face.id());
+            embedding.setFaceIndex(face.faceIndex());
+            embedding.setEmbedding(face.embedding());
+            added.add(embedding);
+        }
+        service.replacePhoto(1L, 999L, added);
+        indexes.cleanUp();
+
+        assertThat(indexes.estimatedSize()).isZero();
+    }
+
+    private FaceIndexService service(boolean int8, boolean rescore, long maxVectors) {
+        when(repository.countByPhotoEventIdAndEmbeddingIsNull(anyLong())).thenReturn(0L);
+        return new FaceIndexService(repository, mock(PlatformTransactionManager.class),
+                mock(ThreadPoolTaskExecutor.class), true, false, 1, maxVectors, Duration.ofMinutes(30),
+                int8 ? "int8" : "none", rescore, 4, 1_000_000, 16, 100, 0, "");
+    }
+
+    private List<IndexedFace> faces(long firstId, int count) {
+        List<IndexedFace> faces = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long id = firstId + i;
+            faces.add(new IndexedFace(id, id, 0, null, null, null, null,
+                    Embeddings.toBytes(randomVector()), null));
+        }
+        return faces;
+    }
+
+    private float[] randomVector() {
+        float[] vector = new float[DIM];
+        for (int i = 0; i < DIM; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    private static float[] toFloats(IndexedFace face) {
+        return Embeddings.toFloats(face.embedding());
+    }
+}
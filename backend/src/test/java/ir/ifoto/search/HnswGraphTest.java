@@ -0,0 +1,182 @@
+package ir.ifoto.search;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Recall of graph search against brute force on seeded random vectors, and a file round trip.
+ * The graph is built once for the class.
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class HnswGraphTest {
+
+    private static final int DIM = 64;
+    private static final int NODES = 5000;
+    private static final int QUERIES = 200;
+    private static final int K = 10;
+    private static final int M = 16;
+    private static final int EF_CONSTRUCTION = 100;
+    private static final int EF_SEARCH = 100;
+    private static final double MIN_RECALL = 0.95;
+
+    @TempDir
+    Path tempDir;
+
+    private final VectorOps ops = new ScalarVectorOps();
+    private float[][] vectors;
+    private float[][] queries;
+    private HnswGraph.Scorer scorer;
+    private HnswGraph graph;
+
+    @BeforeAll
+    void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        vectors = new float[NODES][];
+        for (int i = 0; i < NODES; i++) {
+            vectors[i] = randomUnitVector(random);
+        }
+        // Queries near stored vectors, like a selfie near the faces of the same person
+        queries = new float[QUERIES][];
+        for (int q = 0; q < QUERIES; q++) {
+            float[] base = vectors[random.nextInt(NODES)];
+            float[] noise = randomUnitVector(random);
+            float[] query = new float[DIM];
+            for (int i = 0; i < DIM; i++) {
+                query[i] = base[i] + 0.5f * noise[i];
+            }
+            queries[q] = Embeddings.normalize(query);
+        }
+
+        scorer = scorer(vectors);
+        graph = new HnswGraph(scorer, M, EF_CONSTRUCTION);
+        for (int node = 0; node < NODES; node++) {
+            graph.insert(node);
+        }
+    }
+
+    @Test
+    void recallAgainstBruteForceIsHigh() {
+        int found = 0;
+        for (float[] query : queries) {
+            int[] exact = bruteForce(query);
+            SlotScores approximate = graph.search(query, EF_SEARCH);
+            int[] top = Arrays.copyOf(approximate.slots(), Math.min(K, approximate.size()));
+            for (int slot : top) {
+                if (Arrays.stream(exact).anyMatch(e -> e == slot)) {
+                    found++;
+                }
+            }
+        }
+        double recall = (double) found / (QUERIES * K);
+
+        assertThat(graph.size()).isEqualTo(NODES);
+        assertThat(recall).as("recall@%d", K).isGreaterThanOrEqualTo(MIN_RECALL);
+    }
+
+    @Test
+    void resultsAreOrderedBestFirst() {
+        SlotScores result = graph.search(queries[0], EF_SEARCH);
+
+        assertThat(result.size()).isGreaterThanOrEqualTo(K);
+        for (int i = 1; i < result.size(); i++) {
+            assertThat(result.scores()[i]).isLessThanOrEqualTo(result.scores()[i - 1]);
+        }
+    }
+
+    @Test
+    void graphSurvivesWriteAndRead() throws IOException {
+        Path file = tempDir.resolve("graph.bin");
+        write(graph, file);
+
+        HnswGraph restored;
+        try (MappedInput in = new MappedInput(file)) {
+            restored = HnswGraph.readFrom(in, scorer, EF_CONSTRUCTION);
+        }
+
+        assertThat(restored.size()).isEqualTo(NODES);
+        for (float[] query : queries) {
+            SlotScores expected = graph.search(query, EF_SEARCH);
+            SlotScores actual = restored.search(query, EF_SEARCH);
+            assertThat(actual.slots()).containsExactly(expected.slots());
+            assertThat(actual.scores()).containsExactly(expected.scores());
+        }
+
+        // Written again, the restored graph is byte for byte the same file
+        Path again = tempDir.resolve("graph-again.bin");
+        write(restored, again);
+        assertThat(Files.readAllBytes(again)).isEqualTo(Files.readAllBytes(file));
+    }
+
+    @Test
+    void restoredGraphKeepsAcceptingInserts() throws IOException {
+        Path file = tempDir.resolve("graph.bin");
+        write(graph, file);
+        float[][] grown = Arrays.copyOf(vectors, NODES + 1);
+        grown[NODES] = queries[0];
+
+        HnswGraph restored;
+        try (MappedInput in = new MappedInput(file)) {
+            restored = HnswGraph.readFrom(in, scorer(grown), EF_CONSTRUCTION);
+        }
+        restored.insert(NODES);
+
+        assertThat(restored.size()).isEqualTo(NODES + 1);
+        assertThat(restored.search(queries[0], EF_SEARCH).slots()[0]).isEqualTo(NODES);
+    }
+
+    private HnswGraph.Scorer scorer(float[][] nodes) {
+        return new HnswGraph.Scorer() {
+            @Override
+            public float score(float[] query, int node) {
+                return ops.dot(query, 0, nodes[node], 0, DIM);
+            }
+
+            @Override
+            public float score(int a, int b) {
+                return ops.dot(nodes[a], 0, nodes[b], 0, DIM);
+            }
+
+            @Override
+            public float[] vector(int node) {
+                return nodes[node];
+            }
+        };
+    }
+
+    private int[] bruteForce(float[] query) {
+        Integer[] order = new Integer[NODES];
+        float[] scores = new float[NODES];
+        for (int i = 0; i < NODES; i++) {
+            order[i] = i;
+            scores[i] = scorer.score(query, i);
+        }
+        Arrays.sort(order, (a, b) -> Float.compare(scores[b], scores[a]));
+        return Arrays.stream(order, 0, K).mapToInt(Integer::intValue).toArray();
+    }
+
+    private static void write(HnswGraph graph, Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            graph.writeTo(out);
+        }
+    }
+
+    private static float[] randomUnitVector(SplittableRandom random) {
+        float[] vector = new float[DIM];
+        for (int i = 0; i < DIM; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return Embeddings.normalize(vector);
+    }
+}
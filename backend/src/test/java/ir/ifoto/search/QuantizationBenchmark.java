@@ -0,0 +1,104 @@
+package ir.ifoto.search;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Float against int8 storage for one event: search throughput, with the index memory and the
+ * recall@10 of the int8 scan against the float scan printed at setup.
+ * Run with {@code mvn -Pbenchmark test-compile exec:exec -Dbenchmark=Quantization}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class QuantizationBenchmark {
+
+    private static final int DIM = 512;
+    private static final int QUERIES = 64;
+    private static final int K = 10;
+
+    @Param({"none", "int8"})
+    public String mode;
+
+    @Param({"16384"})
+    public int faces;
+
+    private EventFaceIndex index;
+    private float[][] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        float[][] vectors = new float[faces][];
+        List<IndexedFace> loaded = new ArrayList<>(faces);
+        for (int i = 0; i < faces; i++) {
+            vectors[i] = Embeddings.normalize(VectorOpsBenchmark.randomVector(random));
+            loaded.add(new IndexedFace((long) i + 1, (long) i / 4 + 1, i % 4, null, null, null, null,
+                    Embeddings.toBytes(vectors[i]), null));
+        }
+        queries = new float[QUERIES][];
+        for (int q = 0; q < QUERIES; q++) {
+            queries[q] = nearQuery(vectors[random.nextInt(faces)], random);
+        }
+        index = build(loaded, mode.equals("int8"));
+
+        EventFaceIndex reference = build(loaded, false);
+        int found = 0;
+        for (float[] query : queries) {
+            int[] expected = reference.exact(query, K, -1f, ForkJoinPool.commonPool()).slots();
+            for (int slot : index.exact(query, K, -1f, ForkJoinPool.commonPool()).slots()) {
+                if (Arrays.stream(expected).anyMatch(e -> e == slot)) {
+                    found++;
+                }
+            }
+        }
+        System.out.printf("%n%s: %.1f MB, recall@%d %.3f%n", mode, index.memoryBytes() / 1048576.0,
+                K, (double) found / (QUERIES * K));
+    }
+
+    @Benchmark
+    public SlotScores search() {
+        float[] query = queries[next++ & (QUERIES - 1)];
+        return index.exact(query, 50, -1f, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * A stored face moved by noise, like another photo of the same person
+     */
+    static float[] nearQuery(float[] face, SplittableRandom random) {
+        float[] noise = Embeddings.normalize(VectorOpsBenchmark.randomVector(random));
+        float[] query = new float[DIM];
+        for (int i = 0; i < DIM; i++) {
+            query[i] = face[i] + 0.5f * noise[i];
+        }
+        return Embeddings.normalize(query);
+    }
+
+    private static EventFaceIndex build(List<IndexedFace> faces, boolean quantized) {
+        EventFaceIndex index = new EventFaceIndex(DIM, new SimdVectorOps(), quantized);
+        index.appendLoaded(faces);
+        index.finishLoading(true);
+        return index;
+    }
+}
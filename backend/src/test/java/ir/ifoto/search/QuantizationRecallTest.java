@@ -0,0 +1,61 @@
+package ir.ifoto.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * An int8 index keeps about a quarter of the memory of a float index and finds nearly the same
+ * top matches without rescoring, for queries near stored faces.
+ */
+class QuantizationRecallTest {
+
+    private static final int DIM = 512;
+    private static final int FACES = 4000;
+    private static final int QUERIES = 100;
+    private static final int K = 10;
+
+    @Test
+    void int8KeepsRecallAtAQuarterOfTheMemory() {
+        SplittableRandom random = new SplittableRandom(11);
+        List<IndexedFace> faces = new ArrayList<>(FACES);
+        float[][] vectors = new float[FACES][];
+        for (int i = 0; i < FACES; i++) {
+            vectors[i] = Embeddings.normalize(VectorOpsBenchmark.randomVector(random));
+            faces.add(new IndexedFace((long) i + 1, (long) i + 1, 0, null, null, null, null,
+                    Embeddings.toBytes(vectors[i]), null));
+        }
+        EventFaceIndex exact = index(faces, false);
+        EventFaceIndex quantized = index(faces, true);
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+
+        int found = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            float[] query = QuantizationBenchmark.nearQuery(vectors[random.nextInt(FACES)], random);
+            int[] expected = exact.exact(query, K, -1f, pool).slots();
+            int[] actual = quantized.exact(query, K, -1f, pool).slots();
+            for (int slot : actual) {
+                if (Arrays.stream(expected).anyMatch(e -> e == slot)) {
+                    found++;
+                }
+            }
+        }
+        double recall = (double) found / (QUERIES * K);
+
+        assertThat(recall).as("int8 recall@%d", K).isGreaterThanOrEqualTo(0.95);
+        assertThat((double) quantized.memoryBytes() / exact.memoryBytes()).isLessThan(0.3);
+    }
+
+    private static EventFaceIndex index(List<IndexedFace> faces, boolean quantized) {
+        EventFaceIndex index = new EventFaceIndex(DIM, new ScalarVectorOps(), quantized);
+        index.appendLoaded(faces);
+        index.finishLoading(true);
+        return index;
+    }
+}
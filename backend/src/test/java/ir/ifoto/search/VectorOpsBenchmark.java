@@ -0,0 +1,92 @@
+package ir.ifoto.search;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exact search over one event: the scalar and SIMD kernels on a single thread, and the
+ * block-parallel scan on the common pool, for float and int8 indexes.
+ * Run with {@code mvn -Pbenchmark test-compile exec:exec -Dbenchmark=VectorOps}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class VectorOpsBenchmark {
+
+    private static final int DIM = 512;
+
+    @Param({"scalar", "simd"})
+    public String ops;
+
+    @Param({"false", "true"})
+    public boolean quantized;
+
+    @Param({"16384"})
+    public int faces;
+
+    private EventFaceIndex index;
+    private ForkJoinPool serial;
+    private float[] query;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        VectorOps vectorOps = ops.equals("simd") ? new SimdVectorOps() : new ScalarVectorOps();
+        index = new EventFaceIndex(DIM, vectorOps, quantized);
+        SplittableRandom random = new SplittableRandom(42);
+        List<IndexedFace> loaded = new ArrayList<>(faces);
+        for (int i = 0; i < faces; i++) {
+            loaded.add(new IndexedFace((long) i + 1, (long) i / 4 + 1, i % 4, null, null, null, null,
+                    Embeddings.toBytes(randomVector(random)), null));
+        }
+        index.appendLoaded(loaded);
+        index.finishLoading(true);
+        query = Embeddings.normalize(randomVector(random));
+        serial = new ForkJoinPool(1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        serial.shutdown();
+    }
+
+    /**
+     * Blocks scanned one after another on a single worker
+     */
+    @Benchmark
+    public SlotScores exactSingleThread() {
+        return index.exact(query, 50, -1f, serial);
+    }
+
+    @Benchmark
+    public SlotScores exactParallel() {
+        return index.exact(query, 50, -1f, ForkJoinPool.commonPool());
+    }
+
+    static float[] randomVector(SplittableRandom random) {
+        float[] vector = new float[DIM];
+        for (int i = 0; i < DIM; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+}
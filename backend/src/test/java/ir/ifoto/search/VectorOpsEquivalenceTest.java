@@ -0,0 +1,140 @@
+package ir.ifoto.search;
+
+import jdk.incubator.vector.FloatVector;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * The SIMD kernels agree with the scalar loops, including the remainder after the last full
+ * vector. Surefire also runs this class with {@code -XX:MaxVectorSize=32} and {@code 16}, so the
+ * int8 castShape path is covered with 8 float lanes and the scalar int8 fallback with 4.
+ */
+class VectorOpsEquivalenceTest {
+
+    private static final float TOLERANCE = 1e-5f;
+
+    private final VectorOps scalar = new ScalarVectorOps();
+    private final VectorOps simd = VectorOps.create(true);
+    private final SplittableRandom random = new SplittableRandom(7);
+
+    @Test
+    void simdImplementationIsSelected() {
+        assertThat(simd.name()).isEqualTo("simd-" + FloatVector.SPECIES_PREFERRED.vectorBitSize());
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 3, 4, 7, 8, 15, 16, 17, 31, 33, 64, 127, 512, 515})
+    void floatScoresMatchScalar(int dim) {
+        int count = 37;
+        float[] query = floats(dim);
+        float[] vectors = floats(count * dim);
+        float[] expected = new float[count];
+        float[] actual = new float[count];
+
+        scalar.scores(query, vectors, count, dim, expected);
+        simd.scores(query, vectors, count, dim, actual);
+
+        for (int v = 0; v < count; v++) {
+            assertThat(actual[v]).as("vector %d", v).isCloseTo(expected[v], within(tolerance(dim, expected[v])));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 7, 8, 17, 64, 512, 515})
+    void floatDotWithOffsetsMatchesScalar(int dim) {
+        float[] a = floats(dim + 11);
+        float[] b = floats(dim + 5);
+
+        float expected = scalar.dot(a, 11, b, 5, dim);
+
+        assertThat(simd.dot(a, 11, b, 5, dim)).isCloseTo(expected, within(tolerance(dim, expected)));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 3, 7, 8, 9, 15, 16, 17, 31, 32, 33, 64, 127, 512, 515})
+    void int8ScoresMatchScalar(int dim) {
+        int count = 29;
+        float[] query = floats(dim);
+        byte[] codes = bytes(count * dim);
+        float[] scales = new float[count];
+        for (int v = 0; v < count; v++) {
+            scales[v] = (float) (random.nextDouble() / 127);
+        }
+        float[] expected = new float[count];
+        float[] actual = new float[count];
+
+        scalar.scores(query, codes, scales, count, dim, expected);
+        simd.scores(query, codes, scales, count, dim, actual);
+
+        for (int v = 0; v < count; v++) {
+            assertThat(actual[v]).as("vector %d", v).isCloseTo(expected[v], within(tolerance(dim, expected[v])));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 7, 8, 9, 17, 64, 512, 515})
+    void int8DotsWithOffsetsMatchScalar(int dim) {
+        float[] query = floats(dim);
+        byte[] a = bytes(dim + 13);
+        byte[] b = bytes(dim + 3);
+
+        float expected = scalar.dot(query, a, 13, dim);
+        assertThat(simd.dot(query, a, 13, dim)).isCloseTo(expected, within(tolerance(dim, expected) * 127));
+
+        // Integer products, exact in float at these sizes
+        assertThat(simd.dot(a, 13, b, 3, dim)).isEqualTo(scalar.dot(a, 13, b, 3, dim));
+    }
+
+    @Test
+    void extremeInt8CodesDoNotOverflow() {
+        int dim = 512;
+        byte[] a = new byte[dim];
+        byte[] b = new byte[dim];
+        Arrays.fill(a, Byte.MIN_VALUE);
+        Arrays.fill(b, Byte.MIN_VALUE);
+
+        assertThat(simd.dot(a, 0, b, 0, dim)).isEqualTo(dim * 128f * 128f);
+    }
+
+    @Test
+    void narrowVectorsUseTheScalarInt8Loops() {
+        assumeTrue(FloatVector.SPECIES_PREFERRED.length() < 8, "preferred species has 8 or more float lanes");
+
+        float[] query = floats(515);
+        byte[] codes = bytes(515);
+
+        // Same loop, so the same rounding
+        assertThat(simd.dot(query, codes, 0, 515)).isEqualTo(scalar.dot(query, codes, 0, 515));
+    }
+
+    private float[] floats(int length) {
+        float[] values = new float[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = (float) (random.nextDouble() * 2 - 1);
+        }
+        return values;
+    }
+
+    private byte[] bytes(int length) {
+        byte[] values = new byte[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = (byte) random.nextInt(-128, 128);
+        }
+        return values;
+    }
+
+    /**
+     * Summation order differs between the kernels, so allow rounding proportional to the length
+     */
+    private static float tolerance(int dim, float expected) {
+        return TOLERANCE * dim * Math.max(1f, Math.abs(expected));
+    }
+}
@@ -0,0 +1,135 @@
+package ir.ifoto.security;
+
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.UnsupportedJwtException;
+import io.jsonwebtoken.security.Keys;
+import io.jsonwebtoken.security.SignatureException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class JwtUtilTest {
+
+    private static final String CURRENT_SECRET = "c".repeat(64);
+    private static final String PREVIOUS_SECRET = "p".repeat(64);
+
+    private final UserDetails user = new User("photographer@example.com", "unused",
+            List.of(new SimpleGrantedAuthority("ROLE_PHOTOGRAPHER")));
+
+    private JwtUtil jwtUtil;
+
+    @BeforeEach
+    void setUp() {
+        jwtUtil = new JwtUtil();
+        ReflectionTestUtils.setField(jwtUtil, "secret", CURRENT_SECRET);
+        ReflectionTestUtils.setField(jwtUtil, "keyId", "2026-10");
+        ReflectionTestUtils.setField(jwtUtil, "previousKeys", "2026-04=" + PREVIOUS_SECRET);
+        ReflectionTestUtils.setField(jwtUtil, "expiration", 60_000L);
+        jwtUtil.init();
+    }
+
+    @Test
+    void issuedTokenCarriesCurrentKidAndRoundTrips() {
+        String token = jwtUtil.generateToken(user);
+
+        assertThat(header(token)).contains("\"kid\":\"2026-10\"");
+        JwtUtil.TokenClaims claims = jwtUtil.parse(token);
+        assertThat(claims.username()).isEqualTo("photographer@example.com");
+        assertThat(claims.role()).isEqualTo("ROLE_PHOTOGRAPHER");
+        assertThat(claims.expiration()).isAfter(new Date());
+        assertThat(jwtUtil.validateToken(token, user)).isTrue();
+    }
+
+    @Test
+    void tokenWithoutKidIsVerifiedWithSigningKey() {
+        String token = Jwts.builder()
+                .subject("legacy@example.com")
+                .expiration(new Date(System.currentTimeMillis() + 60_000))
+                .signWith(key(CURRENT_SECRET))
+                .compact();
+
+        assertThat(jwtUtil.parse(token).username()).isEqualTo("legacy@example.com");
+    }
+
+    @Test
+    void tokenSignedWithPreviousKeyStillVerifies() {
+        String token = Jwts.builder()
+                .header().keyId("2026-04").and()
+                .subject("rotated@example.com")
+                .expiration(new Date(System.currentTimeMillis() + 60_000))
+                .signWith(key(PREVIOUS_SECRET))
+                .compact();
+
+        assertThat(jwtUtil.parse(token).username()).isEqualTo("rotated@example.com");
+    }
+
+    @Test
+    void unknownKidIsRejected() {
+        String token = Jwts.builder()
+                .header().keyId("retired").and()
+                .subject("someone@example.com")
+                .expiration(new Date(System.currentTimeMillis() + 60_000))
+                .signWith(key(CURRENT_SECRET))
+                .compact();
+
+        assertThatThrownBy(() -> jwtUtil.parse(token))
+                .isInstanceOf(UnsupportedJwtException.class)
+                .hasMessageContaining("retired");
+    }
+
+    @Test
+    void expiredTokenIsRejected() {
+        String token = Jwts.builder()
+                .header().keyId("2026-10").and()
+                .subject("photographer@example.com")
+                .issuedAt(new Date(System.currentTimeMillis() - 120_000))
+                .expiration(new Date(System.currentTimeMillis() - 60_000))
+                .signWith(key(CURRENT_SECRET))
+                .compact();
+
+        assertThatThrownBy(() -> jwtUtil.parse(token)).isInstanceOf(ExpiredJwtException.class);
+    }
+
+    @Test
+    void tamperedPayloadIsRejected() {
+        String[] parts = jwtUtil.generateToken(user).split("\\.");
+        String forged = Base64.getUrlEncoder().withoutPadding().encodeToString(
+                "{\"sub\":\"admin@example.com\",\"role\":\"ROLE_ADMIN\"}".getBytes(StandardCharsets.UTF_8));
+
+        assertThatThrownBy(() -> jwtUtil.parse(parts[0] + "." + forged + "." + parts[2]))
+                .isInstanceOf(SignatureException.class);
+    }
+
+    @Test
+    void tokenSignedWithAnotherSecretIsRejected() {
+        String token = Jwts.builder()
+                .header().keyId("2026-10").and()
+                .subject("photographer@example.com")
+                .expiration(new Date(System.currentTimeMillis() + 60_000))
+                .signWith(key("x".repeat(64)))
+                .compact();
+
+        assertThatThrownBy(() -> jwtUtil.parse(token)).isInstanceOf(SignatureException.class);
+    }
+
+    private static SecretKey key(String secret) {
+        return Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String header(String token) {
+        return new String(Base64.getUrlDecoder().decode(token.substring(0, token.indexOf('.'))), StandardCharsets.UTF_8);
+    }
+}
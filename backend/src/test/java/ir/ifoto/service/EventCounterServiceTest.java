@@ -0,0 +1,156 @@
+package ir.ifoto.service;
+
+import ir.ifoto.repository.EventRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class EventCounterServiceTest {
+
+    private final EventRepository eventRepository = mock(EventRepository.class);
+    private final EventCounterService counters =
+            new EventCounterService(eventRepository, mock(GalleryVersionService.class));
+
+    @AfterEach
+    void clearSynchronization() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void deltaIsOnlyFlushedAfterCommit() {
+        TransactionSynchronizationManager.initSynchronization();
+        counters.photosAdded(1L, 3);
+
+        counters.flush();
+        verify(eventRepository, never()).incrementCounters(anyLong(), anyInt(), anyInt());
+
+        commit();
+        counters.flush();
+        verify(eventRepository).incrementCounters(1L, 3, 0);
+    }
+
+    @Test
+    void rolledBackDeltaIsDropped() {
+        TransactionSynchronizationManager.initSynchronization();
+        counters.photosAdded(1L, 3);
+        TransactionSynchronizationUtils.invokeAfterCompletion(
+                TransactionSynchronizationManager.getSynchronizations(), TransactionSynchronization.STATUS_ROLLED_BACK);
+        TransactionSynchronizationManager.clearSynchronization();
+
+        counters.flush();
+        verify(eventRepository, never()).incrementCounters(anyLong(), anyInt(), anyInt());
+    }
+
+    @Test
+    void commitWaitsForReconcileSoItsDeltaIsNotCountedTwice() throws Exception {
+        CountDownLatch reconciling = new CountDownLatch(1);
+        CountDownLatch committed = new CountDownLatch(1);
+        CompletableFuture<Void> upload = new CompletableFuture<>();
+
+        when(eventRepository.findEventIdsWithDriftedCounters()).thenReturn(List.of(1L));
+        when(eventRepository.reconcileCounters(anyCollection())).thenAnswer(invocation -> {
+            reconciling.countDown();
+            // The upload reaches its commit while the true counts are being written
+            assertThat(committed.await(200, TimeUnit.MILLISECONDS)).isFalse();
+            return 0;
+        });
+
+        Thread uploader = new Thread(() -> {
+            try {
+                TransactionSynchronizationManager.initSynchronization();
+                counters.photosAdded(1L, 1);
+                reconciling.await();
+                commit();
+                committed.countDown();
+                upload.complete(null);
+            } catch (Throwable e) {
+                upload.completeExceptionally(e);
+            }
+        });
+        uploader.start();
+
+        counters.reconcile();
+        upload.get(5, TimeUnit.SECONDS);
+
+        // Committed after the reconcile statement, so its delta still has to be applied once
+        counters.flush();
+        verify(eventRepository).incrementCounters(1L, 1, 0);
+    }
+
+    @Test
+    void reconcileRepairsDriftedAndPendingEventsInChunks() {
+        ReflectionTestUtils.setField(counters, "reconcileChunk", 2);
+        when(eventRepository.findEventIdsWithDriftedCounters()).thenReturn(List.of(3L, 1L, 2L));
+        when(eventRepository.reconcileCounters(anyCollection())).thenReturn(1);
+        counters.facesChanged(7L, 4);
+
+        counters.reconcile();
+
+        InOrder order = inOrder(eventRepository);
+        order.verify(eventRepository).reconcileCounters(List.of(1L, 2L));
+        // The pending delta goes out before its event is recounted
+        order.verify(eventRepository).incrementCounters(7L, 0, 4);
+        order.verify(eventRepository).reconcileCounters(List.of(3L, 7L));
+        assertThat(counters.getStats()).containsEntry("lastReconcileDrift", 2);
+    }
+
+    @Test
+    void commitsAreNotHeldWhileDriftedEventsAreFound() throws Exception {
+        when(eventRepository.findEventIdsWithDriftedCounters()).thenAnswer(invocation -> {
+            // A recording commit completes while the recount scans every event
+            CompletableFuture.runAsync(() -> {
+                TransactionSynchronizationManager.initSynchronization();
+                counters.photosAdded(1L, 1);
+                commit();
+            }).get(1, TimeUnit.SECONDS);
+            return List.of();
+        });
+
+        counters.reconcile();
+
+        verify(eventRepository).incrementCounters(1L, 1, 0);
+        verify(eventRepository).reconcileCounters(List.of(1L));
+    }
+
+    @Test
+    void failedChunkDoesNotStopTheOthers() {
+        ReflectionTestUtils.setField(counters, "reconcileChunk", 1);
+        when(eventRepository.findEventIdsWithDriftedCounters()).thenReturn(List.of(1L, 2L));
+        when(eventRepository.reconcileCounters(List.of(1L))).thenThrow(new IllegalStateException("deadlock"));
+        when(eventRepository.reconcileCounters(List.of(2L))).thenReturn(1);
+
+        counters.reconcile();
+
+        verify(eventRepository).reconcileCounters(List.of(2L));
+        assertThat(counters.getStats()).containsEntry("lastReconcileDrift", 1);
+    }
+
+    private static void commit() {
+        var synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationUtils.triggerBeforeCommit(false);
+        TransactionSynchronizationUtils.triggerAfterCommit();
+        TransactionSynchronizationUtils.invokeAfterCompletion(synchronizations, TransactionSynchronization.STATUS_COMMITTED);
+        TransactionSynchronizationManager.clearSynchronization();
+    }
+}
@@ -0,0 +1,187 @@
+package ir.ifoto.service;
+
+import ir.ifoto.client.FaceServiceClient;
+import ir.ifoto.dto.BatchFaceSearchResponse;
+import ir.ifoto.dto.FaceSearchResponse;
+import ir.ifoto.exception.NoFaceDetectedException;
+import ir.ifoto.repository.EventRepository;
+import ir.ifoto.repository.PhotoPaths;
+import ir.ifoto.repository.PhotoRepository;
+import ir.ifoto.search.FaceIndexService;
+import ir.ifoto.search.IndexMatch;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.InstanceOfAssertFactories.MAP;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyFloat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class FaceSearchServiceTest {
+
+    private static final Duration URL_DEADLINE = Duration.ofMillis(500);
+
+    private final FaceServiceClient faceServiceClient = mock(FaceServiceClient.class);
+    private final PhotoRepository photoRepository = mock(PhotoRepository.class);
+    private final EventRepository eventRepository = mock(EventRepository.class);
+    private final StorageService storageService = mock(StorageService.class);
+    private final FaceIndexService faceIndexService = mock(FaceIndexService.class);
+    private ThreadPoolTaskExecutor searchExecutor;
+    private ThreadPoolTaskExecutor urlExecutor;
+    private FaceSearchService faceSearchService;
+
+    @BeforeEach
+    void setUp() {
+        searchExecutor = new ThreadPoolTaskExecutor();
+        searchExecutor.setCorePoolSize(4);
+        searchExecutor.initialize();
+        urlExecutor = new ThreadPoolTaskExecutor();
+        urlExecutor.setCorePoolSize(2);
+        urlExecutor.setMaxPoolSize(2);
+        urlExecutor.setQueueCapacity(0);
+        urlExecutor.initialize();
+        faceSearchService = new FaceSearchService(faceServiceClient, photoRepository, eventRepository,
+                storageService, new ImageResizeService(1600, 0.9f), faceIndexService, searchExecutor, urlExecutor,
+                Duration.ofMinutes(30), 100, 10, 20, 2, URL_DEADLINE);
+        when(eventRepository.existsById(1L)).thenReturn(true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        searchExecutor.shutdown();
+        urlExecutor.shutdown();
+    }
+
+    @Test
+    void queryImageWithoutFaceIsRejectedUnwrapped() {
+        when(faceServiceClient.embedQuery(any(), anyBoolean()))
+                .thenThrow(new NoFaceDetectedException("No face detected in the query image"));
+
+        assertThatThrownBy(() -> faceSearchService.searchByFace(1L, image("landscape.jpg"), 10, 0.6f))
+                .isExactlyInstanceOf(NoFaceDetectedException.class);
+    }
+
+    @Test
+    void batchWithoutAnyFaceIsRejectedUnwrapped() {
+        when(faceServiceClient.embedQuery(any(), anyBoolean()))
+                .thenThrow(new NoFaceDetectedException("No face detected in the query image"));
+
+        assertThatThrownBy(() -> faceSearchService.searchByFaces(1L,
+                List.of(image("a.jpg"), image("b.jpg")), false, 10, 0.6f))
+                .isExactlyInstanceOf(NoFaceDetectedException.class);
+    }
+
+    @Test
+    void batchMatchesAreRankedByBestScoreAndCutToLimit() {
+        when(faceServiceClient.embedQuery(any(), anyBoolean())).thenReturn(
+                new FaceServiceClient.QueryEmbedding(1, new float[]{1, 0}, null, 0.99f, null),
+                new FaceServiceClient.QueryEmbedding(1, new float[]{0, 1}, null, 0.99f, null));
+        when(faceIndexService.search(eq(1L), argThat(e -> e[0] == 1), anyInt(), anyFloat()))
+                .thenReturn(Optional.of(List.of(match(10, 0.7f), match(11, 0.95f))));
+        when(faceIndexService.search(eq(1L), argThat(e -> e[1] == 1), anyInt(), anyFloat()))
+                .thenReturn(Optional.of(List.of(match(10, 0.8f), match(12, 0.9f))));
+        when(photoRepository.findByEventIdAndIdIn(eq(1L), anyCollection())).thenAnswer(invocation -> {
+            Collection<Long> ids = invocation.getArgument(1);
+            return ids.stream().map(FaceSearchServiceTest::photo).toList();
+        });
+        when(storageService.getUrl(anyString())).thenAnswer(invocation -> "https://cdn/" + invocation.getArgument(0));
+
+        BatchFaceSearchResponse response = faceSearchService.searchByFaces(1L,
+                List.of(image("a.jpg"), image("b.jpg")), false, 2, 0.6f);
+
+        // Photo 10 matches both faces but its best score is the lowest
+        assertThat(response.getMatches())
+                .extracting(BatchFaceSearchResponse.PhotoMatch::getPhotoId)
+                .containsExactly(11L, 12L);
+        assertThat(response.getTotalMatches()).isEqualTo(2);
+    }
+
+    @Test
+    void urlsAreNotSignedOnTheCallerWhenTheSigningPoolIsFull() throws InterruptedException {
+        stubSingleSearch();
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 2; i++) {
+            urlExecutor.execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+
+        try {
+            FaceSearchResponse response = faceSearchService.searchByFace(1L, image("selfie.jpg"), 10, 0.6f);
+
+            assertThat(response.getMatches()).isEmpty();
+            verify(storageService, never()).getUrl(anyString());
+            assertThat(faceSearchService.getStats().get("enrichment"))
+                    .asInstanceOf(MAP)
+                    .containsEntry("rejected", 1L);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void stuckSigningIsCutOffAtTheDeadline() {
+        stubSingleSearch();
+        when(storageService.getUrl(anyString())).thenAnswer(invocation -> {
+            Thread.sleep(10_000);
+            return "https://cdn/late";
+        });
+
+        long start = System.nanoTime();
+        FaceSearchResponse response = faceSearchService.searchByFace(1L, image("selfie.jpg"), 10, 0.6f);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        assertThat(response.getMatches()).isEmpty();
+        assertThat(millis).isLessThan(URL_DEADLINE.toMillis() + 1000);
+    }
+
+    private void stubSingleSearch() {
+        when(faceServiceClient.embedQuery(any(), anyBoolean()))
+                .thenReturn(new FaceServiceClient.QueryEmbedding(1, new float[]{1, 0}, null, 0.99f, null));
+        when(faceIndexService.search(eq(1L), any(), anyInt(), anyFloat()))
+                .thenReturn(Optional.of(List.of(match(10, 0.9f), match(11, 0.8f))));
+        when(photoRepository.findByEventIdAndIdIn(eq(1L), anyCollection())).thenAnswer(invocation -> {
+            Collection<Long> ids = invocation.getArgument(1);
+            return ids.stream().map(FaceSearchServiceTest::photo).toList();
+        });
+    }
+
+    private static IndexMatch match(long photoId, float similarity) {
+        return new IndexMatch(photoId * 100, photoId, 0, similarity, false, 0, 0, 0, 0);
+    }
+
+    private static PhotoPaths photo(Long id) {
+        PhotoPaths photo = mock(PhotoPaths.class);
+        when(photo.getId()).thenReturn(id);
+        when(photo.getStoragePath()).thenReturn("photos/" + id + ".jpg");
+        return photo;
+    }
+
+    private static MockMultipartFile image(String name) {
+        return new MockMultipartFile("file", name, "image/jpeg", name.getBytes());
+    }
+}
@@ -0,0 +1,80 @@
+package ir.ifoto.service;
+
+import ir.ifoto.repository.EventRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Two nodes sharing the events table, simulated by one version counter behind a mocked repository
+ */
+class GalleryVersionServiceTest {
+
+    private static final Duration CACHE_TTL = Duration.ofMillis(100);
+
+    private final EventRepository eventRepository = mock(EventRepository.class);
+    private final AtomicLong storedVersion = new AtomicLong();
+    private final GalleryVersionService nodeA = new GalleryVersionService(eventRepository, CACHE_TTL);
+    private final GalleryVersionService nodeB = new GalleryVersionService(eventRepository, CACHE_TTL);
+    private final EventCounterService countersA = new EventCounterService(eventRepository, nodeA);
+
+    @BeforeEach
+    void setUp() {
+        when(eventRepository.findGalleryStamp(1L)).thenAnswer(invocation -> Optional.of(
+                new GalleryVersionService.Stamp(storedVersion.get(), LocalDateTime.now())));
+        when(eventRepository.incrementCounters(eq(1L), anyInt(), anyInt())).thenAnswer(invocation -> {
+            storedVersion.incrementAndGet();
+            return 1;
+        });
+    }
+
+    @Test
+    void uploadOnOneNodeChangesTheEtagOnTheOther() throws InterruptedException {
+        String before = nodeB.galleryEtag(1L, "first-60");
+        assertThat(nodeA.galleryEtag(1L, "first-60")).isEqualTo(before);
+
+        countersA.photosAdded(1L, 1);
+        countersA.flush();
+
+        // The flushing node drops its cached stamp at once, the other within the cache TTL
+        assertThat(nodeA.galleryEtag(1L, "first-60")).isNotEqualTo(before);
+        Thread.sleep(CACHE_TTL.toMillis() + 50);
+        assertThat(nodeB.galleryEtag(1L, "first-60")).isNotEqualTo(before).isEqualTo(nodeA.galleryEtag(1L, "first-60"));
+    }
+
+    @Test
+    void changeWithoutCountsIsWrittenByTheNextFlush() {
+        nodeA.bump(1L);
+
+        countersA.flush();
+        countersA.flush();
+
+        verify(eventRepository).incrementCounters(1L, 0, 0);
+        assertThat(storedVersion).hasValue(1);
+    }
+
+    @Test
+    void failedFlushKeepsTheChangeForTheNextOne() {
+        when(eventRepository.incrementCounters(1L, 0, 0))
+                .thenThrow(new IllegalStateException("connection reset"))
+                .thenReturn(1);
+        nodeA.bump(1L);
+
+        countersA.flush();
+        assertThat(nodeA.changedEvents()).containsExactly(1L);
+
+        countersA.flush();
+        assertThat(nodeA.changedEvents()).isEmpty();
+    }
+}
@@ -0,0 +1,180 @@
+package ir.ifoto.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ImageResizeServiceTest {
+    
+    private static final List<Integer> EDGES = List.of(400, 1600);
+    
+    private final ImageResizeService imageResizeService = new ImageResizeService(1600, 0.9f);
+    
+    @Test
+    void landscapeRenditionsAreBoundedByTheirLongEdge() throws IOException {
+        List<ImageResizeService.Rendition> renditions =
+                imageResizeService.renderRenditions(jpeg(4000, 3000), EDGES, 0.82f);
+        
+        assertThat(renditions).hasSize(2);
+        assertRendition(renditions.get(0), 1600, 1600, 1200);
+        assertRendition(renditions.get(1), 400, 400, 300);
+    }
+    
+    @Test
+    void portraitRenditionsAreBoundedByTheirLongEdge() throws IOException {
+        List<ImageResizeService.Rendition> renditions =
+                imageResizeService.renderRenditions(jpeg(1200, 3000), EDGES, 0.82f);
+        
+        assertRendition(renditions.get(0), 1600, 640, 1600);
+        assertRendition(renditions.get(1), 400, 160, 400);
+    }
+    
+    @Test
+    void imagesSmallerThanAnEdgeAreNotUpscaled() throws IOException {
+        List<ImageResizeService.Rendition> between =
+                imageResizeService.renderRenditions(jpeg(1000, 750), EDGES, 0.82f);
+        assertRendition(between.get(0), 1600, 1000, 750);
+        assertRendition(between.get(1), 400, 400, 300);
+        
+        List<ImageResizeService.Rendition> small =
+                imageResizeService.renderRenditions(jpeg(300, 200), EDGES, 0.82f);
+        assertRendition(small.get(0), 1600, 300, 200);
+        assertRendition(small.get(1), 400, 300, 200);
+    }
+    
+    @Test
+    void rotatedOriginalIsSentUprightAndDownscaled() throws IOException {
+        // Stored 4000x3000 with a red square at x 3400-3800, y 200-600; orientation 6 turns it
+        // a quarter clockwise, so it displays 3000x4000 with the square at x 2400-2800, y 3400-3800
+        Resource original = rotatedJpeg(4000, 3000, 6);
+        
+        ImageResizeService.InferenceImage image = imageResizeService.prepareForInference(original);
+        
+        assertThat(image.resource()).isNotSameAs(original);
+        assertThat(image.originalWidth()).isEqualTo(3000);
+        assertThat(image.originalHeight()).isEqualTo(4000);
+        assertThat(image.scale()).isEqualTo(2.5);
+        BufferedImage sent = ImageIO.read(image.resource().getInputStream());
+        assertThat(sent.getWidth()).isEqualTo(1200);
+        assertThat(sent.getHeight()).isEqualTo(1600);
+        assertThat(new Color(sent.getRGB(1040, 1440)).getRed()).isGreaterThan(200);
+        assertThat(new Color(sent.getRGB(1040, 1440)).getBlue()).isLessThan(60);
+        
+        // A face found around the square on the copy lands on the square in the original
+        assertThat(image.toOriginal(List.of(960, 1360, 1120, 1520))).containsExactly(2400, 3400, 2800, 3800);
+    }
+    
+    @Test
+    void smallRotatedOriginalIsSentAsIsWithItsDisplayedSize() throws IOException {
+        Resource original = rotatedJpeg(1200, 900, 8);
+        
+        ImageResizeService.InferenceImage image = imageResizeService.prepareForInference(original);
+        
+        assertThat(image.resource()).isSameAs(original);
+        assertThat(image.originalWidth()).isEqualTo(900);
+        assertThat(image.originalHeight()).isEqualTo(1200);
+        assertThat(image.scale()).isEqualTo(1.0);
+    }
+    
+    /**
+     * Checks the reported size against the encoded JPEG itself
+     */
+    private static void assertRendition(ImageResizeService.Rendition rendition, int maxEdge, int width, int height)
+            throws IOException {
+        assertThat(rendition.maxEdge()).isEqualTo(maxEdge);
+        assertThat(rendition.width()).isEqualTo(width);
+        assertThat(rendition.height()).isEqualTo(height);
+        
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(rendition.data()));
+        assertThat(decoded.getWidth()).isEqualTo(width);
+        assertThat(decoded.getHeight()).isEqualTo(height);
+    }
+    
+    private static Resource jpeg(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, Color.ORANGE, width, height, Color.BLUE));
+        graphics.fillRect(0, 0, width, height);
+        graphics.dispose();
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", out);
+        return new ByteArrayResource(out.toByteArray()) {
+            @Override
+            public String getFilename() {
+                return width + "x" + height + ".jpg";
+            }
+        };
+    }
+    
+    /**
+     * A blue JPEG with a red square near the top right corner of the stored pixels and an EXIF
+     * orientation in an APP1 segment
+     */
+    private static Resource rotatedJpeg(int width, int height, int orientation) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.BLUE);
+        graphics.fillRect(0, 0, width, height);
+        graphics.setColor(Color.RED);
+        graphics.fillRect(width - 600, 200, 400, 400);
+        graphics.dispose();
+        
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image), param);
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree("javax_imageio_jpeg_image_1.0");
+        IIOMetadataNode app1 = new IIOMetadataNode("unknown");
+        app1.setAttribute("MarkerTag", "225");
+        app1.setUserObject(exif(orientation));
+        IIOMetadataNode markers = (IIOMetadataNode) root.getElementsByTagName("markerSequence").item(0);
+        markers.insertBefore(app1, markers.getFirstChild());
+        metadata.setFromTree("javax_imageio_jpeg_image_1.0", root);
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(image, null, metadata), param);
+        } finally {
+            writer.dispose();
+        }
+        return new ByteArrayResource(out.toByteArray()) {
+            @Override
+            public String getFilename() {
+                return "rotated.jpg";
+            }
+        };
+    }
+    
+    /**
+     * "Exif\0\0", a big-endian TIFF header and one IFD holding only the orientation tag
+     */
+    private static byte[] exif(int orientation) {
+        return new byte[]{
+                'E', 'x', 'i', 'f', 0, 0,
+                'M', 'M', 0, 42, 0, 0, 0, 8,
+                0, 1,
+                0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, (byte) orientation, 0, 0,
+                0, 0, 0, 0
+        };
+    }
+}
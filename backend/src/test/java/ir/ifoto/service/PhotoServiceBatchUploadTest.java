@@ -0,0 +1,154 @@
+package ir.ifoto.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ir.ifoto.dto.BatchUploadResponse;
+import ir.ifoto.model.Event;
+import ir.ifoto.model.Photo;
+import ir.ifoto.repository.EventRepository;
+import ir.ifoto.repository.FaceEmbeddingRepository;
+import ir.ifoto.repository.PhotoRepository;
+import ir.ifoto.search.FaceIndexService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * The one-at-a-time fallback after a batch insert hits the (event, content hash) index: photos
+ * another upload saved first become duplicates, and a failure leaves no unreferenced objects.
+ */
+class PhotoServiceBatchUploadTest {
+
+    private final PhotoRepository photoRepository = mock(PhotoRepository.class);
+    private final EventRepository eventRepository = mock(EventRepository.class);
+    private final StorageService storageService = mock(StorageService.class);
+    // Storage path by file name, as the storage writes run in parallel
+    private final Map<String, String> storedPaths = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+    private ThreadPoolTaskExecutor storageExecutor;
+    private PhotoService photoService;
+
+    @BeforeEach
+    void setUp() {
+        Event event = new Event();
+        event.setId(1L);
+        when(eventRepository.existsById(1L)).thenReturn(true);
+        when(eventRepository.getReferenceById(1L)).thenReturn(event);
+        when(photoRepository.findByEventIdAndContentHashIn(anyLong(), anyCollection())).thenReturn(List.of());
+        when(photoRepository.findByEventIdAndContentHash(anyLong(), anyString())).thenReturn(Optional.empty());
+        when(photoRepository.saveAll(any())).thenThrow(new DataIntegrityViolationException("uk_photos_event_hash"));
+        when(storageService.store(any(MultipartFile.class), anyString(), anyString())).thenAnswer(invocation -> {
+            MultipartFile file = invocation.getArgument(0);
+            String path = invocation.getArgument(1) + "/" + invocation.getArgument(2);
+            storedPaths.put(file.getOriginalFilename(), path);
+            return path;
+        });
+
+        storageExecutor = new ThreadPoolTaskExecutor();
+        storageExecutor.setCorePoolSize(2);
+        storageExecutor.initialize();
+        photoService = new PhotoService(photoRepository, eventRepository, mock(FaceEmbeddingRepository.class),
+                storageService, mock(FaceExtractionService.class), mock(RenditionService.class),
+                new EventCounterService(eventRepository, mock(GalleryVersionService.class)),
+                mock(FaceIndexService.class), mock(PlatformTransactionManager.class), new ObjectMapper(), storageExecutor);
+        ReflectionTestUtils.setField(photoService, "maxBatchFiles", 200);
+    }
+
+    @AfterEach
+    void tearDown() {
+        storageExecutor.shutdown();
+    }
+
+    @Test
+    void photoSavedFirstByAnotherUploadBecomesADuplicate() {
+        Photo winner = new Photo();
+        winner.setId(99L);
+        winner.setFileName("b.jpg");
+        winner.setFileSize(5L);
+        failSaveOf("b.jpg", new DataIntegrityViolationException("uk_photos_event_hash"));
+        when(photoRepository.findByEventIdAndContentHash(eq(1L), anyString())).thenReturn(Optional.of(winner));
+
+        BatchUploadResponse response = photoService.uploadPhotos(1L, files("a.jpg", "b.jpg", "c.jpg"));
+
+        assertThat(response.getUploaded()).isEqualTo(3);
+        assertThat(response.getResults().get(1).getPhoto().getDuplicate()).isTrue();
+        assertThat(response.getResults().get(1).getPhoto().getId()).isEqualTo(99L);
+        verify(storageService).delete(storedPaths.get("b.jpg"));
+        verify(storageService, never()).delete(storedPaths.get("a.jpg"));
+        verify(storageService, never()).delete(storedPaths.get("c.jpg"));
+    }
+
+    @Test
+    void constraintViolationWithoutAWinnerRemovesTheUnsavedObjects() {
+        failSaveOf("b.jpg", new DataIntegrityViolationException("photos.file_name too long"));
+
+        assertThatThrownBy(() -> photoService.uploadPhotos(1L, files("a.jpg", "b.jpg", "c.jpg")))
+                .isInstanceOf(DataIntegrityViolationException.class);
+
+        assertOnlyDeleted("b.jpg", "c.jpg");
+    }
+
+    @Test
+    void databaseFailureRemovesTheUnsavedObjects() {
+        failSaveOf("b.jpg", new DataAccessResourceFailureException("connection reset"));
+
+        assertThatThrownBy(() -> photoService.uploadPhotos(1L, files("a.jpg", "b.jpg", "c.jpg")))
+                .isInstanceOf(DataAccessResourceFailureException.class);
+
+        assertOnlyDeleted("b.jpg", "c.jpg");
+    }
+
+    /**
+     * Photos are inserted in upload order, so a.jpg was saved before b.jpg failed and keeps its object
+     */
+    private void assertOnlyDeleted(String... names) {
+        for (String name : names) {
+            verify(storageService).delete(storedPaths.get(name));
+        }
+        verify(storageService, never()).delete(storedPaths.get("a.jpg"));
+    }
+
+    private void failSaveOf(String fileName, RuntimeException failure) {
+        when(photoRepository.save(any(Photo.class))).thenAnswer(invocation -> {
+            Photo photo = invocation.getArgument(0);
+            if (photo.getFileName().equals(fileName)) {
+                throw failure;
+            }
+            photo.setId(ids.incrementAndGet());
+            return photo;
+        });
+    }
+
+    private static List<MultipartFile> files(String... names) {
+        List<MultipartFile> files = new ArrayList<>();
+        for (String name : names) {
+            files.add(new MockMultipartFile("files", name, "image/jpeg", name.getBytes()));
+        }
+        return files;
+    }
+}
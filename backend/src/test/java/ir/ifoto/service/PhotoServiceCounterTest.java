@@ -0,0 +1,142 @@
+package ir.ifoto.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ir.ifoto.model.Event;
+import ir.ifoto.model.Photo;
+import ir.ifoto.repository.EventRepository;
+import ir.ifoto.repository.FaceEmbeddingRepository;
+import ir.ifoto.repository.PhotoRepository;
+import ir.ifoto.search.FaceIndexService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Uploads insert outside a transaction, so each row is committed before its delta is recorded.
+ * A reconcile that lands in between must not count the row and then see its delta flushed on top.
+ * The photos table and the stored counter of event 1 are simulated by two integers.
+ */
+class PhotoServiceCounterTest {
+
+    private final PhotoRepository photoRepository = mock(PhotoRepository.class);
+    private final EventRepository eventRepository = mock(EventRepository.class);
+    private final StorageService storageService = mock(StorageService.class);
+    private final AtomicInteger rows = new AtomicInteger();
+    private final AtomicInteger storedCount = new AtomicInteger();
+    private final AtomicLong ids = new AtomicLong();
+    private final CountDownLatch inserted = new CountDownLatch(1);
+    private EventCounterService counters;
+    private ThreadPoolTaskExecutor storageExecutor;
+    private PhotoService photoService;
+
+    @BeforeEach
+    void setUp() {
+        Event event = new Event();
+        event.setId(1L);
+        when(eventRepository.findById(1L)).thenReturn(Optional.of(event));
+        when(eventRepository.existsById(1L)).thenReturn(true);
+        when(eventRepository.getReferenceById(1L)).thenReturn(event);
+        when(eventRepository.findEventIdsWithDriftedCounters()).thenAnswer(invocation ->
+                storedCount.get() != rows.get() ? List.of(1L) : List.of());
+        when(eventRepository.reconcileCounters(anyCollection())).thenAnswer(invocation -> {
+            int drifted = storedCount.get() != rows.get() ? 1 : 0;
+            storedCount.set(rows.get());
+            return drifted;
+        });
+        when(eventRepository.incrementCounters(eq(1L), anyInt(), anyInt())).thenAnswer(invocation -> {
+            storedCount.addAndGet(invocation.getArgument(1));
+            return 1;
+        });
+        when(photoRepository.findByEventIdAndContentHash(anyLong(), anyString())).thenReturn(Optional.empty());
+        when(photoRepository.findByEventIdAndContentHashIn(anyLong(), anyCollection())).thenReturn(List.of());
+        when(photoRepository.save(any(Photo.class))).thenAnswer(invocation -> {
+            Photo photo = invocation.getArgument(0);
+            return commit(List.of(photo)).get(0);
+        });
+        when(photoRepository.saveAll(any())).thenAnswer(invocation -> commit(invocation.getArgument(0)));
+        when(storageService.store(any(MultipartFile.class), anyString(), anyString()))
+                .thenAnswer(invocation -> invocation.getArgument(1) + "/" + invocation.getArgument(2));
+
+        counters = new EventCounterService(eventRepository, mock(GalleryVersionService.class));
+        storageExecutor = new ThreadPoolTaskExecutor();
+        storageExecutor.setCorePoolSize(2);
+        storageExecutor.initialize();
+        photoService = new PhotoService(photoRepository, eventRepository, mock(FaceEmbeddingRepository.class),
+                storageService, mock(FaceExtractionService.class), mock(RenditionService.class), counters,
+                mock(FaceIndexService.class), mock(PlatformTransactionManager.class), new ObjectMapper(), storageExecutor);
+        ReflectionTestUtils.setField(photoService, "maxBatchFiles", 200);
+    }
+
+    @AfterEach
+    void tearDown() {
+        storageExecutor.shutdown();
+    }
+
+    @Test
+    void reconcileBetweenInsertAndDeltaOfASingleUploadCountsThePhotoOnce() throws Exception {
+        CompletableFuture<?> upload = CompletableFuture.runAsync(() -> photoService.uploadPhoto(1L, file("a.jpg")));
+
+        reconcileWhileInserted(upload);
+
+        assertThat(rows).hasValue(1);
+        assertThat(storedCount).hasValue(1);
+    }
+
+    @Test
+    void reconcileBetweenInsertAndDeltaOfABatchCountsThePhotosOnce() throws Exception {
+        CompletableFuture<?> upload = CompletableFuture.runAsync(() ->
+                photoService.uploadPhotos(1L, List.of(file("a.jpg"), file("b.jpg"), file("c.jpg"))));
+
+        reconcileWhileInserted(upload);
+
+        assertThat(rows).hasValue(3);
+        assertThat(storedCount).hasValue(3);
+    }
+
+    private void reconcileWhileInserted(CompletableFuture<?> upload) throws Exception {
+        assertThat(inserted.await(5, TimeUnit.SECONDS)).isTrue();
+        counters.reconcile();
+        upload.get(5, TimeUnit.SECONDS);
+        counters.flush();
+    }
+
+    /**
+     * Commits the rows, then gives a reconcile time to run before the upload records its delta
+     */
+    private List<Photo> commit(List<Photo> photos) throws InterruptedException {
+        List<Photo> saved = new ArrayList<>(photos);
+        saved.forEach(photo -> photo.setId(ids.incrementAndGet()));
+        rows.addAndGet(saved.size());
+        inserted.countDown();
+        Thread.sleep(200);
+        return saved;
+    }
+
+    private static MultipartFile file(String name) {
+        return new MockMultipartFile("file", name, "image/jpeg", name.getBytes());
+    }
+}
@@ -0,0 +1,228 @@
+package ir.ifoto.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ir.ifoto.model.Event;
+import ir.ifoto.model.Photo;
+import ir.ifoto.repository.EventRepository;
+import ir.ifoto.repository.FaceEmbeddingRepository;
+import ir.ifoto.repository.PhotoRepository;
+import ir.ifoto.search.FaceIndexService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Uploads stream from the spooled multipart file: heap allocated while uploading many large
+ * files concurrently stays a small fraction of the bytes uploaded, and no file is ever read
+ * into a byte array.
+ */
+class PhotoServiceUploadMemoryTest {
+    
+    private static final int FILE_SIZE = 16 * 1024 * 1024;
+    private static final int CONCURRENT_UPLOADS = 8;
+    // All uploads together must allocate less than one copy of a single file
+    private static final long ALLOCATION_BUDGET = FILE_SIZE;
+    
+    @TempDir
+    Path tempDir;
+    
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final AtomicLong storedBytes = new AtomicLong();
+    private ThreadPoolTaskExecutor storageExecutor;
+    private PhotoService photoService;
+    
+    @BeforeEach
+    void setUp() throws IOException {
+        PhotoRepository photoRepository = mock(PhotoRepository.class);
+        EventRepository eventRepository = mock(EventRepository.class);
+        StorageService storageService = mock(StorageService.class);
+        
+        Event event = new Event();
+        event.setId(1L);
+        when(eventRepository.findById(1L)).thenReturn(Optional.of(event));
+        when(eventRepository.existsById(1L)).thenReturn(true);
+        when(eventRepository.getReferenceById(1L)).thenReturn(event);
+        when(photoRepository.findByEventIdAndContentHash(anyLong(), anyString())).thenReturn(Optional.empty());
+        when(photoRepository.findByEventIdAndContentHashIn(anyLong(), anyCollection())).thenReturn(List.of());
+        AtomicLong ids = new AtomicLong();
+        when(photoRepository.save(any(Photo.class))).thenAnswer(invocation -> {
+            Photo photo = invocation.getArgument(0);
+            photo.setId(ids.incrementAndGet());
+            return photo;
+        });
+        when(photoRepository.saveAll(any())).thenAnswer(invocation -> {
+            List<Photo> photos = invocation.getArgument(0);
+            photos.forEach(photo -> photo.setId(ids.incrementAndGet()));
+            return photos;
+        });
+        // Drains the part the way the MinIO client streams an object
+        when(storageService.store(any(MultipartFile.class), anyString(), anyString())).thenAnswer(invocation -> {
+            MultipartFile file = invocation.getArgument(0);
+            try (InputStream in = file.getInputStream()) {
+                storedBytes.addAndGet(in.transferTo(OutputStream.nullOutputStream()));
+            }
+            return invocation.getArgument(1) + "/" + invocation.getArgument(2);
+        });
+        
+        storageExecutor = new ThreadPoolTaskExecutor();
+        storageExecutor.setCorePoolSize(4);
+        storageExecutor.setMaxPoolSize(4);
+        storageExecutor.initialize();
+        
+        photoService = new PhotoService(photoRepository, eventRepository, mock(FaceEmbeddingRepository.class),
+                storageService, mock(FaceExtractionService.class), mock(RenditionService.class),
+                new EventCounterService(eventRepository, mock(GalleryVersionService.class)),
+                mock(FaceIndexService.class), mock(PlatformTransactionManager.class), new ObjectMapper(), storageExecutor);
+        ReflectionTestUtils.setField(photoService, "maxBatchFiles", 200);
+    }
+    
+    @AfterEach
+    void tearDown() {
+        storageExecutor.shutdown();
+    }
+    
+    @Test
+    void concurrentSingleUploadsAllocateFarLessThanTheyUpload() throws Exception {
+        List<MultipartFile> files = spooledFiles(CONCURRENT_UPLOADS);
+        ExecutorService clients = Executors.newFixedThreadPool(CONCURRENT_UPLOADS);
+        try {
+            long allocated = allocatedBytesDuring(() -> {
+                List<Future<?>> uploads = new ArrayList<>();
+                for (MultipartFile file : files) {
+                    uploads.add(clients.submit(() -> photoService.uploadPhoto(1L, file)));
+                }
+                for (Future<?> upload : uploads) {
+                    upload.get();
+                }
+            });
+            
+            assertThat(storedBytes.get()).isEqualTo((long) FILE_SIZE * CONCURRENT_UPLOADS);
+            assertThat(allocated).isLessThan(ALLOCATION_BUDGET);
+        } finally {
+            clients.shutdown();
+        }
+    }
+    
+    @Test
+    void batchUploadAllocatesFarLessThanItUploads() throws Exception {
+        List<MultipartFile> files = spooledFiles(CONCURRENT_UPLOADS);
+        
+        long allocated = allocatedBytesDuring(() -> photoService.uploadPhotos(1L, files));
+        
+        assertThat(storedBytes.get()).isEqualTo((long) FILE_SIZE * CONCURRENT_UPLOADS);
+        assertThat(allocated).isLessThan(ALLOCATION_BUDGET);
+    }
+    
+    /**
+     * Bytes allocated by all threads while the work runs; an upload that copied its file onto
+     * the heap would allocate at least {@code FILE_SIZE} on its own
+     */
+    private long allocatedBytesDuring(ThrowingRunnable work) throws Exception {
+        long before = threads.getTotalThreadAllocatedBytes();
+        work.run();
+        return threads.getTotalThreadAllocatedBytes() - before;
+    }
+    
+    private List<MultipartFile> spooledFiles(int count) throws IOException {
+        Random random = new Random(42);
+        byte[] chunk = new byte[64 * 1024];
+        List<MultipartFile> files = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Path path = tempDir.resolve("upload-" + i + ".jpg");
+            try (OutputStream out = Files.newOutputStream(path)) {
+                for (int written = 0; written < FILE_SIZE; written += chunk.length) {
+                    random.nextBytes(chunk);
+                    out.write(chunk);
+                }
+            }
+            files.add(new SpooledMultipartFile(path));
+        }
+        return files;
+    }
+    
+    @FunctionalInterface
+    private interface ThrowingRunnable {
+        void run() throws Exception;
+    }
+    
+    /**
+     * A part spooled to disk, like the container's with file-size-threshold 0, that fails the
+     * test if anything asks for its content as a byte array
+     */
+    private record SpooledMultipartFile(Path path) implements MultipartFile {
+        
+        @Override
+        public String getName() {
+            return "file";
+        }
+        
+        @Override
+        public String getOriginalFilename() {
+            return path.getFileName().toString();
+        }
+        
+        @Override
+        public String getContentType() {
+            return "image/jpeg";
+        }
+        
+        @Override
+        public boolean isEmpty() {
+            return getSize() == 0;
+        }
+        
+        @Override
+        public long getSize() {
+            try {
+                return Files.size(path);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        
+        @Override
+        public byte[] getBytes() {
+            throw new AssertionError("Upload read the whole file into memory");
+        }
+        
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return Files.newInputStream(path);
+        }
+        
+        @Override
+        public void transferTo(File dest) throws IOException {
+            Files.copy(path, dest.toPath());
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package ir.ifoto.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thumbnail and preview rendering of one camera-sized JPEG, as the rendition workers do it.
+ * The single-threaded score is renditions per second per core; the all-threads score shows how
+ * far one worker per core scales. Setup prints the bytes a gallery grid and lightbox load per
+ * photo against the original.
+ * Run with {@code mvn -Pbenchmark test-compile exec:exec -Dbenchmark=RenditionBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class RenditionBenchmark {
+
+    // The application defaults
+    private static final List<Integer> EDGES = List.of(400, 1600);
+    private static final float QUALITY = 0.82f;
+
+    @Param({"4000x3000", "6000x4000"})
+    public String size;
+
+    private ImageResizeService imageResizeService;
+    private Resource original;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        String[] dimensions = size.split("x");
+        byte[] jpeg = photo(Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]));
+        original = new ByteArrayResource(jpeg) {
+            @Override
+            public String getFilename() {
+                return size + ".jpg";
+            }
+        };
+        imageResizeService = new ImageResizeService(1600, 0.9f);
+
+        List<ImageResizeService.Rendition> renditions = imageResizeService.renderRenditions(original, EDGES, QUALITY);
+        System.out.printf("%n%s original %d KB", size, jpeg.length / 1024);
+        for (ImageResizeService.Rendition rendition : renditions) {
+            System.out.printf(", %d edge %d KB (%.1f%%)", rendition.maxEdge(), rendition.data().length / 1024,
+                    100.0 * rendition.data().length / jpeg.length);
+        }
+        System.out.println();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public List<ImageResizeService.Rendition> renderSingleThread() throws IOException {
+        return imageResizeService.renderRenditions(original, EDGES, QUALITY);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public List<ImageResizeService.Rendition> renderAllCores() throws IOException {
+        return imageResizeService.renderRenditions(original, EDGES, QUALITY);
+    }
+
+    /**
+     * A gradient with per-pixel noise, so the original compresses about as poorly as a photo
+     */
+    private static byte[] photo(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        SplittableRandom random = new SplittableRandom(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int red = Math.min(255, 255 * x / width + random.nextInt(24));
+                int green = Math.min(255, 255 * y / height + random.nextInt(24));
+                int blue = Math.min(255, 128 + random.nextInt(24));
+                image.setRGB(x, y, red << 16 | green << 8 | blue);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", out);
+        return out.toByteArray();
+    }
+}
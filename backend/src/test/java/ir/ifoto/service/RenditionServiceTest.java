@@ -0,0 +1,94 @@
+package ir.ifoto.service;
+
+import ir.ifoto.model.Photo;
+import ir.ifoto.repository.PhotoRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyFloat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RenditionServiceTest {
+    
+    private final PhotoRepository photoRepository = mock(PhotoRepository.class);
+    private final StorageService storageService = mock(StorageService.class);
+    private final ImageResizeService imageResizeService = mock(ImageResizeService.class);
+    private final ThreadPoolTaskExecutor executor = mock(ThreadPoolTaskExecutor.class);
+    private RenditionService renditionService;
+    
+    @BeforeEach
+    void setUp() {
+        renditionService = new RenditionService(photoRepository, storageService, imageResizeService,
+                mock(GalleryVersionService.class), executor, 400, 1600, 0.82f,
+                5, Duration.ofMinutes(1), Duration.ofHours(1));
+    }
+    
+    @Test
+    void failureIsRecordedOnThePhotoWithBackoff() throws IOException {
+        Photo photo = photo(3);
+        when(photoRepository.findById(7L)).thenReturn(Optional.of(photo));
+        when(imageResizeService.renderRenditions(any(), anyList(), anyFloat())).thenThrow(new IOException("read timeout"));
+        
+        LocalDateTime before = LocalDateTime.now();
+        renditionService.process(7L);
+        
+        // Fourth attempt: 1m doubled three times
+        ArgumentCaptor<LocalDateTime> nextAttemptAt = ArgumentCaptor.forClass(LocalDateTime.class);
+        verify(photoRepository).markRenditionFailed(eq(7L), nextAttemptAt.capture());
+        assertThat(nextAttemptAt.getValue()).isBetween(before.plusMinutes(8), LocalDateTime.now().plusMinutes(8));
+        assertThat(renditionService.getStats()).containsEntry("failures", 1L);
+    }
+    
+    @Test
+    void backoffIsCappedAtTheMaximum() throws IOException {
+        when(photoRepository.findById(7L)).thenReturn(Optional.of(photo(30)));
+        when(imageResizeService.renderRenditions(any(), anyList(), anyFloat())).thenThrow(new IOException("corrupt"));
+        
+        LocalDateTime before = LocalDateTime.now();
+        renditionService.process(7L);
+        
+        ArgumentCaptor<LocalDateTime> nextAttemptAt = ArgumentCaptor.forClass(LocalDateTime.class);
+        verify(photoRepository).markRenditionFailed(eq(7L), nextAttemptAt.capture());
+        assertThat(nextAttemptAt.getValue()).isBetween(before.plusHours(1), LocalDateTime.now().plusHours(1));
+    }
+    
+    @Test
+    void sweepOnlyAsksForPhotosThatAreDueAndBoundsThePage() {
+        when(executor.getQueueCapacity()).thenReturn(100);
+        when(executor.getQueueSize()).thenReturn(90);
+        when(photoRepository.findIdsDueForRenditions(eq(5), any(), any())).thenReturn(List.of(1L, 2L));
+        
+        renditionService.dispatchMissing();
+        
+        ArgumentCaptor<Pageable> page = ArgumentCaptor.forClass(Pageable.class);
+        verify(photoRepository).findIdsDueForRenditions(eq(5), any(LocalDateTime.class), page.capture());
+        assertThat(page.getValue().getPageSize()).isEqualTo(10);
+        verify(executor, times(2)).execute(any(Runnable.class));
+    }
+    
+    private static Photo photo(int renditionAttempts) {
+        Photo photo = new Photo();
+        photo.setId(7L);
+        photo.setStoragePath("events/1/photo.jpg");
+        photo.setFileName("photo.jpg");
+        photo.setFileSize(1024L);
+        photo.setRenditionAttempts(renditionAttempts);
+        return photo;
+    }
+}
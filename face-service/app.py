@@ -8,6 +8,7 @@ import os
 import logging
 from flask import Flask, request, jsonify
 from flask_cors import CORS
+from werkzeug.serving import WSGIRequestHandler
 from werkzeug.utils import secure_filename
 import numpy as np
 from app.face_processor import FaceProcessor
@@ -137,7 +138,8 @@ def extract_embeddings():
                 'vector_id': vector_id,
                 'face_index': idx,
                 'bbox': result['bbox'].tolist(),
-                'confidence': float(result['det_score'])
+                'confidence': float(result['det_score']),
+                'embedding': result['embedding'].tolist()
             })
         
         os.remove(filepath)
@@ -206,6 +208,92 @@ def search_faces():
         return jsonify({'error': 'Face search failed'}), 500
 
 
+@app.route('/api/face/embed', methods=['POST'])
+def embed_query():
+    """
+    Compute the embedding of the first face in a query image without searching.
+    Lets callers cache the embedding and re-run searches with /api/face/search-vector.
+    With all_faces=true every detected face is returned under 'faces', so a group
+    photo is embedded in a single inference pass.
+    """
+    if 'file' not in request.files:
+        return jsonify({'error': 'No file provided'}), 400
+    
+    file = request.files['file']
+    
+    if file.filename == '' or not allowed_file(file.filename):
+        return jsonify({'error': 'Invalid file'}), 400
+    
+    try:
+        filename = secure_filename(file.filename)
+        filepath = os.path.join(app.config['UPLOAD_FOLDER'], filename)
+        file.save(filepath)
+        
+        results = face_processor.extract_embeddings(filepath)
+        
+        os.remove(filepath)
+        
+        if len(results) == 0:
+            return jsonify({'error': 'No face detected in query image'}), 400
+        
+        # Use the first detected face, as /api/face/search does
+        result = results[0]
+        response = {
+            'face_count': len(results),
+            'embedding': result['embedding'].tolist(),
+            'bbox': result['bbox'].tolist(),
+            'confidence': float(result['det_score'])
+        }
+        
+        if request.form.get('all_faces', 'false').lower() == 'true':
+            response['faces'] = [{
+                'embedding': face['embedding'].tolist(),
+                'bbox': face['bbox'].tolist(),
+                'confidence': float(face['det_score'])
+            } for face in results]
+        
+        return jsonify(response)
+    
+    except Exception as e:
+        logger.error(f"Error embedding query image: {str(e)}", exc_info=True)
+        return jsonify({'error': 'Query embedding failed'}), 500
+
+
+@app.route('/api/face/search-vector', methods=['POST'])
+def search_by_vector():
+    """
+    Search for similar faces using a precomputed query embedding
+    """
+    data = request.get_json(silent=True) or {}
+    event_id = data.get('event_id')
+    embedding = data.get('embedding')
+    limit = int(data.get('limit', 50))
+    threshold = float(data.get('threshold', 0.6))
+    
+    if not event_id:
+        return jsonify({'error': 'event_id is required'}), 400
+    
+    if not embedding:
+        return jsonify({'error': 'embedding is required'}), 400
+    
+    try:
+        matches = vector_store.search_similar(
+            query_embedding=np.asarray(embedding, dtype=np.float32),
+            event_id=int(event_id),
+            limit=limit,
+            threshold=threshold
+        )
+        
+        return jsonify({
+            'matches': matches,
+            'total_matches': len(matches)
+        })
+    
+    except Exception as e:
+        logger.error(f"Error searching faces by vector: {str(e)}", exc_info=True)
+        return jsonify({'error': 'Face search failed'}), 500
+
+
 @app.route('/api/face/delete-event', methods=['DELETE'])
 def delete_event_embeddings():
     """
@@ -228,4 +316,7 @@ def delete_event_embeddings():
 if __name__ == '__main__':
     logger.info("Starting ifoto Face Recognition Service")
     logger.info(f"GPU Available: {face_processor.gpu_available}")
-    app.run(host='0.0.0.0', port=5000, debug=False)
+    # HTTP/1.1 keeps connections open between requests, so the backend's pooled
+    # connections are reused instead of reconnecting for every upload and search
+    WSGIRequestHandler.protocol_version = "HTTP/1.1"
+    app.run(host='0.0.0.0', port=5000, debug=False, threaded=True)
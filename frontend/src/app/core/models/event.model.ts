@@ -6,6 +6,7 @@ export interface Event {
   eventDate: string;
   location?: string;
   photoCount: number;
+  faceCount?: number;
   category?: string;
   status?: 'upcoming' | 'ongoing' | 'completed';
 }
@@ -15,10 +15,18 @@ export interface GalleryPhoto {
   id: number;
   fileName: string;
   storagePath: string;
+  thumbnailPath: string | null;
+  previewPath: string | null;
   faceCount: number;
   uploadedAt: string;
 }
 
+export interface GalleryPage {
+  photos: GalleryPhoto[];
+  nextCursor: string | null;
+  hasMore: boolean;
+}
+
 export interface FaceSearchResponse {
   matches: PhotoMatch[];
   totalMatches: number;
@@ -51,8 +59,12 @@ export class PhotoService {
     });
   }
 
-  getEventPhotos(eventId: number): Observable<GalleryPhoto[]> {
-    return this.api.get<GalleryPhoto[]>(`/api/photos/events/${eventId}`);
+  getEventPhotos(eventId: number, cursor?: string | null): Observable<GalleryPage> {
+    const params: Record<string, string> = {};
+    if (cursor) {
+      params['cursor'] = cursor;
+    }
+    return this.api.get<GalleryPage>(`/api/photos/events/${eventId}`, { params });
   }
 
   searchByFace(
@@ -25,8 +25,11 @@ import { PhotoService, GalleryPhoto } from '../../core/services/photo.service';
 export class EventGalleryComponent implements OnInit {
   eventId: number | null = null;
   photos: GalleryPhoto[] = [];
+  nextCursor: string | null = null;
   loading = false;
+  loadingMore = false;
   error: string | null = null;
+  selectedIndex = -1;
 
   constructor(
     private photoService: PhotoService,
@@ -51,8 +54,9 @@ export class EventGalleryComponent implements OnInit {
     this.error = null;
 
     this.photoService.getEventPhotos(this.eventId).subscribe({
-      next: (photos) => {
-        this.photos = photos;
+      next: (page) => {
+        this.photos = page.photos;
+        this.nextCursor = page.nextCursor;
         this.loading = false;
       },
       error: (err) => {
@@ -63,12 +67,63 @@ export class EventGalleryComponent implements OnInit {
     });
   }
 
+  loadMore(): void {
+    if (!this.eventId || !this.nextCursor || this.loadingMore) return;
+
+    this.loadingMore = true;
+
+    this.photoService.getEventPhotos(this.eventId, this.nextCursor).subscribe({
+      next: (page) => {
+        this.photos = [...this.photos, ...page.photos];
+        this.nextCursor = page.nextCursor;
+        this.loadingMore = false;
+      },
+      error: (err) => {
+        console.error('Failed to load more photos:', err);
+        this.loadingMore = false;
+      }
+    });
+  }
+
   navigateToSearch(): void {
     if (this.eventId) {
       this.router.navigate(['/search', this.eventId]);
     }
   }
 
+  get selectedPhoto(): GalleryPhoto | null {
+    return this.photos[this.selectedIndex] ?? null;
+  }
+
+  openLightbox(index: number): void {
+    this.selectedIndex = index;
+  }
+
+  closeLightbox(): void {
+    this.selectedIndex = -1;
+  }
+
+  nextPhoto(): void {
+    if (this.selectedIndex < this.photos.length - 1) {
+      this.selectedIndex++;
+    }
+  }
+
+  previousPhoto(): void {
+    if (this.selectedIndex > 0) {
+      this.selectedIndex--;
+    }
+  }
+
+  // The original is only shown until the photo's renditions have been generated
+  getThumbnailUrl(photo: GalleryPhoto): string {
+    return this.getPhotoUrl(photo.thumbnailPath ?? photo.storagePath);
+  }
+
+  getPreviewUrl(photo: GalleryPhoto): string {
+    return this.getPhotoUrl(photo.previewPath ?? photo.storagePath);
+  }
+
   getPhotoUrl(storagePath: string): string {
     return `${storagePath}`;
   }